@@ -0,0 +1,62 @@
+package ceu.biolab.benchmarks;
+
+/**
+ * Shared inputs for the benchmarks. Formula sizes and adduct complexities are exposed as JMH parameters so every
+ * workload can be compared across the same inputs.
+ *
+ * @author Alberto Gil-de-la-Fuente
+ * @since 1.0.2
+ */
+public final class BenchmarkData {
+
+    /**
+     * Formulas in Hill notation of increasing size.
+     */
+    public enum FormulaSize {
+        /** Water */
+        SMALL("H2O"),
+        /** Glucose */
+        MEDIUM("C6H12O6"),
+        /** Small peptide-like metabolite with S and Cl */
+        LARGE("C45H73N5O10S3Cl"),
+        /** Many different elements, including metals */
+        HUGE("C120H190N30O45P3S4ClNaKFeCu");
+
+        private final String hill;
+
+        FormulaSize(String hill) {
+            this.hill = hill;
+        }
+
+        String hill() {
+            return hill;
+        }
+    }
+
+    /**
+     * Adducts of increasing parsing complexity.
+     */
+    public enum AdductComplexity {
+        /** One element, singly charged */
+        SIMPLE("[M+H]+"),
+        /** Addition and subtraction of sub formulas */
+        LOSS("[M+H-H2O]+"),
+        /** Multimer with a multi element neutral */
+        MULTIMER("[2M+CH3COOH-H]-"),
+        /** Multiplied sub formulas and a multiple charge */
+        MULTICHARGED("[M-3H2O+2H]2+");
+
+        private final String adduct;
+
+        AdductComplexity(String adduct) {
+            this.adduct = adduct;
+        }
+
+        String adduct() {
+            return adduct;
+        }
+    }
+
+    private BenchmarkData() {
+    }
+}
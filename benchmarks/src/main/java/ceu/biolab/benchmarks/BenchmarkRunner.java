@@ -0,0 +1,38 @@
+package ceu.biolab.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks once per thread count with the GC profiler enabled, so allocation rate
+ * (gc.alloc.rate.norm) is reported next to the throughput of each workload.
+ * <p>
+ * Usage: {@code java -cp target/benchmarks.jar ceu.biolab.benchmarks.BenchmarkRunner [regexp] [threads,...]}.
+ * By default every benchmark is run with 1, 2, 4 and 8 threads.
+ *
+ * @author Alberto Gil-de-la-Fuente
+ * @since 1.0.2
+ */
+public class BenchmarkRunner {
+
+    private static final String DEFAULT_INCLUDE = "ceu\\.biolab\\.benchmarks\\..*";
+    private static final String DEFAULT_THREADS = "1,2,4,8";
+
+    public static void main(String[] args) throws RunnerException {
+        String include = args.length > 0 ? args[0] : DEFAULT_INCLUDE;
+        String threadCounts = args.length > 1 ? args[1] : DEFAULT_THREADS;
+
+        for (String threadCount : threadCounts.split(",")) {
+            int threads = Integer.parseInt(threadCount.trim());
+            Options options = new OptionsBuilder()
+                    .include(include)
+                    .threads(threads)
+                    .addProfiler(GCProfiler.class)
+                    .build();
+            new Runner(options).run();
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package ceu.biolab.benchmarks;
+
+import ceu.biolab.Formula;
+import org.openjdk.jol.info.GraphLayout;
+
+/**
+ * Prints the retained size of a parsed formula of every FormulaSize, i.e., the formula and all the objects reachable
+ * from it, measured with JOL. Run with
+ * {@code java -Djdk.attach.allowAttachSelf -cp target/benchmarks.jar ceu.biolab.benchmarks.FormulaFootprint}
+ * and add {@code -prof gc} to the JMH run of FormulaOperationsBenchmark to see the bytes allocated per operation.
+ *
+ * @author Alberto Gil-de-la-Fuente
+ * @since 1.0.2
+ */
+public class FormulaFootprint {
+
+    public static void main(String[] args) throws Exception {
+        System.out.printf("%-8s %-30s %10s %8s%n", "Size", "Formula", "Bytes", "Objects");
+        for (BenchmarkData.FormulaSize formulaSize : BenchmarkData.FormulaSize.values()) {
+            Formula formula = Formula.formulaFromStringHill(formulaSize.hill(), null, null);
+            GraphLayout layout = GraphLayout.parseInstance(formula);
+            System.out.printf("%-8s %-30s %10d %8d%n", formulaSize, formulaSize.hill(), layout.totalSize(),
+                    layout.totalCount());
+        }
+        if (args.length > 0 && args[0].equals("-v")) {
+            Formula formula = Formula.formulaFromStringHill(BenchmarkData.FormulaSize.LARGE.hill(), null, null);
+            System.out.println(GraphLayout.parseInstance(formula).toFootprint());
+        }
+    }
+}
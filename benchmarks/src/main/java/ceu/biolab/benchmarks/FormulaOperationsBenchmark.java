@@ -0,0 +1,94 @@
+package ceu.biolab.benchmarks;
+
+import ceu.biolab.Formula;
+import ceu.biolab.FormulaType;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Workloads on already parsed formulas: arithmetic, mass calculation with adduct, final ion formula and type.
+ *
+ * @author Alberto Gil-de-la-Fuente
+ * @since 1.0.2
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FormulaOperationsBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class FormulaState {
+        @Param({"SMALL", "MEDIUM", "LARGE", "HUGE"})
+        public BenchmarkData.FormulaSize formulaSize;
+
+        Formula formula;
+        Formula water;
+
+        @Setup
+        public void setup() throws Exception {
+            this.formula = Formula.formulaFromStringHill(formulaSize.hill(), null, null);
+            this.water = Formula.formulaFromStringHill("H2O", null, null);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class FormulaWithAdductState {
+        @Param({"SMALL", "MEDIUM", "LARGE", "HUGE"})
+        public BenchmarkData.FormulaSize formulaSize;
+
+        @Param({"SIMPLE", "LOSS", "MULTIMER", "MULTICHARGED"})
+        public BenchmarkData.AdductComplexity adductComplexity;
+
+        Formula formula;
+
+        @Setup
+        public void setup() throws Exception {
+            // C6H12O6 contains the H and O removed by every adduct in AdductComplexity
+            this.formula = Formula.formulaFromStringHill(formulaSize.hill() + "C6H12O6", adductComplexity.adduct(), null);
+        }
+    }
+
+    @Benchmark
+    public Formula add(FormulaState state) throws Exception {
+        return state.formula.add(state.water);
+    }
+
+    @Benchmark
+    public Formula addAndSubtract(FormulaState state) throws Exception {
+        return state.formula.add(state.water).subtract(state.water);
+    }
+
+    @Benchmark
+    public Formula multiply(FormulaState state) throws Exception {
+        return state.formula.multiply(3);
+    }
+
+    /**
+     * The type is not memoized, so the formula of the state can be reused.
+     */
+    @Benchmark
+    public FormulaType type(FormulaState state) {
+        return state.formula.getType();
+    }
+
+    /**
+     * Builds the formula from its elements so the mass calculation with the adduct is part of the measurement.
+     */
+    @Benchmark
+    public double monoisotopicMassWithAdduct(FormulaWithAdductState state) throws Exception {
+        Formula formula = new Formula(state.formula.getElements(), state.formula.getAdduct(), 0, "");
+        return formula.getMonoisotopicMassWithAdduct();
+    }
+
+    /**
+     * Builds the formula from its elements because the final formula is memoized after the first call.
+     */
+    @Benchmark
+    public String finalFormulaWithAdduct(FormulaWithAdductState state) throws Exception {
+        Formula formula = new Formula(state.formula.getElements(), state.formula.getAdduct(), 0, "");
+        return formula.getFinalFormulaWithAdduct();
+    }
+}
@@ -0,0 +1,63 @@
+package ceu.biolab.benchmarks;
+
+import ceu.biolab.Adduct;
+import ceu.biolab.Formula;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing workloads: Hill formulas with and without adduct and stand-alone adduct construction.
+ *
+ * @author Alberto Gil-de-la-Fuente
+ * @since 1.0.2
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FormulaParsingBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class FormulaState {
+        @Param({"SMALL", "MEDIUM", "LARGE", "HUGE"})
+        public BenchmarkData.FormulaSize formulaSize;
+
+        String hill;
+        String hillWithGlucose;
+
+        @Setup
+        public void setup() {
+            this.hill = formulaSize.hill();
+            // C6H12O6 contains the H and O removed by every adduct in AdductComplexity
+            this.hillWithGlucose = formulaSize.hill() + "C6H12O6";
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class AdductState {
+        @Param({"SIMPLE", "LOSS", "MULTIMER", "MULTICHARGED"})
+        public BenchmarkData.AdductComplexity adductComplexity;
+    }
+
+    @Benchmark
+    public Formula formulaFromStringHill(FormulaState formulaState) throws Exception {
+        return Formula.formulaFromStringHill(formulaState.hill, null, null);
+    }
+
+    @Benchmark
+    public Formula formulaFromStringHillWithAdduct(FormulaState formulaState, AdductState adductState) throws Exception {
+        return Formula.formulaFromStringHill(formulaState.hillWithGlucose, adductState.adductComplexity.adduct(), null);
+    }
+
+    @Benchmark
+    public Adduct newAdduct(AdductState adductState) throws Exception {
+        return new Adduct(adductState.adductComplexity.adduct());
+    }
+
+    @Benchmark
+    public Adduct adductOf(AdductState adductState) throws Exception {
+        return Adduct.of(adductState.adductComplexity.adduct());
+    }
+}
@@ -3,7 +3,8 @@ package ceu.biolab;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.Map;
-import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * The class represents a chemical adduct, including its formula, charge, and mass.
@@ -15,6 +16,12 @@ import java.util.HashMap;
  */
 public class Adduct {
     private static final double ELECTRON_WEIGHT = 0.00054858;
+    private static final int CACHE_MAX_SIZE = 1024; //Maximum number of distinct adducts kept by of(String)
+
+    private static final Map<String, Adduct> CACHE = new ConcurrentHashMap<>();
+    private static final Map<String, Boolean> INVALID = new ConcurrentHashMap<>(); //Strings rejected by tryOf(String)
+    private static final LongAdder CACHE_HITS = new LongAdder();
+    private static final LongAdder CACHE_MISSES = new LongAdder();
 
     private int multimer;
     private Formula formulaPlus;
@@ -60,6 +67,92 @@ public class Adduct {
         }
     }
 
+    /**
+     * Get the adduct represented by a String, parsing it only the first time it is requested. Parsed adducts are
+     * kept in a cache shared by all threads. Once the cache holds its maximum number of adducts, new adducts are
+     * parsed on every call instead of being added.
+     * @param adduct String representation like '[M+CH3CN+H]+', '[M-3H2O+2H]2+' or '[5M+Ca]2+'
+     * @return The adduct corresponding to the String
+     * @throws IncorrectFormula If the formula contains invalid elements or values
+     * @throws NotFoundElement If the element is not found in the periodic table
+     * @throws IncorrectAdduct If the adduct provided is invalid
+     */
+    public static Adduct of(String adduct) throws IncorrectAdduct, NotFoundElement, IncorrectFormula {
+        Adduct cached = CACHE.get(adduct);
+        MetricsListener metrics = Metrics.listener();
+        if (cached != null) {
+            CACHE_HITS.increment();
+            metrics.adductCacheHit();
+            return cached;
+        }
+        CACHE_MISSES.increment();
+        long start = Metrics.start(metrics);
+        FormulaEvents.AdductParse event = new FormulaEvents.AdductParse();
+        event.begin();
+        Adduct parsed;
+        try {
+            parsed = new Adduct(adduct);
+        } catch (IncorrectAdduct | NotFoundElement | IncorrectFormula | RuntimeException e) {
+            event.finish(adduct, FormulaEvents.outcome(e));
+            throw e;
+        }
+        metrics.adductParsed(Metrics.elapsed(metrics, start));
+        event.finish(adduct, FormulaEvents.OK);
+        if (CACHE.size() < CACHE_MAX_SIZE) {
+            Adduct previous = CACHE.putIfAbsent(adduct, parsed);
+            if (previous != null) {
+                return previous;
+            }
+        }
+        return parsed;
+    }
+
+    /**
+     * Get the adduct represented by a String without throwing exceptions. The strings that are not valid adducts are
+     * kept in a cache, so each one creates an exception only the first time it is requested. That cache is cleared
+     * when it holds CACHE_MAX_SIZE strings.
+     * @param adduct String representation like '[M+CH3CN+H]+', '[M-3H2O+2H]2+' or '[5M+Ca]2+'
+     * @return The adduct corresponding to the String, or null if the String is not a valid adduct
+     */
+    static Adduct tryOf(String adduct) {
+        if (INVALID.containsKey(adduct)) {
+            return null;
+        }
+        try {
+            return of(adduct);
+        } catch (IncorrectAdduct | NotFoundElement | IncorrectFormula | NumberFormatException e) {
+            if (INVALID.size() >= CACHE_MAX_SIZE) {
+                INVALID.clear();
+            }
+            INVALID.put(adduct, Boolean.TRUE);
+            return null;
+        }
+    }
+
+    /**
+     * Get the number of calls to of(String) answered from the cache
+     * @return The number of cache hits
+     */
+    public static long getCacheHits() {
+        return CACHE_HITS.sum();
+    }
+
+    /**
+     * Get the number of calls to of(String) that had to parse the adduct
+     * @return The number of cache misses
+     */
+    public static long getCacheMisses() {
+        return CACHE_MISSES.sum();
+    }
+
+    /**
+     * Get the number of distinct adducts currently cached
+     * @return The size of the cache
+     */
+    public static int getCacheSize() {
+        return CACHE.size();
+    }
+
     /**
      *
      * @param adductFormula String representing the formula within an adduct in the form +HCOOH-H, +Ca, +H, +CH3COOH-H, etc.
@@ -75,8 +168,8 @@ public class Adduct {
         Pattern regex = Pattern.compile(pattern);
         Matcher matcher = regex.matcher(adductFormula);
 
-        // Local dictionary to store the final number of elements to add or subtract
-        Map<Element.ElementType, Integer> finalAdductElements = new HashMap<>();
+        // Accumulator of the final number of elements to add (positive) or subtract (negative)
+        FormulaBuilder finalAdductElements = new FormulaBuilder();
 
         while (matcher.find()) {
             String symbol = matcher.group(1);
@@ -86,38 +179,21 @@ public class Adduct {
             int numberSubformulas = (numberStr == null || numberStr.isEmpty()) ? 1 : Integer.parseInt(numberStr);
 
             // Convert the subformula string to a ceu.biolab.Formula object
-            Formula subformula = Formula.formulaFromStringHill(subformulaStr, null, null);
-            Map<Element.ElementType, Integer> subformulaElements = subformula.getElements();
+            Formula subformula = HillFormulaParser.parse(subformulaStr, null, null);
 
             // Update finalAdductElements depending on the symbol (+ or -)
             if (symbol.equals("+")) {
-                for (Map.Entry<Element.ElementType, Integer> entry : subformulaElements.entrySet()) {
-                    finalAdductElements.put(entry.getKey(), finalAdductElements.getOrDefault(entry.getKey(), 0) + entry.getValue() * numberSubformulas);
-                }
+                finalAdductElements.add(subformula, numberSubformulas);
             } else if (symbol.equals("-")) {
-                for (Map.Entry<Element.ElementType, Integer> entry : subformulaElements.entrySet()) {
-                    finalAdductElements.put(entry.getKey(), finalAdductElements.getOrDefault(entry.getKey(), 0) - entry.getValue() * numberSubformulas);
-                }
+                finalAdductElements.add(subformula, -numberSubformulas);
             } else {
                 throw new IncorrectAdduct(adductFormula);
             }
         }
 
         // Separate the elements to add and subtract
-        Map<Element.ElementType, Integer> elementsToAdd = new HashMap<>();
-        Map<Element.ElementType, Integer> elementsToSubtract = new HashMap<>();
-
-        for (Map.Entry<Element.ElementType, Integer> entry : finalAdductElements.entrySet()) {
-            if (entry.getValue() > 0) {
-                elementsToAdd.put(entry.getKey(), entry.getValue());
-            } else if (entry.getValue() < 0) {
-                elementsToSubtract.put(entry.getKey(), -entry.getValue());
-            }
-        }
-
-        // Create ceu.biolab.Formula objects for the elements to add and subtract
-        this.formulaPlus = new Formula(elementsToAdd, null, 0, "");
-        this.formulaMinus = new Formula(elementsToSubtract, null, 0, "");
+        this.formulaPlus = finalAdductElements.buildNeutral(true);
+        this.formulaMinus = finalAdductElements.buildNeutral(false);
 
         // Calculate the adduct mass
         this.adductMass = this.formulaPlus.getMonoisotopicMass() - this.formulaMinus.getMonoisotopicMass();
@@ -144,11 +220,11 @@ public class Adduct {
             // Adjust mass based on element and symbol (+/-)
             if (symbol.equals("+")) {
                 // Add mass of elements
-                Formula elementFormula = Formula.formulaFromStringHill(element, null, null);
+                Formula elementFormula = HillFormulaParser.parse(element, null, null);
                 formulaPlus = formulaPlus.add(elementFormula.multiply(count));
             } else if (symbol.equals("-")) {
                 // Subtract mass of elements
-                Formula elementFormula = Formula.formulaFromStringHill(element, null, null);
+                Formula elementFormula = HillFormulaParser.parse(element, null, null);
                 formulaMinus = formulaMinus.add(elementFormula.multiply(count));
             } else {
                 throw new IncorrectAdduct(adductFormula);
@@ -224,6 +300,52 @@ public class Adduct {
         return chargeType;
     }
 
+    /**
+     * Get the charge of a neutral formula with this adduct
+     * @return The charge, negative for negative adducts
+     */
+    int getFinalCharge() {
+        switch (chargeType) {
+            case POSITIVE:
+                return charge;
+            case NEGATIVE:
+                return -charge;
+            case NEUTRAL:
+                return 0;
+            default:
+                throw new IllegalStateException("The adduct contains a wrong charge type");
+        }
+    }
+
+    /**
+     * Calculate the monoisotopic mass of a neutral formula with this adduct. It is the same value returned by
+     * Formula.getMonoisotopicMassWithAdduct for a neutral formula with this adduct.
+     * @param monoisotopicMass The monoisotopic mass of the neutral formula
+     * @return The monoisotopic mass taking into account the adduct
+     */
+    public double getMonoisotopicMassWithAdduct(double monoisotopicMass) {
+        int finalCharge = getFinalCharge();
+        double monoisotopicMassWithAdduct = monoisotopicMass * multimer + formulaPlus.getMonoisotopicMass() - formulaMinus.getMonoisotopicMass();
+        double electronsWeight = (finalCharge != 0) ? -ELECTRON_WEIGHT * finalCharge : 0;
+        monoisotopicMassWithAdduct += electronsWeight;
+        int adductChargeToDivide = (finalCharge != 0) ? finalCharge : 1;
+        return monoisotopicMassWithAdduct / Math.abs(adductChargeToDivide);
+    }
+
+    /**
+     * Calculate the monoisotopic mass of the neutral formula that has a monoisotopic mass with this adduct. It is the
+     * inverse of getMonoisotopicMassWithAdduct(double).
+     * @param monoisotopicMassWithAdduct The monoisotopic mass taking into account the adduct, e.g. the m/z of a peak
+     * @return The monoisotopic mass of the neutral formula
+     */
+    public double getNeutralMonoisotopicMass(double monoisotopicMassWithAdduct) {
+        int finalCharge = getFinalCharge();
+        int adductChargeToDivide = (finalCharge != 0) ? finalCharge : 1;
+        double electronsWeight = (finalCharge != 0) ? -ELECTRON_WEIGHT * finalCharge : 0;
+        double mass = monoisotopicMassWithAdduct * Math.abs(adductChargeToDivide) - electronsWeight;
+        return (mass - formulaPlus.getMonoisotopicMass() + formulaMinus.getMonoisotopicMass()) / multimer;
+    }
+
     /**
      * Compares this adduct to another object for equality.
      *
@@ -0,0 +1,221 @@
+package ceu.biolab;
+
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Immutable list of adducts with the values needed to calculate the m/z of a formula with each of them precomputed:
+ * the multimer, the charge and the masses of the elements added and subtracted. The m/z of a formula with all the
+ * adducts of the catalog are calculated in one pass without creating a Formula for each adduct.
+ * The built-in catalogs ESI_POSITIVE and ESI_NEGATIVE contain the adducts commonly found in electrospray ionization.
+ *
+ * @author Alberto Gil-de-la-Fuente
+ * @since 1.0.2
+ */
+public class AdductCatalog {
+    private static final double ELECTRON_WEIGHT = 0.00054858;
+
+    /**
+     * Common adducts in positive electrospray ionization
+     */
+    public static final AdductCatalog ESI_POSITIVE = builtIn(List.of(
+            "[M+H]+", "[M+2H]2+", "[M+3H]3+", "[M+Na]+", "[M+K]+", "[M+NH4]+", "[M+Li]+",
+            "[M+H-H2O]+", "[M+H-2H2O]+", "[M+Na-H2O]+", "[M+H+NH4]2+", "[M+H+Na]2+", "[M+H+K]2+", "[M+2Na]2+",
+            "[M+2Na-H]+", "[M+2K-H]+", "[M+CH3CN+H]+", "[M+CH3CN+Na]+", "[M+CH3OH+H]+", "[M+C2H6OS+H]+",
+            "[M+HCOONa+H]+", "[2M+H]+", "[2M+Na]+", "[2M+K]+", "[2M+NH4]+", "[2M+CH3CN+H]+"));
+
+    /**
+     * Common adducts in negative electrospray ionization
+     */
+    public static final AdductCatalog ESI_NEGATIVE = builtIn(List.of(
+            "[M-H]-", "[M-2H]2-", "[M-3H]3-", "[M-H-H2O]-", "[M+Cl]-", "[M+Br]-", "[M+Na-2H]-", "[M+K-2H]-",
+            "[M+HCOOH-H]-", "[M+CH3COOH-H]-", "[M+CF3COOH-H]-", "[M+HCOONa-H]-", "[2M-H]-", "[2M+HCOOH-H]-",
+            "[2M+CH3COOH-H]-", "[3M-H]-"));
+
+    private final String[] adductStrings;
+    private final Adduct[] adducts;
+    private final int[] multimers;
+    private final int[] charges; //Charge of each adduct, negative for negative adducts
+    private final double[] plusMasses; //Mass of the elements added by each adduct
+    private final double[] minusMasses; //Mass of the elements subtracted by each adduct
+    private final byte[][] minusOrdinals; //Elements subtracted by each adduct
+    private final int[][] minimumCounts; //Elements that the formula multiplied by the multimer needs to apply the adduct
+
+    /**
+     * Constructor for the ceu.biolab.AdductCatalog class
+     *
+     * @param adducts The adducts in the form '[M+C2H2O-H]-', '[M-3H2O+2H]2+' or '[5M+Ca]2+'. The order is kept in the
+     *                arrays filled by the catalog
+     * @throws IncorrectFormula If an adduct contains invalid elements or values
+     * @throws NotFoundElement If an element is not found in the periodic table
+     * @throws IncorrectAdduct If an adduct is invalid
+     */
+    public AdductCatalog(Collection<String> adducts) throws IncorrectAdduct, NotFoundElement, IncorrectFormula {
+        int size = adducts.size();
+        this.adductStrings = adducts.toArray(new String[0]);
+        this.adducts = new Adduct[size];
+        this.multimers = new int[size];
+        this.charges = new int[size];
+        this.plusMasses = new double[size];
+        this.minusMasses = new double[size];
+        this.minusOrdinals = new byte[size][];
+        this.minimumCounts = new int[size][];
+        for (int i = 0; i < size; i++) {
+            Adduct adduct = Adduct.of(this.adductStrings[i]);
+            Formula formulaPlus = adduct.getFormulaPlus();
+            Formula formulaMinus = adduct.getFormulaMinus();
+            this.adducts[i] = adduct;
+            this.multimers[i] = adduct.getMultimer();
+            this.charges[i] = adduct.getFinalCharge();
+            this.plusMasses[i] = Element.sumMonoisotopicMasses(formulaPlus.getElementOrdinals(), formulaPlus.getElementCounts());
+            this.minusMasses[i] = Element.sumMonoisotopicMasses(formulaMinus.getElementOrdinals(), formulaMinus.getElementCounts());
+            this.minusOrdinals[i] = formulaMinus.getElementOrdinals();
+            this.minimumCounts[i] = new int[this.minusOrdinals[i].length];
+            for (int j = 0; j < this.minusOrdinals[i].length; j++) {
+                int ordinal = this.minusOrdinals[i][j] & 0xFF;
+                this.minimumCounts[i][j] = formulaMinus.getElementCounts()[j] - formulaPlus.getCount(ordinal);
+            }
+        }
+    }
+
+    private static AdductCatalog builtIn(List<String> adducts) {
+        try {
+            return new AdductCatalog(adducts);
+        } catch (IncorrectAdduct | NotFoundElement | IncorrectFormula e) {
+            // The built-in adducts are valid
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Get the number of adducts of the catalog
+     * @return The number of adducts
+     */
+    public int size() {
+        return adducts.length;
+    }
+
+    /**
+     * Get the String representation of an adduct
+     * @param adduct Position of the adduct in the catalog
+     * @return The adduct in the form used to create the catalog
+     */
+    public String getAdductString(int adduct) {
+        return adductStrings[adduct];
+    }
+
+    /**
+     * Get an adduct
+     * @param adduct Position of the adduct in the catalog
+     * @return The adduct
+     */
+    public Adduct getAdduct(int adduct) {
+        return adducts[adduct];
+    }
+
+    /**
+     * Get the String representation of the adducts
+     * @return The adducts in the order of the catalog
+     */
+    public List<String> getAdductStrings() {
+        return List.of(adductStrings);
+    }
+
+    /**
+     * Check if an adduct can be applied to a formula, i.e., if the formula multiplied by the multimer of the adduct
+     * contains the elements that the adduct subtracts
+     * @param formula The formula
+     * @param adduct Position of the adduct in the catalog
+     * @return True if the adduct can be applied
+     */
+    public boolean isApplicable(Formula formula, int adduct) {
+        byte[] ordinals = minusOrdinals[adduct];
+        int[] minimum = minimumCounts[adduct];
+        for (int j = 0; j < ordinals.length; j++) {
+            if (formula.getCount(ordinals[j] & 0xFF) * multimers[adduct] < minimum[j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get the adducts that can be applied to a formula
+     * @param formula The formula
+     * @return A BitSet with the positions of the adducts that can be applied
+     */
+    public BitSet getApplicableAdducts(Formula formula) {
+        BitSet applicable = new BitSet(adducts.length);
+        for (int i = 0; i < adducts.length; i++) {
+            if (isApplicable(formula, i)) {
+                applicable.set(i);
+            }
+        }
+        return applicable;
+    }
+
+    /**
+     * Calculate the m/z of a formula with every adduct of the catalog. Each value is the one returned by
+     * Formula.getMonoisotopicMassWithAdduct for the formula with that adduct. The adduct of the formula is ignored.
+     * @param formula The formula
+     * @param mzs Array with at least size() positions to store the m/z in the order of the catalog. The m/z of the
+     *            adducts that cannot be applied to the formula are NaN
+     * @return A BitSet with the positions of the adducts that can be applied
+     */
+    public BitSet fillMz(Formula formula, double[] mzs) {
+        if (mzs.length < adducts.length) {
+            throw new IllegalArgumentException("The array has " + mzs.length + " positions for " + adducts.length + " adducts");
+        }
+        double elementsMass = Element.sumMonoisotopicMasses(formula.getElementOrdinals(), formula.getElementCounts());
+        int partialCharge = formula.getPartialCharge();
+        BitSet applicable = new BitSet(adducts.length);
+        for (int i = 0; i < adducts.length; i++) {
+            if (!isApplicable(formula, i)) {
+                mzs[i] = Double.NaN;
+                continue;
+            }
+            applicable.set(i);
+            mzs[i] = mz(elementsMass, partialCharge, i);
+        }
+        return applicable;
+    }
+
+    /**
+     * Calculate the m/z of a formula with an adduct of the catalog
+     * @param formula The formula
+     * @param adduct Position of the adduct in the catalog
+     * @return The value returned by Formula.getMonoisotopicMassWithAdduct for the formula with that adduct, or NaN if
+     * the adduct cannot be applied to the formula
+     */
+    public double getMz(Formula formula, int adduct) {
+        if (!isApplicable(formula, adduct)) {
+            return Double.NaN;
+        }
+        double elementsMass = Element.sumMonoisotopicMasses(formula.getElementOrdinals(), formula.getElementCounts());
+        return mz(elementsMass, formula.getPartialCharge(), adduct);
+    }
+
+    /**
+     * Same calculation as Formula.getMonoisotopicMassWithAdduct from the mass of the elements of the formula
+     */
+    private double mz(double elementsMass, int partialCharge, int adduct) {
+        int finalCharge = partialCharge + charges[adduct];
+        double mz = elementsMass * multimers[adduct] + plusMasses[adduct] - minusMasses[adduct];
+        double electronsWeight = (finalCharge != 0) ? -ELECTRON_WEIGHT * finalCharge : 0;
+        mz += electronsWeight;
+        int adductChargeToDivide = (finalCharge != 0) ? finalCharge : 1;
+        return mz / Math.abs(adductChargeToDivide);
+    }
+
+    /**
+     * Calculate the m/z of a formula with every adduct of the catalog
+     * @param formula The formula
+     * @return The m/z in the order of the catalog, NaN for the adducts that cannot be applied to the formula
+     */
+    public double[] getMzs(Formula formula) {
+        double[] mzs = new double[adducts.length];
+        fillMz(formula, mzs);
+        return mzs;
+    }
+}
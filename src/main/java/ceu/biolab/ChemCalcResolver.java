@@ -0,0 +1,328 @@
+package ceu.biolab;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Resolves formulas that the local parsers cannot read to their Hill notation using the ChemCalc service.
+ * A single HttpClient and ObjectMapper are shared by all the requests. The requests run on virtual threads with a
+ * maximum number of concurrent requests and a timeout, and the concurrent requests of the same formula share a single
+ * call to the service. The formulas resolved are kept in an LRU cache, and the formulas that ChemCalc answers without
+ * a molecular formula are kept in another LRU cache for a limited time. Any other answer is not cached.
+ * After a number of consecutive failures (no response or a status other than 200) the circuit opens and the requests
+ * fail without calling the service until the open time has passed. Then the circuit is half open: a single request
+ * is sent to the service while the others keep failing, and the circuit closes if it succeeds or opens again if it
+ * fails.
+ *
+ * @author Alberto Gil-de-la-Fuente
+ * @since 1.0.2
+ */
+public class ChemCalcResolver {
+    /**
+     * URL of the ChemCalc molecular formula service
+     */
+    public static final String CHEMCALC_URL = "https://www.chemcalc.org/chemcalc/mf";
+    private static final int CACHE_MAX_SIZE = 4096; //Maximum number of formulas kept by each cache
+    private static final Duration REJECTED_TTL = Duration.ofMinutes(10);
+
+    private static volatile ChemCalcResolver defaultResolver;
+
+    private final String url;
+    private final Duration timeout;
+    private final int failureThreshold;
+    private final Duration openDuration;
+    private final long rejectedTtlNanos;
+    private final HttpClient client;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final Semaphore permits;
+    private final Map<String, String> resolved = lruCache();
+    private final Map<String, Long> rejected = lruCache(); //System.nanoTime() until the rejection expires
+    private final Map<String, CompletableFuture<String>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private final AtomicLong openUntil = new AtomicLong(System.nanoTime()); //System.nanoTime() until the circuit is open
+    private final AtomicBoolean tripped = new AtomicBoolean(); //Opened and not closed yet by a successful request
+    private final AtomicBoolean probing = new AtomicBoolean(); //The request of the half open circuit is running
+
+    /**
+     * Constructor for the ceu.biolab.ChemCalcResolver class
+     *
+     * @param url The URL of the ChemCalc molecular formula service
+     * @param maxConcurrentRequests Maximum number of requests running at the same time
+     * @param timeout Maximum time to wait for a free request, to connect and to receive the response of a request
+     * @param failureThreshold Number of consecutive failures that open the circuit
+     * @param openDuration Time the circuit stays open before calling the service again
+     * @param rejectedTtl Time a formula rejected by ChemCalc is rejected without calling the service again
+     * @throws IllegalArgumentException if a number is not positive
+     */
+    public ChemCalcResolver(String url, int maxConcurrentRequests, Duration timeout, int failureThreshold, Duration openDuration, Duration rejectedTtl) {
+        if (maxConcurrentRequests <= 0 || failureThreshold <= 0) {
+            throw new IllegalArgumentException("The maximum number of requests and the failure threshold must be positive");
+        }
+        this.url = url;
+        this.timeout = timeout;
+        this.failureThreshold = failureThreshold;
+        this.openDuration = openDuration;
+        this.rejectedTtlNanos = rejectedTtl.toNanos();
+        this.permits = new Semaphore(maxConcurrentRequests);
+        this.client = HttpClient.newBuilder()
+                .connectTimeout(timeout)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .executor(executor)
+                .build();
+    }
+
+    /**
+     * Constructor for the ceu.biolab.ChemCalcResolver class that keeps the formulas rejected by ChemCalc for 10 minutes
+     *
+     * @param url The URL of the ChemCalc molecular formula service
+     * @param maxConcurrentRequests Maximum number of requests running at the same time
+     * @param timeout Maximum time to wait for a free request, to connect and to receive the response of a request
+     * @param failureThreshold Number of consecutive failures that open the circuit
+     * @param openDuration Time the circuit stays open before calling the service again
+     * @throws IllegalArgumentException if a number is not positive
+     */
+    public ChemCalcResolver(String url, int maxConcurrentRequests, Duration timeout, int failureThreshold, Duration openDuration) {
+        this(url, maxConcurrentRequests, timeout, failureThreshold, openDuration, REJECTED_TTL);
+    }
+
+    /**
+     * Constructor for the ceu.biolab.ChemCalcResolver class using the ChemCalc service with 8 concurrent requests,
+     * a timeout of 10 seconds and a circuit that opens for 1 minute after 5 consecutive failures
+     */
+    public ChemCalcResolver() {
+        this(CHEMCALC_URL, 8, Duration.ofSeconds(10), 5, Duration.ofMinutes(1));
+    }
+
+    /**
+     * Map that removes the least recently used entry when it exceeds CACHE_MAX_SIZE
+     */
+    private static <V> Map<String, V> lruCache() {
+        return Collections.synchronizedMap(new LinkedHashMap<>(64, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+                return size() > CACHE_MAX_SIZE;
+            }
+        });
+    }
+
+    /**
+     * Get the resolver shared by Formula.formulaFromString
+     * @return The default resolver
+     */
+    public static ChemCalcResolver getDefault() {
+        ChemCalcResolver resolver = defaultResolver;
+        if (resolver == null) {
+            synchronized (ChemCalcResolver.class) {
+                resolver = defaultResolver;
+                if (resolver == null) {
+                    resolver = new ChemCalcResolver();
+                    defaultResolver = resolver;
+                }
+            }
+        }
+        return resolver;
+    }
+
+    /**
+     * Resolve a formula to its Hill notation, waiting for the response
+     * @param formulaStr The formula in any notation accepted by ChemCalc
+     * @return The formula in Hill notation
+     * @throws IncorrectFormula If ChemCalc does not recognize the formula, it cannot be reached or the circuit is open
+     */
+    public String resolve(String formulaStr) throws IncorrectFormula {
+        try {
+            return resolveAsync(formulaStr).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IncorrectFormula) {
+                throw (IncorrectFormula) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Resolve a formula to its Hill notation without waiting for the response
+     * @param formulaStr The formula in any notation accepted by ChemCalc
+     * @return A future with the formula in Hill notation, completed with an IncorrectFormula if ChemCalc does not
+     * recognize the formula, it cannot be reached or the circuit is open
+     */
+    public CompletableFuture<String> resolveAsync(String formulaStr) {
+        String mfHill = resolved.get(formulaStr);
+        if (mfHill != null) {
+            return CompletableFuture.completedFuture(mfHill);
+        }
+        if (isRejected(formulaStr)) {
+            return CompletableFuture.failedFuture(notParseable(formulaStr));
+        }
+        // Only one request, the probe, is sent while the circuit is half open
+        boolean probe = tripped.get();
+        if (probe && (isOpen() || !probing.compareAndSet(false, true))) {
+            return CompletableFuture.failedFuture(new IncorrectFormula("Error connecting to ChemCalc API: too many failures, the requests are suspended"));
+        }
+        boolean[] started = new boolean[1];
+        CompletableFuture<String> future = inFlight.computeIfAbsent(formulaStr, key -> {
+            started[0] = true;
+            return CompletableFuture.supplyAsync(() -> {
+                try {
+                    return request(key);
+                } catch (IncorrectFormula e) {
+                    throw new CompletionException(e);
+                } finally {
+                    if (probe) {
+                        probing.set(false);
+                    }
+                }
+            }, executor);
+        });
+        if (probe && !started[0]) {
+            // The formula was already in flight, so the probe is not sent
+            probing.set(false);
+        }
+        // Every caller gets its own future, completed once the shared one is no longer in flight, so a caller that
+        // cancels its future does not affect the other callers
+        return future.whenComplete((mf, e) -> inFlight.remove(formulaStr, future));
+    }
+
+    private boolean isRejected(String formulaStr) {
+        Long expiration = rejected.get(formulaStr);
+        if (expiration == null) {
+            return false;
+        }
+        if (System.nanoTime() - expiration < 0) {
+            return true;
+        }
+        rejected.remove(formulaStr, expiration);
+        return false;
+    }
+
+    private String request(String formulaStr) throws IncorrectFormula {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(url + "?mf=" + URLEncoder.encode(formulaStr, StandardCharsets.UTF_8)))
+                .timeout(timeout)
+                .GET()
+                .build();
+        HttpResponse<String> response;
+        MetricsListener metrics = Metrics.listener();
+        // The event includes the time waiting for a permit
+        FormulaEvents.ChemCalcCall event = new FormulaEvents.ChemCalcCall();
+        event.begin();
+        try {
+            if (!permits.tryAcquire(timeout.toNanos(), TimeUnit.NANOSECONDS)) {
+                metrics.chemCalcTimedOut();
+                event.finish(formulaStr, 0, "PermitTimeout");
+                throw new IncorrectFormula("Error connecting to ChemCalc API: no request available after " + timeout.toMillis() + " ms");
+            }
+            long start = Metrics.start(metrics);
+            try {
+                response = client.send(request, HttpResponse.BodyHandlers.ofString());
+            } finally {
+                permits.release();
+                metrics.chemCalcCalled(Metrics.elapsed(metrics, start));
+            }
+        } catch (IOException e) {
+            if (e instanceof HttpTimeoutException) {
+                metrics.chemCalcTimedOut();
+            }
+            registerFailure();
+            event.finish(formulaStr, 0, FormulaEvents.outcome(e));
+            throw new IncorrectFormula("Error connecting to ChemCalc API: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            event.finish(formulaStr, 0, FormulaEvents.outcome(e));
+            throw new IncorrectFormula("Error connecting to ChemCalc API: " + e.getMessage());
+        }
+        event.finish(formulaStr, response.statusCode(), FormulaEvents.OK);
+
+        // Rate limits, redirects not followed or a wrong URL say nothing about the formula, so they are not cached
+        if (response.statusCode() != 200) {
+            registerFailure();
+            throw new IncorrectFormula("Error connecting to ChemCalc API: status " + response.statusCode());
+        }
+        consecutiveFailures.set(0);
+        tripped.set(false);
+        String mfHill = null;
+        try {
+            JsonNode mf = objectMapper.readTree(response.body()).get("mf");
+            mfHill = mf == null || mf.asText().isEmpty() ? null : mf.asText();
+        } catch (IOException e) {
+            // The response is not a formula
+        }
+        if (mfHill == null) {
+            rejected.put(formulaStr, System.nanoTime() + rejectedTtlNanos);
+            throw notParseable(formulaStr);
+        }
+        resolved.put(formulaStr, mfHill);
+        return mfHill;
+    }
+
+    /**
+     * Error of a formula rejected by ChemCalc, the same for a new and a cached rejection. It does not capture the stack
+     * trace, since the cached rejections are returned without calling the service.
+     */
+    private static IncorrectFormula notParseable(String formulaStr) {
+        return new IncorrectFormula("The formula " + formulaStr + " was not parseable to a correct formula", false);
+    }
+
+    private boolean isOpen() {
+        return System.nanoTime() - openUntil.get() < 0;
+    }
+
+    private void registerFailure() {
+        if (tripped.get()) {
+            // The probe of the half open circuit, or a request sent before it opened, failed
+            openUntil.set(System.nanoTime() + openDuration.toNanos());
+        } else if (consecutiveFailures.incrementAndGet() >= failureThreshold) {
+            openUntil.set(System.nanoTime() + openDuration.toNanos());
+            tripped.set(true);
+            consecutiveFailures.set(0);
+        }
+    }
+
+    /**
+     * Check if the circuit is open, i.e., the requests fail without calling the service. A half open circuit is open
+     * while its probe is running.
+     * @return True if the circuit is open
+     */
+    public boolean isCircuitOpen() {
+        return tripped.get() && (isOpen() || probing.get());
+    }
+
+    /**
+     * Get the number of formulas resolved that are cached
+     * @return The number of formulas in the cache of resolved formulas
+     */
+    public int getResolvedCacheSize() {
+        return resolved.size();
+    }
+
+    /**
+     * Get the number of formulas rejected by ChemCalc that are cached
+     * @return The number of formulas in the cache of rejected formulas, including the expired ones not removed yet
+     */
+    public int getRejectedCacheSize() {
+        return rejected.size();
+    }
+}
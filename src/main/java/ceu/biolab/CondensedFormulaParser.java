@@ -0,0 +1,243 @@
+package ceu.biolab;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Recursive descent parser of condensed formulas like '(CH3)2CO', 'Ca(OH)2', '[Cu(NH3)4]SO4', 'CuSO4&#183;5H2O' or
+ * '[13]C6H12O6', used before asking external services to resolve a formula.
+ * <pre>
+ * formula  := part (dot count? part)* charge?
+ * part     := count? group+
+ * group    := (element | '(' group+ ')' | '[' group+ ']') count?
+ * element  := ('[' massNumber ']')? Uppercase lowercase*
+ * charge   := '('? ('+' | '-') count? ')'?
+ * </pre>
+ * The dots of hydrates can be '.', '&#183;', '&#8226;' or '*'. An isotope prefix selects the labeled ElementType (e.g. [13]C is
+ * C13 and [2]H is D), or the element itself if the mass number is the one of its monoisotopic mass.
+ * The errors of the string are thrown without stack trace, since formulaFromString catches them to try the next
+ * notation.
+ *
+ * @author Alberto Gil-de-la-Fuente
+ * @since 1.0.2
+ */
+final class CondensedFormulaParser {
+
+    private final String formulaStr;
+    private int position = 0;
+
+    private CondensedFormulaParser(String formulaStr) {
+        this.formulaStr = formulaStr;
+    }
+
+    /**
+     * Parses a condensed formula.
+     * @param formulaStr A string representing a molecular formula with groups, multipliers, hydrates or isotopes
+     * @param adduct A string representing an adduct in the form '[M+C2H2O-H]-', '[M-3H2O+2H]2+' or '[5M+Ca]2+'
+     * @param metadata Optional argument to include a dict of metadata
+     * @return A new instance of the ceu.biolab.Formula class with the elements specified in the string
+     * @throws IncorrectFormula If the string is not a valid formula or a number of appearances is &lt;=0
+     * @throws NotFoundElement If an element or isotope is not found in the periodic table
+     * @throws IncorrectAdduct If the adduct provided is invalid
+     */
+    static Formula parse(String formulaStr, String adduct, Map<String, Object> metadata) throws IncorrectFormula, NotFoundElement, IncorrectAdduct {
+        CondensedFormulaParser parser = new CondensedFormulaParser(formulaStr);
+        int[] counts = new int[Element.ElementType.values().length];
+        parser.parsePart(counts);
+        while (parser.position < formulaStr.length() && isDot(formulaStr.charAt(parser.position))) {
+            parser.position++;
+            parser.parsePart(counts);
+        }
+
+        int charge = 0;
+        String chargeType = "";
+        int chargeStart = parser.position;
+        if (parser.peek() == '(') {
+            parser.position++;
+        }
+        if (parser.peek() == '+' || parser.peek() == '-') {
+            chargeType = parser.peek() == '+' ? "+" : "-";
+            parser.position++;
+            charge = parser.parseCount();
+            if (parser.peek() == ')' && formulaStr.charAt(chargeStart) == '(') {
+                parser.position++;
+            }
+        }
+        if (parser.position != formulaStr.length()) {
+            throw new IncorrectFormula(formulaStr, false);
+        }
+
+        Map<Element.ElementType, Integer> elements = new EnumMap<>(Element.ElementType.class);
+        for (int ordinal = 0; ordinal < counts.length; ordinal++) {
+            if (counts[ordinal] > 0) {
+                elements.put(Element.elementType(ordinal), counts[ordinal]);
+            }
+        }
+        if (elements.isEmpty()) {
+            throw new IncorrectFormula(formulaStr, false);
+        }
+        return new Formula(elements, adduct, charge, chargeType, metadata);
+    }
+
+    /**
+     * part := count? group+
+     */
+    private void parsePart(int[] counts) throws IncorrectFormula, NotFoundElement {
+        int multiplier = isDigit(peek()) ? parseCount() : 1;
+        int[] partCounts = new int[counts.length];
+        parseGroups(partCounts);
+        addCounts(counts, partCounts, multiplier);
+    }
+
+    /**
+     * group+ until a closing bracket, a dot, a charge or the end of the string
+     */
+    private void parseGroups(int[] counts) throws IncorrectFormula, NotFoundElement {
+        int start = position;
+        while (position < formulaStr.length()) {
+            char c = formulaStr.charAt(position);
+            if (c == '(' && isChargeAt(position + 1)) {
+                break;
+            }
+            if (c == '(' || (c == '[' && !isIsotopePrefix())) {
+                char closing = c == '(' ? ')' : ']';
+                position++;
+                int[] groupCounts = new int[counts.length];
+                parseGroups(groupCounts);
+                if (peek() != closing) {
+                    throw new IncorrectFormula(formulaStr, false);
+                }
+                position++;
+                addCounts(counts, groupCounts, isDigit(peek()) ? parseCount() : 1);
+            } else if (c == '[' || isUppercase(c)) {
+                int ordinal = parseElement().ordinal();
+                int appearances = isDigit(peek()) ? parseCount() : 1;
+                counts[ordinal] = addExact(counts[ordinal], appearances);
+            } else {
+                break;
+            }
+        }
+        if (position == start) {
+            throw new IncorrectFormula(formulaStr, false);
+        }
+    }
+
+    /**
+     * element := ('[' massNumber ']')? Uppercase lowercase*
+     */
+    private Element.ElementType parseElement() throws IncorrectFormula, NotFoundElement {
+        int massNumberStart = -1;
+        int massNumberEnd = -1;
+        if (peek() == '[') {
+            massNumberStart = ++position;
+            while (isDigit(peek())) {
+                position++;
+            }
+            massNumberEnd = position++;
+        }
+        if (!isUppercase(peek())) {
+            throw new IncorrectFormula(formulaStr, false);
+        }
+        int symbolStart = position++;
+        while (isLowercase(peek())) {
+            position++;
+        }
+        Element.ElementType elementType = Element.fromSymbol(formulaStr, symbolStart, position);
+        if (elementType == null) {
+            throw new NotFoundElement("ceu.biolab.Element " + formulaStr.substring(symbolStart, position) + " not found", false);
+        }
+        if (massNumberStart < 0) {
+            return elementType;
+        }
+        String massNumber = formulaStr.substring(massNumberStart, massNumberEnd);
+        Element.ElementType isotope = null;
+        try {
+            isotope = Element.isotope(elementType, Integer.parseInt(massNumber));
+        } catch (NumberFormatException e) {
+            // Mass numbers that do not fit in an int are not found
+        }
+        if (isotope == null) {
+            throw new NotFoundElement("ceu.biolab.Element [" + massNumber + "]" + elementType + " not found", false);
+        }
+        return isotope;
+    }
+
+    /**
+     * @return True if the '[' at the current position starts an isotope prefix like '[13]C'
+     */
+    private boolean isIsotopePrefix() {
+        int i = position + 1;
+        while (i < formulaStr.length() && isDigit(formulaStr.charAt(i))) {
+            i++;
+        }
+        return i > position + 1 && i + 1 < formulaStr.length() && formulaStr.charAt(i) == ']' && isUppercase(formulaStr.charAt(i + 1));
+    }
+
+    private boolean isChargeAt(int i) {
+        return i < formulaStr.length() && (formulaStr.charAt(i) == '+' || formulaStr.charAt(i) == '-');
+    }
+
+    /**
+     * Parses an optional positive number
+     * @return The number, or 1 if there are no digits
+     */
+    private int parseCount() throws IncorrectFormula {
+        int start = position;
+        int value = 0;
+        while (isDigit(peek())) {
+            int digit = formulaStr.charAt(position) - '0';
+            if (value > (Integer.MAX_VALUE - digit) / 10) {
+                throw new IncorrectFormula(formulaStr, false);
+            }
+            value = value * 10 + digit;
+            position++;
+        }
+        if (position == start) {
+            return 1;
+        }
+        if (value == 0) {
+            throw new IncorrectFormula(formulaStr, false);
+        }
+        return value;
+    }
+
+    private void addCounts(int[] counts, int[] toAdd, int multiplier) throws IncorrectFormula {
+        for (int ordinal = 0; ordinal < counts.length; ordinal++) {
+            if (toAdd[ordinal] != 0) {
+                long appearances = (long) toAdd[ordinal] * multiplier;
+                if (appearances > Integer.MAX_VALUE) {
+                    throw new IncorrectFormula(formulaStr, false);
+                }
+                counts[ordinal] = addExact(counts[ordinal], (int) appearances);
+            }
+        }
+    }
+
+    private int addExact(int count, int appearances) throws IncorrectFormula {
+        try {
+            return Math.addExact(count, appearances);
+        } catch (ArithmeticException e) {
+            throw new IncorrectFormula(formulaStr, false);
+        }
+    }
+
+    private char peek() {
+        return position < formulaStr.length() ? formulaStr.charAt(position) : 0;
+    }
+
+    private static boolean isDot(char c) {
+        return c == '.' || c == '\u00B7' || c == '\u2022' || c == '*';
+    }
+
+    private static boolean isUppercase(char c) {
+        return c >= 'A' && c <= 'Z';
+    }
+
+    private static boolean isLowercase(char c) {
+        return c >= 'a' && c <= 'z';
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+}
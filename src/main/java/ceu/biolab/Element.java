@@ -411,6 +411,265 @@ public class Element {
         elementWeights.put(ElementType.Uuo, 294.0);
     }
 
+    /**
+     * Monoisotopic masses of elementWeights indexed by the ordinal of the ElementType, to avoid unboxing in the
+     * mass calculations. ElementTypes without weight have NaN.
+     */
+    private static final double[] MONOISOTOPIC_MASSES = new double[ElementType.values().length];
+
+    static {
+        for (ElementType elementType : ElementType.values()) {
+            Double weight = elementWeights.get(elementType);
+            MONOISOTOPIC_MASSES[elementType.ordinal()] = weight == null ? Double.NaN : weight;
+        }
+    }
+
+    /**
+     * Get the monoisotopic mass of an element
+     * @param elementType The element
+     * @return The monoisotopic mass of the element, or NaN if its weight is unknown
+     */
+    public static double monoisotopicMass(ElementType elementType) {
+        return MONOISOTOPIC_MASSES[elementType.ordinal()];
+    }
+
+    /**
+     * Get the monoisotopic mass of an element from the ordinal of its ElementType
+     * @param ordinal The ordinal of the ElementType
+     * @return The monoisotopic mass of the element, or NaN if its weight is unknown
+     */
+    static double monoisotopicMass(int ordinal) {
+        return MONOISOTOPIC_MASSES[ordinal];
+    }
+
+    /**
+     * Sum of the monoisotopic masses of a set of elements
+     * @param ordinals The ordinals of the ElementTypes
+     * @param counts The number of appearances of each element
+     * @return The sum of the monoisotopic masses multiplied by the appearances
+     */
+    static double sumMonoisotopicMasses(byte[] ordinals, int[] counts) {
+        double mass = 0.0;
+        for (int i = 0; i < ordinals.length; i++) {
+            mass += MONOISOTOPIC_MASSES[ordinals[i] & 0xFF] * counts[i];
+        }
+        return mass;
+    }
+
+
+    /**
+     * Masses and natural abundances of the stable isotopes of each element indexed by the ordinal of the ElementType.
+     * The mass of the most abundant isotope is the one of elementWeights, so the most intense peak of an isotope
+     * pattern matches the monoisotopic mass. The abundances are the representative isotopic compositions of IUPAC for
+     * every element with more than one natural isotope. Elements with a single natural isotope (F, Na, P, I, Au...),
+     * labeled ElementTypes (C13, D, N15...) and elements without natural isotopic composition (Tc, Pm, Po...) have a
+     * single isotope with abundance 1.
+     */
+    private static final double[][] ISOTOPE_MASSES = new double[ElementType.values().length][];
+    private static final double[][] ISOTOPE_ABUNDANCES = new double[ElementType.values().length][];
+
+    static {
+        addIsotopes(ElementType.H, new double[]{1.00782503207, 2.0141017778}, new double[]{0.999885, 0.000115});
+        addIsotopes(ElementType.He, new double[]{3.0160293191, 4.00260325415}, new double[]{0.00000134, 0.99999866});
+        addIsotopes(ElementType.Li, new double[]{6.015122795, 7.01600455}, new double[]{0.0759, 0.9241});
+        addIsotopes(ElementType.B, new double[]{10.0129370, 11.0093054}, new double[]{0.199, 0.801});
+        addIsotopes(ElementType.C, new double[]{12.0, 13.0033548378}, new double[]{0.9893, 0.0107});
+        addIsotopes(ElementType.N, new double[]{14.0030740048, 15.0001088982}, new double[]{0.99636, 0.00364});
+        addIsotopes(ElementType.O, new double[]{15.99491461956, 16.99913170, 17.9991610}, new double[]{0.99757, 0.00038, 0.00205});
+        addIsotopes(ElementType.Ne, new double[]{19.9924401754, 20.99384668, 21.991385114}, new double[]{0.9048, 0.0027, 0.0925});
+        addIsotopes(ElementType.Mg, new double[]{23.985041700, 24.98583692, 25.982592929}, new double[]{0.7899, 0.1000, 0.1101});
+        addIsotopes(ElementType.Si, new double[]{27.9769265325, 28.976494700, 29.97377017}, new double[]{0.92223, 0.04685, 0.03092});
+        addIsotopes(ElementType.S, new double[]{31.97207100, 32.97145876, 33.96786690, 35.96708076}, new double[]{0.9499, 0.0075, 0.0425, 0.0001});
+        addIsotopes(ElementType.Cl, new double[]{34.96885268, 36.96590259}, new double[]{0.7576, 0.2424});
+        addIsotopes(ElementType.Ar, new double[]{35.967545106, 37.9627324, 39.9623831225}, new double[]{0.003365, 0.000632, 0.996003});
+        addIsotopes(ElementType.K, new double[]{38.96370668, 39.96399848, 40.96182576}, new double[]{0.932581, 0.000117, 0.067302});
+        addIsotopes(ElementType.Ca, new double[]{39.96259098, 41.95861801, 42.9587666, 43.9554818, 45.9536926, 47.952534}, new double[]{0.96941, 0.00647, 0.00135, 0.02086, 0.00004, 0.00187});
+        addIsotopes(ElementType.Ti, new double[]{45.9526316, 46.9517631, 47.9479463, 48.9478700, 49.9447912}, new double[]{0.0825, 0.0744, 0.7372, 0.0541, 0.0518});
+        addIsotopes(ElementType.V, new double[]{49.9471585, 50.9439595}, new double[]{0.00250, 0.99750});
+        addIsotopes(ElementType.Cr, new double[]{49.9460442, 51.9405075, 52.9406494, 53.9388804}, new double[]{0.04345, 0.83789, 0.09501, 0.02365});
+        addIsotopes(ElementType.Fe, new double[]{53.9396105, 55.9349375, 56.9353940, 57.9332756}, new double[]{0.05845, 0.91754, 0.02119, 0.00282});
+        addIsotopes(ElementType.Ni, new double[]{57.9353429, 59.9307864, 60.9310560, 61.9283451, 63.9279660}, new double[]{0.680769, 0.262231, 0.011399, 0.036345, 0.009256});
+        addIsotopes(ElementType.Cu, new double[]{62.9295975, 64.9277895}, new double[]{0.6915, 0.3085});
+        addIsotopes(ElementType.Zn, new double[]{63.9291422, 65.9260334, 66.9271273, 67.9248442, 69.9253193}, new double[]{0.48268, 0.27975, 0.04102, 0.19024, 0.00631});
+        addIsotopes(ElementType.Ga, new double[]{68.9255736, 70.9247013}, new double[]{0.60108, 0.39892});
+        addIsotopes(ElementType.Ge, new double[]{69.9242474, 71.9220758, 72.9234589, 73.9211778, 75.9214026}, new double[]{0.2038, 0.2731, 0.0776, 0.3672, 0.0783});
+        addIsotopes(ElementType.Se, new double[]{73.9224764, 75.9192136, 76.9199140, 77.9173091, 79.9165213, 81.9166994}, new double[]{0.0089, 0.0937, 0.0763, 0.2377, 0.4961, 0.0873});
+        addIsotopes(ElementType.Br, new double[]{78.9183371, 80.9162906}, new double[]{0.5069, 0.4931});
+        addIsotopes(ElementType.Kr, new double[]{77.9203648, 79.9163790, 81.9134836, 82.914136, 83.911507, 85.91061073}, new double[]{0.00355, 0.02286, 0.11593, 0.11500, 0.56987, 0.17279});
+        addIsotopes(ElementType.Rb, new double[]{84.911789738, 86.909180527}, new double[]{0.7217, 0.2783});
+        addIsotopes(ElementType.Sr, new double[]{83.913425, 85.9092602, 86.9088771, 87.9056121}, new double[]{0.0056, 0.0986, 0.0700, 0.8258});
+        addIsotopes(ElementType.Zr, new double[]{89.9047044, 90.9056458, 91.9050408, 93.9063152, 95.9082734}, new double[]{0.5145, 0.1122, 0.1715, 0.1738, 0.0280});
+        addIsotopes(ElementType.Mo, new double[]{91.906811, 93.9050883, 94.9058421, 95.9046795, 96.9060215, 97.9054082, 99.907477}, new double[]{0.1453, 0.0915, 0.1584, 0.1667, 0.0960, 0.2439, 0.0982});
+        addIsotopes(ElementType.Ru, new double[]{95.907598, 97.905287, 98.9059393, 99.9042195, 100.9055821, 101.9043493, 103.905433}, new double[]{0.0554, 0.0187, 0.1276, 0.1260, 0.1706, 0.3155, 0.1862});
+        addIsotopes(ElementType.Pd, new double[]{101.905609, 103.904036, 104.905085, 105.903486, 107.903892, 109.905153}, new double[]{0.0102, 0.1114, 0.2233, 0.2733, 0.2646, 0.1172});
+        addIsotopes(ElementType.Ag, new double[]{106.905097, 108.904752}, new double[]{0.51839, 0.48161});
+        addIsotopes(ElementType.Cd, new double[]{105.906459, 107.904184, 109.9030021, 110.9041781, 111.9027578, 112.9044017, 113.9033585, 115.904756}, new double[]{0.0125, 0.0089, 0.1249, 0.1280, 0.2413, 0.1222, 0.2873, 0.0749});
+        addIsotopes(ElementType.In, new double[]{112.904058, 114.903878}, new double[]{0.0429, 0.9571});
+        addIsotopes(ElementType.Sn, new double[]{111.904818, 113.902779, 114.903342, 115.901741, 116.902952, 117.901603, 118.903308, 119.9021947, 121.9034390, 123.9052739}, new double[]{0.0097, 0.0066, 0.0034, 0.1454, 0.0768, 0.2422, 0.0859, 0.3258, 0.0463, 0.0579});
+        addIsotopes(ElementType.Sb, new double[]{120.9038157, 122.9042140}, new double[]{0.5721, 0.4279});
+        addIsotopes(ElementType.Te, new double[]{119.904020, 121.9030439, 122.9042700, 123.9028179, 124.9044307, 125.9033117, 127.9044631, 129.9062244}, new double[]{0.0009, 0.0255, 0.0089, 0.0474, 0.0707, 0.1884, 0.3174, 0.3408});
+        addIsotopes(ElementType.Xe, new double[]{123.9058930, 125.904274, 127.9035313, 128.9047794, 129.9035080, 130.9050824, 131.9041535, 133.9053945, 135.907219}, new double[]{0.000952, 0.000890, 0.019102, 0.264006, 0.040710, 0.212324, 0.269086, 0.104357, 0.088573});
+        addIsotopes(ElementType.Ba, new double[]{129.9063208, 131.9050613, 133.9045084, 134.9056886, 135.9045759, 136.9058274, 137.9052472}, new double[]{0.00106, 0.00101, 0.02417, 0.06592, 0.07854, 0.11232, 0.71698});
+        addIsotopes(ElementType.La, new double[]{137.907112, 138.9063533}, new double[]{0.00090, 0.99910});
+        addIsotopes(ElementType.Ce, new double[]{135.907172, 137.905991, 139.9054387, 141.909244}, new double[]{0.00185, 0.00251, 0.88450, 0.11114});
+        addIsotopes(ElementType.Nd, new double[]{141.9077233, 142.9098143, 143.9100873, 144.9125736, 145.9131169, 147.916893, 149.920891}, new double[]{0.272, 0.122, 0.238, 0.083, 0.172, 0.057, 0.056});
+        addIsotopes(ElementType.Sm, new double[]{143.911999, 146.9148979, 147.9148227, 148.9171847, 149.9172755, 151.9197324, 153.9222093}, new double[]{0.0307, 0.1499, 0.1124, 0.1382, 0.0738, 0.2675, 0.2275});
+        addIsotopes(ElementType.Eu, new double[]{150.9198502, 152.9212303}, new double[]{0.4781, 0.5219});
+        addIsotopes(ElementType.Gd, new double[]{151.9197910, 153.9208656, 154.9226220, 155.9221227, 156.9239601, 157.9241039, 159.9270541}, new double[]{0.0020, 0.0218, 0.1480, 0.2047, 0.1565, 0.2484, 0.2186});
+        addIsotopes(ElementType.Dy, new double[]{155.924283, 157.924409, 159.9251975, 160.9269334, 161.9267984, 162.9287312, 163.9291748}, new double[]{0.00056, 0.00095, 0.02329, 0.18889, 0.25475, 0.24896, 0.28260});
+        addIsotopes(ElementType.Er, new double[]{161.928778, 163.929200, 165.9302931, 166.9320482, 167.9323702, 169.9354643}, new double[]{0.00139, 0.01601, 0.33503, 0.22869, 0.26978, 0.14910});
+        addIsotopes(ElementType.Yb, new double[]{167.933897, 169.9347618, 170.9363258, 171.9363815, 172.9382108, 173.9388621, 175.9425717}, new double[]{0.0013, 0.0304, 0.1428, 0.2183, 0.1613, 0.3183, 0.1276});
+        addIsotopes(ElementType.Lu, new double[]{174.9407718, 175.9426863}, new double[]{0.9741, 0.0259});
+        addIsotopes(ElementType.Hf, new double[]{173.940046, 175.9414086, 176.9432207, 177.9436988, 178.9458161, 179.9465500}, new double[]{0.0016, 0.0526, 0.1860, 0.2728, 0.1362, 0.3508});
+        addIsotopes(ElementType.Ta, new double[]{179.9474648, 180.9479958}, new double[]{0.00012, 0.99988});
+        addIsotopes(ElementType.W, new double[]{179.946704, 181.9482042, 182.9502230, 183.9509312, 185.9543641}, new double[]{0.0012, 0.2650, 0.1431, 0.3064, 0.2843});
+        addIsotopes(ElementType.Re, new double[]{184.9529550, 186.9557531}, new double[]{0.3740, 0.6260});
+        addIsotopes(ElementType.Os, new double[]{183.9524891, 185.9538382, 186.9557505, 187.9558382, 188.9581475, 189.9584470, 191.9614807}, new double[]{0.0002, 0.0159, 0.0196, 0.1324, 0.1615, 0.2626, 0.4078});
+        addIsotopes(ElementType.Ir, new double[]{190.9605940, 192.9629264}, new double[]{0.373, 0.627});
+        addIsotopes(ElementType.Pt, new double[]{189.959932, 191.9610380, 193.9626803, 194.9647911, 195.9649515, 197.967893}, new double[]{0.00014, 0.00782, 0.32967, 0.33832, 0.25242, 0.07163});
+        addIsotopes(ElementType.Hg, new double[]{195.965833, 197.9667690, 198.9682799, 199.9683260, 200.9703023, 201.9706430, 203.9734939}, new double[]{0.0015, 0.0997, 0.1687, 0.2310, 0.1318, 0.2986, 0.0687});
+        addIsotopes(ElementType.Tl, new double[]{202.9723442, 204.9744275}, new double[]{0.29524, 0.70476});
+        addIsotopes(ElementType.Pb, new double[]{203.9730436, 205.9744653, 206.9758969, 207.9766521}, new double[]{0.014, 0.241, 0.221, 0.524});
+        addIsotopes(ElementType.U, new double[]{234.0409521, 235.0439299, 238.0507882}, new double[]{0.000054, 0.007204, 0.992742});
+        for (ElementType elementType : ElementType.values()) {
+            int ordinal = elementType.ordinal();
+            if (ISOTOPE_MASSES[ordinal] == null) {
+                ISOTOPE_MASSES[ordinal] = new double[]{MONOISOTOPIC_MASSES[ordinal]};
+                ISOTOPE_ABUNDANCES[ordinal] = new double[]{1.0};
+            }
+        }
+    }
+
+    private static void addIsotopes(ElementType elementType, double[] masses, double[] abundances) {
+        int mostAbundant = 0;
+        for (int i = 1; i < abundances.length; i++) {
+            if (abundances[i] > abundances[mostAbundant]) {
+                mostAbundant = i;
+            }
+        }
+        masses[mostAbundant] = MONOISOTOPIC_MASSES[elementType.ordinal()];
+        ISOTOPE_MASSES[elementType.ordinal()] = masses;
+        ISOTOPE_ABUNDANCES[elementType.ordinal()] = abundances;
+    }
+
+    /**
+     * Get the masses of the natural isotopes of an element
+     * @param elementType The element
+     * @return A copy of the masses in ascending order
+     */
+    public static double[] getIsotopeMasses(ElementType elementType) {
+        return ISOTOPE_MASSES[elementType.ordinal()].clone();
+    }
+
+    /**
+     * Get the natural abundances of the isotopes of an element
+     * @param elementType The element
+     * @return A copy of the abundances in the order of getIsotopeMasses
+     */
+    public static double[] getIsotopeAbundances(ElementType elementType) {
+        return ISOTOPE_ABUNDANCES[elementType.ordinal()].clone();
+    }
+
+    static double[] isotopeMasses(int ordinal) {
+        return ISOTOPE_MASSES[ordinal];
+    }
+
+    static double[] isotopeAbundances(int ordinal) {
+        return ISOTOPE_ABUNDANCES[ordinal];
+    }
+
+
+    private static final ElementType[] ELEMENT_TYPES = ElementType.values();
+
+    /**
+     * Get the ElementType with an ordinal without copying ElementType.values()
+     * @param ordinal The ordinal of the ElementType
+     * @return The ElementType
+     */
+    static ElementType elementType(int ordinal) {
+        return ELEMENT_TYPES[ordinal];
+    }
+
+    /**
+     * Lookup table from element symbols to ElementType, indexed by {@link #symbolKey(CharSequence, int, int)}.
+     * Only symbols made of letters are included (H2, C13, Cl37... cannot be written in a formula string because the
+     * digits are read as the number of appearances).
+     */
+    private static final ElementType[] SYMBOL_TABLE = new ElementType[26 * 27 * 27];
+
+    static {
+        for (ElementType elementType : ElementType.values()) {
+            String symbol = elementType.name();
+            int key = symbolKey(symbol, 0, symbol.length());
+            if (key >= 0) {
+                SYMBOL_TABLE[key] = elementType;
+            }
+        }
+    }
+
+    /**
+     * Get the ElementType of an element symbol contained in a portion of a char sequence, without creating
+     * intermediate strings.
+     * @param chars Sequence containing the symbol
+     * @param start Index of the first char of the symbol (an uppercase letter)
+     * @param end Index after the last char of the symbol
+     * @return The ElementType or null if the symbol does not correspond to any element
+     */
+    static ElementType fromSymbol(CharSequence chars, int start, int end) {
+        int key = symbolKey(chars, start, end);
+        return key < 0 ? null : SYMBOL_TABLE[key];
+    }
+
+    /**
+     * Get the ElementType of an isotope of an element
+     * @param elementType The element
+     * @param massNumber The mass number of the isotope
+     * @return The element itself if the mass number is the one of its monoisotopic mass, the labeled ElementType of
+     * the isotope (e.g. C13 for 13 and C, D for 2 and H), or null if there is no ElementType for the isotope
+     */
+    static ElementType isotope(ElementType elementType, int massNumber) {
+        if (Math.round(monoisotopicMass(elementType)) == massNumber) {
+            return elementType;
+        }
+        // H2 is diatomic hydrogen, the isotope of mass 2 is deuterium
+        if (elementType == ElementType.H && massNumber == 2) {
+            return ElementType.D;
+        }
+        try {
+            return ElementType.valueOf(elementType.name() + massNumber);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Encodes a symbol of one uppercase letter followed by up to two lowercase letters as an index of SYMBOL_TABLE.
+     * @return The index or -1 if the symbol cannot be encoded
+     */
+    private static int symbolKey(CharSequence chars, int start, int end) {
+        int length = end - start;
+        if (length < 1 || length > 3) {
+            return -1;
+        }
+        char first = chars.charAt(start);
+        if (first < 'A' || first > 'Z') {
+            return -1;
+        }
+        int key = first - 'A';
+        for (int i = start + 1; i < start + 3; i++) {
+            int letter = 0;
+            if (i < end) {
+                char c = chars.charAt(i);
+                if (c < 'a' || c > 'z') {
+                    return -1;
+                }
+                letter = c - 'a' + 1;
+            }
+            key = key * 27 + letter;
+        }
+        return key;
+    }
+
 
 // TODO COLECCIONS INMUTABLES
     public static final Set<ElementType> SETCHNOPS;
@@ -469,4 +728,29 @@ public class Element {
         SETCHNOPSCLD = Collections.unmodifiableSet(SETCHNOPSCLDTMP);
     }
 
+    /**
+     * ElementMask of SETCHNOPS
+     */
+    public static final ElementMask MASKCHNOPS = ElementMask.of(SETCHNOPS);
+
+    /**
+     * ElementMask of SETCHNOPSD
+     */
+    public static final ElementMask MASKCHNOPSD = ElementMask.of(SETCHNOPSD);
+
+    /**
+     * ElementMask of SETCHNOPSCL
+     */
+    public static final ElementMask MASKCHNOPSCL = ElementMask.of(SETCHNOPSCL);
+
+    /**
+     * ElementMask of SETCHNOPSCLD
+     */
+    public static final ElementMask MASKCHNOPSCLD = ElementMask.of(SETCHNOPSCLD);
+
+    /**
+     * ElementMask of deuterium, the element of the formulas of types CHNOPSD, CHNOPSCLD and ALLD
+     */
+    public static final ElementMask MASKD = ElementMask.of(ElementType.D);
+
 }
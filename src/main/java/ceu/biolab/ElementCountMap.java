@@ -0,0 +1,101 @@
+package ceu.biolab;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Read-only Map view over the compact representation of the elements of a Formula: the ordinals of the
+ * ElementTypes in ascending order and the number of appearances of each one. It is iterated in ordinal order and
+ * does not copy the arrays.
+ *
+ * @author Alberto Gil-de-la-Fuente
+ * @since 1.0.2
+ */
+final class ElementCountMap extends AbstractMap<Element.ElementType, Integer> {
+
+    private final byte[] elementOrdinals;
+    private final int[] elementCounts;
+
+    ElementCountMap(byte[] elementOrdinals, int[] elementCounts) {
+        this.elementOrdinals = elementOrdinals;
+        this.elementCounts = elementCounts;
+    }
+
+    /**
+     * Get the position of an ordinal in an array of ordinals sorted in ascending order
+     * @param elementOrdinals Ordinals in ascending order
+     * @param ordinal Ordinal to look for
+     * @return The position of the ordinal or -1 if it is not present
+     */
+    static int indexOf(byte[] elementOrdinals, int ordinal) {
+        int low = 0;
+        int high = elementOrdinals.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int midOrdinal = elementOrdinals[mid] & 0xFF;
+            if (midOrdinal < ordinal) {
+                low = mid + 1;
+            } else if (midOrdinal > ordinal) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public int size() {
+        return elementOrdinals.length;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return key instanceof Element.ElementType && indexOf(elementOrdinals, ((Element.ElementType) key).ordinal()) >= 0;
+    }
+
+    @Override
+    public Integer get(Object key) {
+        if (!(key instanceof Element.ElementType)) {
+            return null;
+        }
+        int index = indexOf(elementOrdinals, ((Element.ElementType) key).ordinal());
+        return index < 0 ? null : elementCounts[index];
+    }
+
+    @Override
+    public Set<Entry<Element.ElementType, Integer>> entrySet() {
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<Entry<Element.ElementType, Integer>> iterator() {
+                return new Iterator<>() {
+                    private int position = 0;
+
+                    @Override
+                    public boolean hasNext() {
+                        return position < elementOrdinals.length;
+                    }
+
+                    @Override
+                    public Entry<Element.ElementType, Integer> next() {
+                        if (position >= elementOrdinals.length) {
+                            throw new NoSuchElementException();
+                        }
+                        Entry<Element.ElementType, Integer> entry = new SimpleImmutableEntry<>(
+                                Element.elementType(elementOrdinals[position] & 0xFF), elementCounts[position]);
+                        position++;
+                        return entry;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return elementOrdinals.length;
+            }
+        };
+    }
+}
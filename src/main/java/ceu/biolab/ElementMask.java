@@ -0,0 +1,211 @@
+package ceu.biolab;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Immutable set of elements stored as a bitmask of three longs, one bit per ordinal of Element.ElementType. Every
+ * formula keeps the mask of its elements, so checking if it contains only the elements of an alphabet or any element
+ * of a set takes a few bitwise operations instead of iterating the elements.
+ * Element.MASKCHNOPS, MASKCHNOPSD, MASKCHNOPSCL and MASKCHNOPSCLD are the masks of the SET* constants.
+ *
+ * @author Alberto Gil-de-la-Fuente
+ * @since 1.0.2
+ */
+public final class ElementMask {
+    /**
+     * Mask without elements
+     */
+    public static final ElementMask EMPTY = new ElementMask(0L, 0L, 0L);
+
+    static {
+        if (Element.ElementType.values().length > 3 * Long.SIZE) {
+            throw new IllegalStateException("ElementMask supports up to " + 3 * Long.SIZE + " elements");
+        }
+    }
+
+    private final long word0; //Ordinals 0 to 63
+    private final long word1; //Ordinals 64 to 127
+    private final long word2; //Ordinals 128 to 191
+
+    ElementMask(long word0, long word1, long word2) {
+        this.word0 = word0;
+        this.word1 = word1;
+        this.word2 = word2;
+    }
+
+    /**
+     * Create the mask of some elements
+     * @param elements The elements
+     * @return The mask with the bits of the elements
+     */
+    public static ElementMask of(Element.ElementType... elements) {
+        long[] words = new long[3];
+        for (Element.ElementType element : elements) {
+            words[element.ordinal() >>> 6] |= 1L << element.ordinal();
+        }
+        return new ElementMask(words[0], words[1], words[2]);
+    }
+
+    /**
+     * Create the mask of a collection of elements
+     * @param elements The elements, e.g. Element.SETCHNOPS
+     * @return The mask with the bits of the elements
+     */
+    public static ElementMask of(Collection<Element.ElementType> elements) {
+        return of(elements.toArray(new Element.ElementType[0]));
+    }
+
+    /**
+     * Create the mask of the elements of a formula
+     * @param ordinals The ordinals of the ElementTypes
+     * @return The mask with the bits of the ordinals
+     */
+    static ElementMask ofOrdinals(byte[] ordinals) {
+        long[] words = new long[3];
+        for (byte ordinal : ordinals) {
+            int index = ordinal & 0xFF;
+            words[index >>> 6] |= 1L << index;
+        }
+        return new ElementMask(words[0], words[1], words[2]);
+    }
+
+    /**
+     * Check if the mask contains an element
+     * @param element The element
+     * @return True if the bit of the element is set
+     */
+    public boolean contains(Element.ElementType element) {
+        int ordinal = element.ordinal();
+        long word = ordinal < 64 ? word0 : (ordinal < 128 ? word1 : word2);
+        return (word & (1L << ordinal)) != 0;
+    }
+
+    /**
+     * Check if all the elements of this mask are in another mask
+     * @param alphabet The allowed elements
+     * @return True if this mask does not contain elements outside the alphabet
+     */
+    public boolean isSubsetOf(ElementMask alphabet) {
+        return ((word0 & ~alphabet.word0) | (word1 & ~alphabet.word1) | (word2 & ~alphabet.word2)) == 0;
+    }
+
+    /**
+     * Check if this mask and another one have any element in common
+     * @param elements The elements to look for
+     * @return True if any element is in both masks
+     */
+    public boolean intersects(ElementMask elements) {
+        return ((word0 & elements.word0) | (word1 & elements.word1) | (word2 & elements.word2)) != 0;
+    }
+
+    /**
+     * Get the mask with the elements of this mask and another one
+     * @param other The other mask
+     * @return The union of both masks
+     */
+    public ElementMask union(ElementMask other) {
+        return new ElementMask(word0 | other.word0, word1 | other.word1, word2 | other.word2);
+    }
+
+    /**
+     * Get the number of elements of the mask
+     * @return The number of bits set
+     */
+    public int size() {
+        return Long.bitCount(word0) + Long.bitCount(word1) + Long.bitCount(word2);
+    }
+
+    /**
+     * Get the elements of the mask
+     * @return A new set with the elements in the order of Element.ElementType
+     */
+    public Set<Element.ElementType> toSet() {
+        Set<Element.ElementType> elements = EnumSet.noneOf(Element.ElementType.class);
+        for (Element.ElementType element : Element.ElementType.values()) {
+            if (contains(element)) {
+                elements.add(element);
+            }
+        }
+        return elements;
+    }
+
+    /**
+     * Get the formulas that only contain elements of this mask, e.g. Element.MASKCHNOPS.filterContainsOnly(library)
+     * @param formulas The formulas to filter
+     * @return The formulas whose elements are all in this mask, in the order of the collection
+     */
+    public List<Formula> filterContainsOnly(Collection<Formula> formulas) {
+        List<Formula> selected = new ArrayList<>();
+        for (Formula formula : formulas) {
+            if (formula.containsOnly(this)) {
+                selected.add(formula);
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * Get the formulas that contain any element of this mask
+     * @param formulas The formulas to filter
+     * @return The formulas with at least one element of this mask, in the order of the collection
+     */
+    public List<Formula> filterContainsAny(Collection<Formula> formulas) {
+        List<Formula> selected = new ArrayList<>();
+        for (Formula formula : formulas) {
+            if (formula.containsAny(this)) {
+                selected.add(formula);
+            }
+        }
+        return selected;
+    }
+
+    long getWord0() {
+        return word0;
+    }
+
+    long getWord1() {
+        return word1;
+    }
+
+    long getWord2() {
+        return word2;
+    }
+
+    /**
+     * Compares this mask to another object for equality.
+     *
+     * @param other The object to compare this mask to.
+     * @return true if both masks contain the same elements, false otherwise.
+     */
+    @Override
+    public boolean equals(Object other) {
+        if (other instanceof ElementMask) {
+            ElementMask otherMask = (ElementMask) other;
+            return word0 == otherMask.word0 && word1 == otherMask.word1 && word2 == otherMask.word2;
+        }
+        return false;
+    }
+
+    /**
+     * Generates a hash code for the mask.
+     *
+     * @return The hash code of the three words.
+     */
+    @Override
+    public int hashCode() {
+        return Long.hashCode(word0) * 961 + Long.hashCode(word1) * 31 + Long.hashCode(word2);
+    }
+
+    /**
+     * Provides a string representation of the mask
+     * @return The elements of the mask, e.g. '[H, C, N]'
+     */
+    @Override
+    public String toString() {
+        return toSet().toString();
+    }
+}
@@ -1,26 +1,15 @@
 
 package ceu.biolab;
 
-import java.io.IOException;
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import io.github.dan2097.jnainchi.InchiStatus;
-import net.sf.jniinchi.INCHI_RET;
-import org.apache.commons.httpclient.HttpClient;
-import org.apache.commons.httpclient.methods.GetMethod;
 import org.openscience.cdk.exception.CDKException;
-import org.openscience.cdk.exception.InvalidSmilesException;
 import org.openscience.cdk.inchi.InChIGeneratorFactory;
 import org.openscience.cdk.inchi.InChIToStructure;
-import org.openscience.cdk.interfaces.IAtom;
 import org.openscience.cdk.interfaces.IAtomContainer;
 import org.openscience.cdk.interfaces.IMolecularFormula;
 import org.openscience.cdk.silent.SilentChemObjectBuilder;
-import org.openscience.cdk.smiles.SmilesParser;
 import org.openscience.cdk.tools.manipulator.MolecularFormulaManipulator;
 
 import static ceu.biolab.Element.*;
@@ -36,16 +25,25 @@ import static ceu.biolab.Element.*;
  */
 public class Formula {
     private static final double ELECTRON_WEIGHT = 0.00054858;
-    private static final String CC_URL = "https://www.chemcalc.org/chemcalc/mf";
     private static final int DEFAULT_PPM = 50; //Default part per million tolerance
 
-    private Map<Element.ElementType,Integer> elements; //Map of elements and their quantities
+    private byte[] elementOrdinals; //Ordinals of the ElementTypes of the formula in ascending order
+    private int[] elementCounts; //Quantity of each element of elementOrdinals
+    private long elementMask0; //Bitmask of the elements of the formula, as in ElementMask
+    private long elementMask1;
+    private long elementMask2;
     private String adduct;
     private int charge;
     private ChargeType chargeType; //Positive, negative of neutral
-    private double monoisotopicMass;
-    private double monoisotopicMassWithAdduct;
+    private Adduct parsedAdduct; //Adduct resolved from the adduct string, null if there is no adduct
     private Map<String, Object> metadata;
+
+    // Derived values computed on first access. 0.0 and null mean not computed yet: they are volatile so concurrent
+    // readers see either nothing or a fully computed value, and computing them twice gives the same result.
+    private volatile double monoisotopicMass;
+    private volatile double monoisotopicMassWithAdduct;
+    private volatile String hillString;
+    private volatile String finalFormulaWithAdduct;
     
     public static final Map<String, Integer> MAPCHEMALPHABET;
 
@@ -75,15 +73,28 @@ public class Formula {
      * @throws IncorrectAdduct If the adduct provided is invalid.
      */
     public Formula(Map<Element.ElementType, Integer> elements, String adduct, int charge, String chargeType, Map<String, Object> metadata) throws IncorrectFormula, NotFoundElement, IncorrectAdduct {
-        this.metadata = metadata != null ? metadata : new HashMap<>();
+        this.metadata = metadata;
 
-        this.elements = new HashMap<>();
+        // Insertion sort by ordinal, formulas only have a few different elements
+        int size = 0;
+        this.elementOrdinals = new byte[elements.size()];
+        this.elementCounts = new int[elements.size()];
         for (Map.Entry<Element.ElementType, Integer> entry : elements.entrySet()) {
             if (entry.getValue() <= 0) {
                 throw new IncorrectFormula(elements);
             }
-            this.elements.put(entry.getKey(), this.elements.getOrDefault(entry.getKey(), 0) + entry.getValue());
+            int ordinal = entry.getKey().ordinal();
+            int position = size;
+            while (position > 0 && (this.elementOrdinals[position - 1] & 0xFF) > ordinal) {
+                this.elementOrdinals[position] = this.elementOrdinals[position - 1];
+                this.elementCounts[position] = this.elementCounts[position - 1];
+                position--;
+            }
+            this.elementOrdinals[position] = (byte) ordinal;
+            this.elementCounts[position] = entry.getValue();
+            size++;
         }
+        setElementMask();
 
         this.charge = charge;
         if (chargeType.equals("") || chargeType.equals("+") || chargeType.equals("-")) {
@@ -98,8 +109,7 @@ public class Formula {
             this.adduct = adduct;
         }
 
-        this.monoisotopicMass = calculateMonoisotopicMass();
-        this.monoisotopicMassWithAdduct = calculateMonoisotopicMassWithAdduct();
+        resolveAdduct();
     }
 
     /**
@@ -114,29 +124,177 @@ public class Formula {
      * @throws IncorrectAdduct If the adduct provided is invalid.
      */
     public Formula(Map<Element.ElementType, Integer> elements, String adduct, int charge, String chargeType) throws IncorrectFormula, IncorrectAdduct, NotFoundElement {
-        this.elements = new HashMap<>();
-        for (Map.Entry<Element.ElementType, Integer> entry : elements.entrySet()) {
-            if (entry.getValue() <= 0) {
-                throw new IncorrectFormula(elements);
+        this(elements, adduct, charge, chargeType, null);
+    }
+
+    /**
+     * Constructor for the results of the arithmetic operations. The arrays are used without copying them.
+     *
+     * @param elementOrdinals Ordinals of the ElementTypes in ascending order
+     * @param elementCounts Quantity of each element, all of them greater than 0
+     * @param adduct The adduct string associated with the formula, already validated by another Formula
+     * @param charge The charge of the formula.
+     * @param chargeType The type of charge (positive, negative, or neutral).
+     * @throws IncorrectFormula If the formula contains invalid elements or values.
+     * @throws NotFoundElement If the element is not found in the periodic table.
+     * @throws IncorrectAdduct If the adduct provided is invalid.
+     */
+    private Formula(byte[] elementOrdinals, int[] elementCounts, String adduct, int charge, ChargeType chargeType) throws IncorrectFormula, IncorrectAdduct, NotFoundElement {
+        this.elementOrdinals = elementOrdinals;
+        this.elementCounts = elementCounts;
+        setElementMask();
+        this.adduct = adduct;
+        this.charge = charge;
+        this.chargeType = chargeType;
+        resolveAdduct();
+    }
+
+    private void setElementMask() {
+        ElementMask elementMask = ElementMask.ofOrdinals(this.elementOrdinals);
+        this.elementMask0 = elementMask.getWord0();
+        this.elementMask1 = elementMask.getWord1();
+        this.elementMask2 = elementMask.getWord2();
+    }
+
+    /**
+     * Creates a neutral formula without adduct from the compact representation of its elements. The arrays are not
+     * copied.
+     * @param elementOrdinals Ordinals of the ElementTypes in ascending order
+     * @param elementCounts Appearances of each element, all of them greater than 0
+     * @return The neutral formula
+     */
+    static Formula neutralFromCounts(byte[] elementOrdinals, int[] elementCounts) {
+        try {
+            return new Formula(elementOrdinals, elementCounts, null, 0, ChargeType.NEUTRAL);
+        } catch (IncorrectFormula | IncorrectAdduct | NotFoundElement e) {
+            // Without adduct there is nothing to resolve
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Creates a neutral formula with an adduct from the compact representation of its elements. The arrays are not
+     * copied.
+     * @param elementOrdinals Ordinals of the ElementTypes in ascending order
+     * @param elementCounts Appearances of each element, all of them greater than 0
+     * @param adduct The adduct string, or null if there is no adduct
+     * @return The neutral formula with the adduct
+     * @throws IncorrectFormula If the adduct subtracts elements that the formula does not contain
+     * @throws NotFoundElement If the adduct contains an element not found in the periodic table
+     * @throws IncorrectAdduct If the adduct provided is invalid
+     */
+    static Formula neutralFromCounts(byte[] elementOrdinals, int[] elementCounts, String adduct) throws IncorrectFormula, IncorrectAdduct, NotFoundElement {
+        return new Formula(elementOrdinals, elementCounts, adduct, 0, ChargeType.NEUTRAL);
+    }
+
+    /**
+     * Creates a formula without adduct from the appearances of every ElementType
+     * @param countsByOrdinal Appearances of each element indexed by the ordinal of its ElementType, 0 for the elements
+     *                        that the formula does not contain. The array is not modified
+     * @param charge The charge of the formula, negative for negative charges
+     * @return The formula
+     * @throws IncorrectFormula If the number of appearances of an element is negative
+     */
+    static Formula fromCounts(int[] countsByOrdinal, int charge) throws IncorrectFormula {
+        try {
+            return fromCounts(countsByOrdinal, charge, null);
+        } catch (IncorrectAdduct | NotFoundElement e) {
+            // Without adduct there is nothing to resolve
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Creates a formula with an adduct from the appearances of every ElementType
+     * @param countsByOrdinal Appearances of each element indexed by the ordinal of its ElementType, 0 for the elements
+     *                        that the formula does not contain. The array is not modified
+     * @param charge The charge of the formula, negative for negative charges
+     * @param adduct The adduct string, or null if there is no adduct
+     * @return The formula
+     * @throws IncorrectFormula If the number of appearances of an element is negative or the adduct cannot be applied
+     * @throws NotFoundElement If the adduct contains an element not found in the periodic table
+     * @throws IncorrectAdduct If the adduct provided is invalid
+     */
+    static Formula fromCounts(int[] countsByOrdinal, int charge, String adduct) throws IncorrectFormula, IncorrectAdduct, NotFoundElement {
+        int size = 0;
+        for (int count : countsByOrdinal) {
+            if (count < 0) {
+                throw new IncorrectFormula("The formula contains a negative number of appearances " + count);
             }
-            this.elements.put(entry.getKey(), this.elements.getOrDefault(entry.getKey(), 0) + entry.getValue());
+            if (count > 0) {
+                size++;
+            }
+        }
+        byte[] ordinals = new byte[size];
+        int[] counts = new int[size];
+        size = 0;
+        for (int ordinal = 0; ordinal < countsByOrdinal.length; ordinal++) {
+            if (countsByOrdinal[ordinal] > 0) {
+                ordinals[size] = (byte) ordinal;
+                counts[size++] = countsByOrdinal[ordinal];
+            }
+        }
+        ChargeType chargeType = charge == 0 ? ChargeType.NEUTRAL : (charge > 0 ? ChargeType.POSITIVE : ChargeType.NEGATIVE);
+        if (adduct != null && (adduct.equals("None") || adduct.equals(""))) {
+            adduct = null;
         }
+        return new Formula(ordinals, counts, adduct, Math.abs(charge), chargeType);
+    }
 
-        this.charge = charge;
-        if (chargeType.equals("") || chargeType.equals("+") || chargeType.equals("-")) {
-            this.chargeType = ChargeType.fromSymbol(chargeType);
-        } else {
-            throw new IncorrectFormula("charge_type " + chargeType + " invalid. It should be +, - or empty");
+    /**
+     * Resolves the adduct of the formula and checks that it can be applied, i.e., that the formula multiplied by the
+     * adduct multimer contains the elements to subtract. The masses are calculated lazily but the errors of the adduct
+     * are still reported when the formula is created.
+     * @throws IncorrectFormula If the formula does not contain the elements that the adduct subtracts
+     * @throws NotFoundElement If the element is not found in the periodic table
+     * @throws IncorrectAdduct If the adduct provided is invalid
+     */
+    private void resolveAdduct() throws IncorrectFormula, IncorrectAdduct, NotFoundElement {
+        if (this.adduct == null) {
+            this.parsedAdduct = null;
+            return;
         }
+        Adduct adductNew = Adduct.of(this.adduct);
+        int negativeOrdinal = negativeElementWithAdduct(adductNew);
+        if (negativeOrdinal >= 0) {
+            throw new IncorrectFormula("The formula contains a wrong adduct because the element " + Element.elementType(negativeOrdinal) + " is negative " + appearancesWithAdduct(adductNew, negativeOrdinal));
+        }
+        this.parsedAdduct = adductNew;
+    }
 
-        if (adduct == null || adduct.equals("None") || adduct.equals("")) {
-            this.adduct = null;
-        } else {
-            this.adduct = adduct;
+    /**
+     * Sets the adduct of a formula created without adduct if the adduct can be applied, without throwing exceptions.
+     * It must be called before the formula is returned to other code.
+     * @param adduct The adduct string
+     * @param parsedAdduct The adduct resolved from the adduct string
+     * @return True if the adduct is set, false if the formula does not contain the elements that the adduct subtracts
+     */
+    boolean setAdductIfApplicable(String adduct, Adduct parsedAdduct) {
+        if (negativeElementWithAdduct(parsedAdduct) >= 0) {
+            return false;
         }
+        this.adduct = adduct;
+        this.parsedAdduct = parsedAdduct;
+        return true;
+    }
 
-        this.monoisotopicMass = calculateMonoisotopicMass();
-        this.monoisotopicMassWithAdduct = calculateMonoisotopicMassWithAdduct();
+    /**
+     * Get the first element subtracted by an adduct that the formula multiplied by the adduct multimer does not contain
+     * @return The ordinal of the element, or -1 if the adduct can be applied
+     */
+    private int negativeElementWithAdduct(Adduct adduct) {
+        Formula formulaMinus = adduct.getFormulaMinus();
+        for (int i = 0; i < formulaMinus.elementOrdinals.length; i++) {
+            int ordinal = formulaMinus.elementOrdinals[i] & 0xFF;
+            if (appearancesWithAdduct(adduct, ordinal) < 0) {
+                return ordinal;
+            }
+        }
+        return -1;
+    }
+
+    private int appearancesWithAdduct(Adduct adduct, int ordinal) {
+        return this.getCount(ordinal) * adduct.getMultimer() + adduct.getFormulaPlus().getCount(ordinal) - adduct.getFormulaMinus().getCount(ordinal);
     }
 
     /**
@@ -149,7 +307,8 @@ public class Formula {
     public boolean equals(Object other) {
         if (other instanceof Formula) {
             Formula otherFormula = (Formula) other;
-            return this.elements.equals(otherFormula.getElements()) &&
+            return Arrays.equals(this.elementOrdinals, otherFormula.elementOrdinals) &&
+                    Arrays.equals(this.elementCounts, otherFormula.elementCounts) &&
                     (this.adduct == null ? otherFormula.adduct == null : this.adduct.equals(otherFormula.adduct));
         }
         return false;
@@ -163,26 +322,50 @@ public class Formula {
      * in the periodic table, then returns ""
      */
     public FormulaType getType() {
-        // CHECK THE ELEMENTS OF THE MAP
-        Set<Element.ElementType> setElements = elements.keySet();
-
-        // TODO CHANGE SO IT CHECKS THAT ONLY CONTAINS ELEMENTS CHNOPS
-        //verificar: no contains all -->  no contiene ningun otro elemento que no sea CHNOPS o CHNOPSCL,...
-        if (setElements.stream().allMatch(Element.SETCHNOPS::contains)) {
+        // Each check is a few bitwise operations over the element mask of the formula
+        if (containsOnly(Element.MASKCHNOPS)) {
             return FormulaType.CHNOPS;
-        } else if (setElements.stream().allMatch(Element.SETCHNOPSCL::contains)) {
+        } else if (containsOnly(Element.MASKCHNOPSCL)) {
             return FormulaType.CHNOPSCL;
-        } else if (setElements.stream().allMatch(Element.SETCHNOPSD::contains)) {
+        } else if (containsOnly(Element.MASKCHNOPSD)) {
             return FormulaType.CHNOPSD;
-        } else if (setElements.stream().allMatch(Element.SETCHNOPSCLD::contains)) {
+        } else if (containsOnly(Element.MASKCHNOPSCLD)) {
             return FormulaType.CHNOPSCLD;
-        }else if (setElements.stream().anyMatch(element -> element == Element.ElementType.D)) {
+        } else if (containsAny(Element.MASKD)) {
             return FormulaType.ALLD; //** todos que contienen Deuterio H2 isotopo agua
-        }else{
+        } else {
             return FormulaType.ALL; //** contiene todos
         }
     }
 
+    /**
+     * Get the mask of the elements of the formula
+     * @return The mask with the bits of the elements of the formula, without the elements of its adduct
+     */
+    public ElementMask getElementMask() {
+        return new ElementMask(this.elementMask0, this.elementMask1, this.elementMask2);
+    }
+
+    /**
+     * Check if the formula only contains elements of an alphabet
+     * @param alphabet The allowed elements, e.g. Element.MASKCHNOPS
+     * @return True if no element of the formula is outside the alphabet
+     */
+    public boolean containsOnly(ElementMask alphabet) {
+        return ((this.elementMask0 & ~alphabet.getWord0()) | (this.elementMask1 & ~alphabet.getWord1())
+                | (this.elementMask2 & ~alphabet.getWord2())) == 0;
+    }
+
+    /**
+     * Check if the formula contains any element of a set
+     * @param elements The elements to look for, e.g. ElementMask.of(Element.ElementType.Cl, Element.ElementType.Br)
+     * @return True if the formula contains at least one of the elements
+     */
+    public boolean containsAny(ElementMask elements) {
+        return ((this.elementMask0 & elements.getWord0()) | (this.elementMask1 & elements.getWord1())
+                | (this.elementMask2 & elements.getWord2())) != 0;
+    }
+
 
 
     /**
@@ -195,10 +378,19 @@ public class Formula {
         StringBuilder formulaString = new StringBuilder();
 
         // Append elements
-        for (Map.Entry<Element.ElementType, Integer> entry : this.elements.entrySet()) {
-            formulaString.append(entry.getKey()).append(entry.getValue() > 1 ? entry.getValue() : "");
+        for (int i = 0; i < this.elementOrdinals.length; i++) {
+            formulaString.append(Element.elementType(this.elementOrdinals[i] & 0xFF)).append(this.elementCounts[i] > 1 ? this.elementCounts[i] : "");
         }
+        return toString(formulaString);
+    }
 
+    /**
+     * Returns a string representation of some elements with the charge and the adduct of the formula.
+     *
+     * @param formulaString The elements of the formula
+     * @return A string representation of the elements, charge and adduct.
+     */
+    private String toString(CharSequence formulaString) {
         // Handle charge
         String chargeStr = "";
         if (!this.chargeType.equals("")) {
@@ -209,9 +401,69 @@ public class Formula {
         String adductStr = this.adduct == null ? "" : this.adduct;
 
         // Return the result as formula charge adduct without quotation marks
-        return String.format("%s %s %s", formulaString.toString(), chargeStr, adductStr);
+        return String.format("%s %s %s", formulaString, chargeStr, adductStr);
+    }
+
+
+    /**
+     * Returns the formula in Hill notation: C first, then H and then the rest of the elements in alphabetical order.
+     * If the formula does not contain C, all the elements are in alphabetical order. The charge is appended at the end
+     * (e.g. 'C6H11O7-'), so formulas without labeled isotopes can be parsed back with formulaFromStringHill.
+     *
+     * @return The formula in Hill notation.
+     */
+    public String getHillString() {
+        String hill = this.hillString;
+        if (hill == null) {
+            hill = calculateHillString();
+            this.hillString = hill;
+        }
+        return hill;
+    }
+
+    private String calculateHillString() {
+        boolean hasCarbon = getCount(Element.ElementType.C.ordinal()) > 0;
+        int size = this.elementOrdinals.length;
+        Element.ElementType[] sortedElements = new Element.ElementType[size];
+        int[] sortedCounts = new int[size];
+        for (int i = 0; i < size; i++) {
+            Element.ElementType element = Element.elementType(this.elementOrdinals[i] & 0xFF);
+            int position = i;
+            while (position > 0 && compareHill(sortedElements[position - 1], element, hasCarbon) > 0) {
+                sortedElements[position] = sortedElements[position - 1];
+                sortedCounts[position] = sortedCounts[position - 1];
+                position--;
+            }
+            sortedElements[position] = element;
+            sortedCounts[position] = this.elementCounts[i];
+        }
+
+        StringBuilder hill = new StringBuilder();
+        for (int i = 0; i < size; i++) {
+            hill.append(sortedElements[i].name());
+            if (sortedCounts[i] > 1) {
+                hill.append(sortedCounts[i]);
+            }
+        }
+        if (this.chargeType != ChargeType.NEUTRAL && this.charge > 0) {
+            hill.append(this.chargeType.getSymbol());
+            if (this.charge > 1) {
+                hill.append(this.charge);
+            }
+        }
+        return hill.toString();
     }
 
+    private static int compareHill(Element.ElementType element1, Element.ElementType element2, boolean hasCarbon) {
+        if (hasCarbon) {
+            int rank1 = element1 == Element.ElementType.C ? 0 : (element1 == Element.ElementType.H ? 1 : 2);
+            int rank2 = element2 == Element.ElementType.C ? 0 : (element2 == Element.ElementType.H ? 1 : 2);
+            if (rank1 != rank2) {
+                return Integer.compare(rank1, rank2);
+            }
+        }
+        return element1.name().compareTo(element2.name());
+    }
 
     /**
      * Return a string representation of the final formula plus or minus de the adduct.
@@ -221,6 +473,15 @@ public class Formula {
      * @throws IncorrectAdduct If the adduct provided is invalid.
      */
     public String getFinalFormulaWithAdduct() throws IncorrectFormula, IncorrectAdduct, NotFoundElement {
+        String finalFormulaStr = this.finalFormulaWithAdduct;
+        if (finalFormulaStr == null) {
+            finalFormulaStr = calculateFinalFormulaWithAdduct();
+            this.finalFormulaWithAdduct = finalFormulaStr;
+        }
+        return finalFormulaStr;
+    }
+
+    private String calculateFinalFormulaWithAdduct() throws IncorrectFormula, IncorrectAdduct, NotFoundElement {
         /*
          * Returns a string representation of the final formula plus or minus the adduct.
          * e.g., "[C12H3N3O]+"
@@ -229,18 +490,20 @@ public class Formula {
             return this.toString();  // Return the string representation of the formula
         }
 
-        Adduct adductNew = new Adduct(this.adduct);
+        Adduct adductNew = this.parsedAdduct;
 
-        // Multiply the formula by the adduct multimer
-        Formula finalFormula = this.multiply(adductNew.getMultimer());
+        // Multiply the formula by the adduct multimer and apply formulaPlus and formulaMinus. resolveAdduct checked that
+        // no element is negative, the elements that are completely subtracted are not included
+        StringBuilder formulaString = new StringBuilder();
+        new FormulaBuilder()
+                .add(this, adductNew.getMultimer())
+                .add(adductNew.getFormulaPlus())
+                .subtract(adductNew.getFormulaMinus())
+                .appendElements(formulaString);
 
         // If the adduct charge is 0, just add or subtract the formulas
         if (adductNew.getAdductCharge() == 0) {
-            Formula formulaPlus = adductNew.getFormulaPlus();
-            Formula formulaMinus = adductNew.getFormulaMinus();
-
-            finalFormula = finalFormula.add(formulaPlus).subtract(formulaMinus);
-            return finalFormula.toString();
+            return toString(formulaString);
         } else {
             // Handle charge adjustments for the final formula
             int ownCharge;
@@ -275,21 +538,6 @@ public class Formula {
                 finalChargeStr = "-" + Math.abs(finalCharge);
             }
 
-            // Apply formulaPlus and formulaMinus to the final formula
-            Formula formulaPlus = adductNew.getFormulaPlus();
-            Formula formulaMinus = adductNew.getFormulaMinus();
-
-            finalFormula = finalFormula.add(formulaPlus).subtract(formulaMinus);
-
-            // Convert finalFormula elements to string
-            StringBuilder formulaString = new StringBuilder();
-            for (Map.Entry<Element.ElementType, Integer> entry : finalFormula.getElements().entrySet()) {
-                formulaString.append(entry.getKey().name());
-                if (entry.getValue() > 1) {
-                    formulaString.append(entry.getValue());
-                }
-            }
-
             // Enclose the formula in brackets and add the final charge type
             return "[" + formulaString.toString() + "]" + finalChargeStr;
         }
@@ -297,7 +545,7 @@ public class Formula {
 
     @Override
     public int hashCode() {
-        return this.elements.hashCode();
+        return 31 * Arrays.hashCode(this.elementOrdinals) + Arrays.hashCode(this.elementCounts);
     }
 
     /**
@@ -309,14 +557,14 @@ public class Formula {
      * @throws IncorrectAdduct If the adduct provided is invalid
      */
     public Formula add(Formula other) throws IncorrectFormula, IncorrectAdduct, NotFoundElement {
-        Map<Element.ElementType, Integer> newElements = new HashMap<>(this.elements);
-        for (Map.Entry<Element.ElementType, Integer> entry : other.elements.entrySet()) {
-            newElements.put(entry.getKey(), newElements.getOrDefault(entry.getKey(), 0) + entry.getValue());
-        }
+        byte[] newOrdinals = mergeOrdinals(this.elementOrdinals, other.elementOrdinals);
+        int[] newCounts = new int[newOrdinals.length];
+        addCounts(newOrdinals, newCounts, this.elementOrdinals, this.elementCounts, 1);
+        addCounts(newOrdinals, newCounts, other.elementOrdinals, other.elementCounts, 1);
         int newCharge = this.chargeType.equals("-") ? -this.charge : this.charge;
         newCharge = other.chargeType.equals("-") ? newCharge - other.charge : newCharge + other.charge;
-        String newChargeType = newCharge == 0 ? "" : (newCharge > 0 ? "+" : "-");
-        return new Formula(newElements, this.adduct, Math.abs(newCharge), newChargeType);
+        ChargeType newChargeType = newCharge == 0 ? ChargeType.NEUTRAL : (newCharge > 0 ? ChargeType.POSITIVE : ChargeType.NEGATIVE);
+        return new Formula(newOrdinals, newCounts, this.adduct, Math.abs(newCharge), newChargeType);
     }
 
     /**
@@ -328,19 +576,20 @@ public class Formula {
      * @throws IncorrectAdduct If the adduct provided is invalid.
      */
     public Formula subtract(Formula other) throws IncorrectFormula, IncorrectAdduct, NotFoundElement {
-        Map<Element.ElementType, Integer> newElements = new HashMap<>(this.elements);
-        for (Map.Entry<Element.ElementType, Integer> entry : other.elements.entrySet()) {
-            newElements.put(entry.getKey(), newElements.getOrDefault(entry.getKey(), 0) - entry.getValue());
-        }
-        for (Map.Entry<Element.ElementType, Integer> entry : newElements.entrySet()) {
-            if (entry.getValue() < 0) {
-                throw new IncorrectFormula("The subtraction of these two formulas contains a negative number of " + entry.getKey());
+        byte[] newOrdinals = mergeOrdinals(this.elementOrdinals, other.elementOrdinals);
+        int[] newCounts = new int[newOrdinals.length];
+        addCounts(newOrdinals, newCounts, this.elementOrdinals, this.elementCounts, 1);
+        addCounts(newOrdinals, newCounts, other.elementOrdinals, other.elementCounts, -1);
+        for (int i = 0; i < newCounts.length; i++) {
+            if (newCounts[i] < 0) {
+                throw new IncorrectFormula("The subtraction of these two formulas contains a negative number of " + Element.elementType(newOrdinals[i] & 0xFF));
             }
         }
+        checkPositiveCounts(newOrdinals, newCounts);
         int newCharge = this.chargeType.equals("-") ? -this.charge : this.charge;
         newCharge = other.chargeType.equals("-") ? newCharge + other.charge : newCharge - other.charge;
-        String newChargeType = newCharge == 0 ? "" : (newCharge > 0 ? "+" : "-");
-        return new Formula(newElements, this.adduct, Math.abs(newCharge), newChargeType);
+        ChargeType newChargeType = newCharge == 0 ? ChargeType.NEUTRAL : (newCharge > 0 ? ChargeType.POSITIVE : ChargeType.NEGATIVE);
+        return new Formula(newOrdinals, newCounts, this.adduct, Math.abs(newCharge), newChargeType);
     }
 
     /**
@@ -352,11 +601,76 @@ public class Formula {
      * @throws IncorrectAdduct If the adduct provided is invalid
      */
     public Formula multiply(int numToMultiply) throws IncorrectFormula, IncorrectAdduct, NotFoundElement {
-        Map<Element.ElementType, Integer> newElements = new HashMap<>(this.elements);
-        for (Map.Entry<Element.ElementType, Integer> entry : newElements.entrySet()) {
-            newElements.put(entry.getKey(), entry.getValue() * numToMultiply);
+        int[] newCounts = new int[this.elementCounts.length];
+        for (int i = 0; i < newCounts.length; i++) {
+            newCounts[i] = this.elementCounts[i] * numToMultiply;
+        }
+        checkPositiveCounts(this.elementOrdinals, newCounts);
+        return new Formula(this.elementOrdinals, newCounts, this.adduct, this.charge, this.chargeType);
+    }
+
+    /**
+     * Union of two arrays of ordinals sorted in ascending order
+     * @return The ordinals present in any of the arrays, in ascending order
+     */
+    private static byte[] mergeOrdinals(byte[] ordinals1, byte[] ordinals2) {
+        byte[] merged = new byte[ordinals1.length + ordinals2.length];
+        int i = 0;
+        int j = 0;
+        int size = 0;
+        while (i < ordinals1.length && j < ordinals2.length) {
+            int ordinal1 = ordinals1[i] & 0xFF;
+            int ordinal2 = ordinals2[j] & 0xFF;
+            if (ordinal1 < ordinal2) {
+                merged[size++] = ordinals1[i++];
+            } else if (ordinal1 > ordinal2) {
+                merged[size++] = ordinals2[j++];
+            } else {
+                merged[size++] = ordinals1[i++];
+                j++;
+            }
+        }
+        while (i < ordinals1.length) {
+            merged[size++] = ordinals1[i++];
+        }
+        while (j < ordinals2.length) {
+            merged[size++] = ordinals2[j++];
+        }
+        return size == merged.length ? merged : Arrays.copyOf(merged, size);
+    }
+
+    /**
+     * Adds the counts of a formula multiplied by a factor to the counts of another set of elements that contains all of them
+     * @param targetOrdinals Ordinals of the destination, containing all the ordinals to add
+     * @param targetCounts Counts to update
+     * @param ordinals Ordinals of the elements to add
+     * @param counts Counts of the elements to add
+     * @param factor Number to multiply the counts to add by
+     */
+    private static void addCounts(byte[] targetOrdinals, int[] targetCounts, byte[] ordinals, int[] counts, int factor) {
+        int target = 0;
+        for (int i = 0; i < ordinals.length; i++) {
+            while (targetOrdinals[target] != ordinals[i]) {
+                target++;
+            }
+            targetCounts[target] += counts[i] * factor;
+        }
+    }
+
+    /**
+     * Check that all the quantities of a formula are greater than 0, as the public constructor does
+     * @throws IncorrectFormula If any quantity is &lt;=0
+     */
+    private static void checkPositiveCounts(byte[] ordinals, int[] counts) throws IncorrectFormula {
+        for (int count : counts) {
+            if (count <= 0) {
+                Map<Element.ElementType, Integer> elements = new LinkedHashMap<>();
+                for (int i = 0; i < ordinals.length; i++) {
+                    elements.put(Element.elementType(ordinals[i] & 0xFF), counts[i]);
+                }
+                throw new IncorrectFormula(elements);
+            }
         }
-        return new Formula(newElements, this.adduct, this.charge, this.chargeType.getSymbol());
     }
 
     /**
@@ -370,67 +684,52 @@ public class Formula {
      * @throws IncorrectAdduct If the adduct provided is invalid
      */
     public static Formula formulaFromStringHill(String formulaStr, String adduct, Map<String, Object> metadata) throws IncorrectFormula, NotFoundElement, IncorrectAdduct {
-        if (!formulaStr.matches("^[\\[?a-zA-Z0-9\\]?]+(\\(?[+-]?\\d*\\)?)?$")) {
-            throw new IncorrectFormula(formulaStr);
-        }
-
-        Pattern pattern = Pattern.compile("(\\[\\d+\\])?([A-Z][a-z]*)(\\d*)");
-        Matcher matcher = pattern.matcher(formulaStr);
-        Map<Element.ElementType, Integer> elements = new HashMap<>();
-
-        while (matcher.find()) {
-            String elementSymbol = matcher.group(2);  // Extract the element symbol as a String
-            int appearances = matcher.group(3).isEmpty() ? 1 : Integer.parseInt(matcher.group(3));
-
-            // Convert the element symbol (String) to an ElementType
-            Element.ElementType elementType;
-            try {
-                elementType = Element.ElementType.valueOf(elementSymbol);  // Converts the string to an ElementType
-            } catch (IllegalArgumentException e) {
-                throw new NotFoundElement("ceu.biolab.Element " + elementSymbol + " not found");
-            }
-
-            // Put the ElementType in the map with its appearances
-            elements.put(elementType, elements.getOrDefault(elementType, 0) + appearances);
+        MetricsListener metrics = Metrics.listener();
+        long start = Metrics.start(metrics);
+        FormulaEvents.Parse event = new FormulaEvents.Parse();
+        event.begin();
+        try {
+            Formula formula = HillFormulaParser.parse(formulaStr, adduct, metadata);
+            metrics.formulaParsed(MetricsListener.EntryPoint.HILL, Metrics.elapsed(metrics, start));
+            event.finish(MetricsListener.EntryPoint.HILL, formulaStr, FormulaEvents.OK);
+            return formula;
+        } catch (IncorrectFormula | NotFoundElement | IncorrectAdduct | RuntimeException e) {
+            metrics.formulaParseFailed(MetricsListener.EntryPoint.HILL, e.getClass().getSimpleName(), Metrics.elapsed(metrics, start));
+            event.finish(MetricsListener.EntryPoint.HILL, formulaStr, FormulaEvents.outcome(e));
+            throw e;
         }
+    }
 
-        // Adjusted pattern to handle charges
-        Pattern chargePattern = Pattern.compile("\\(?([-+])(\\d*)\\)?$");
-        Matcher chargeMatcher = chargePattern.matcher(formulaStr);
-        int charge = 0;
-        String chargeType = "";
-
-        if (chargeMatcher.find()) {
-            // Capture the charge type ('+' or '-')
-            chargeType = chargeMatcher.group(1);
-            // Capture the numeric part of the charge, if present
-            String chargeValue = chargeMatcher.group(2);
-            // If the numeric part is empty, set the charge to 1; otherwise, convert to an integer
-            charge = chargeValue.isEmpty() ? 1 : Integer.parseInt(chargeValue);
+    /**
+     * Static method to parse a chemical formula string in Hill notation without throwing exceptions, for bulk inputs
+     * where many strings may not be valid.
+     * @param formulaStr A string representing a molecular formula in Hill notation. Example: 'C4H5N6Na'. Other example 'C4H5N6Na+'
+     * @param adduct A string representing an adduct in the form '[M+C2H2O-H]-', '[M-3H2O+2H]2+' or '[5M+Ca]2+' where the charge is specified at the end
+     * @param metadata Optional argument to include a dict of metadata, defaults to None.
+     * @return The formula accepted by formulaFromStringHill, or the error code and the position where the string is not valid
+     */
+    public static ParseResult tryFormulaFromStringHill(String formulaStr, String adduct, Map<String, Object> metadata) {
+        MetricsListener metrics = Metrics.listener();
+        long start = Metrics.start(metrics);
+        FormulaEvents.Parse event = new FormulaEvents.Parse();
+        event.begin();
+        ParseResult result = HillFormulaParser.tryParse(formulaStr, adduct, metadata);
+        if (result.isSuccess()) {
+            metrics.formulaParsed(MetricsListener.EntryPoint.TRY_HILL, Metrics.elapsed(metrics, start));
+            event.finish(MetricsListener.EntryPoint.TRY_HILL, formulaStr, FormulaEvents.OK);
         } else {
-            // If no charge is found, set charge to 0 and chargeType to empty string
-            charge = 0;
-            chargeType = "";
+            metrics.formulaParseFailed(MetricsListener.EntryPoint.TRY_HILL, result.getErrorCode().name(), Metrics.elapsed(metrics, start));
+            event.finish(MetricsListener.EntryPoint.TRY_HILL, formulaStr, result.getErrorCode().name());
         }
-
-
-        return new Formula(elements, adduct, charge, chargeType, metadata);
+        return result;
     }
 
     /**
      * Calculates the monoisotopic mass of the formula
      * @return double value of the monoisotopic mass
-     * @throws IncorrectFormula If the formula contains invalid elements or values.
      */
-    private double calculateMonoisotopicMass() throws IncorrectFormula {
-        double monoisotopicMass = 0.0;
-
-        // Iterate over elements and their counts (appearances)
-        for (Map.Entry<Element.ElementType, Integer> entry : elements.entrySet()) {
-            Element.ElementType element = entry.getKey();
-            int appearances = entry.getValue();
-            monoisotopicMass += Element.elementWeights.get(element) * appearances;
-        }
+    private double calculateMonoisotopicMass() {
+        double monoisotopicMass = Element.sumMonoisotopicMasses(elementOrdinals, elementCounts);
 
         // Adjust for charge type
         double electronsWeight = 0.0;
@@ -445,7 +744,7 @@ public class Formula {
                 electronsWeight = 0.0;
                 break;
             default:
-                throw new IncorrectFormula("The formula contains a wrong charge type");
+                throw new IllegalStateException("The formula contains a wrong charge type");
         }
 
         monoisotopicMass += electronsWeight;
@@ -458,75 +757,106 @@ public class Formula {
     }
 
     /**
-     * Calculates the monoisotopic mass of the formula taking into account the adduct
+     * Calculates the monoisotopic mass of the formula taking into account the adduct. The adduct has already been
+     * resolved and checked by the constructor.
      * @return double value of the monoisotopic mass
-     * @throws IncorrectFormula If the formula contains invalid elements or values
-     * @throws NotFoundElement If the element is not found in the periodic table
-     * @throws IncorrectAdduct If the adduct provided is invalid
      */
-    private double calculateMonoisotopicMassWithAdduct() throws IncorrectFormula, IncorrectAdduct, NotFoundElement {
-        double monoisotopicMassWithAdduct = this.getMonoisotopicMass();
-        if (this.adduct == null) {
-            return monoisotopicMassWithAdduct;
-        }
-
-        Adduct adductNew = new Adduct(this.adduct);
-
-        // Calculate partial elements considering the adduct multiplier
-        Map<Element.ElementType, Integer> partialElements = new HashMap<>();
-        for (Map.Entry<Element.ElementType, Integer> entry : this.elements.entrySet()) {
-            Element.ElementType element = entry.getKey();
-            int count = entry.getValue();
-            partialElements.put(element, count * adductNew.getMultimer());
-        }
-
-        // Calculate partial charge
-        int partialCharge = this.chargeType.equals("+") ? this.charge : -this.charge;
+    private int calculateFinalCharge(Adduct adductNew) {
+        int partialCharge = getPartialCharge();
         ChargeType adductChargeType = adductNew.getAdductChargeType();
         int adductCharge = adductNew.getAdductCharge();
-        int finalCharge;
 
         switch (adductChargeType) {
             case POSITIVE:
-                finalCharge = partialCharge + adductCharge;
-                break;
+                return partialCharge + adductCharge;
             case NEGATIVE:
-                finalCharge = partialCharge - adductCharge;
-                break;
+                return partialCharge - adductCharge;
             case NEUTRAL:
-                finalCharge = partialCharge;
-                break;
+                return partialCharge;
             default:
-                throw new IncorrectFormula("The formula contains a wrong adduct");
+                throw new IllegalStateException("The formula contains a wrong adduct");
         }
+    }
 
-        // Update partial elements with adduct formula
-        Formula formulaPlus = adductNew.getFormulaPlus();
-        Formula formulaMinus = adductNew.getFormulaMinus();
+    /**
+     * Get the charge of the formula that is added to the charge of the adduct in getMonoisotopicMassWithAdduct
+     * @return The partial charge
+     */
+    int getPartialCharge() {
+        return this.chargeType.equals("+") ? this.charge : -this.charge;
+    }
+
+    /**
+     * Get the number that divides the mass of the elements in getMonoisotopicMass
+     * @return The charge, or 1 if the formula is not charged
+     */
+    int getMassDivisor() {
+        return (charge != 0) ? charge : 1;
+    }
 
-        for (Map.Entry<Element.ElementType, Integer> entry : formulaPlus.getElements().entrySet()) {
-            Element.ElementType element = entry.getKey();
-            int appearances = entry.getValue();
-            partialElements.merge(element, appearances, Integer::sum);
+    /**
+     * Get the number that divides the mass of the elements with the adduct in getMonoisotopicMassWithAdduct
+     * @return The absolute value of the final charge, or 1 if it is not charged
+     */
+    int getMassDivisorWithAdduct() {
+        if (this.parsedAdduct == null) {
+            return getMassDivisor();
         }
+        int finalCharge = calculateFinalCharge(this.parsedAdduct);
+        return Math.abs((finalCharge != 0) ? finalCharge : 1);
+    }
 
-        for (Map.Entry<Element.ElementType, Integer> entry : formulaMinus.getElements().entrySet()) {
-            Element.ElementType element = entry.getKey();
-            int appearances = entry.getValue();
-            partialElements.merge(element, -appearances, Integer::sum);
-            if (partialElements.get(element) < 0) {
-                throw new IncorrectFormula("The formula contains a wrong adduct because the element " + element + " is negative " + partialElements.get(element));
-            }
+    /**
+     * Get the elements of the formula multiplied by the adduct multimer plus the elements added by the adduct minus
+     * the elements subtracted by the adduct, i.e., the elements whose masses are summed in getMonoisotopicMassWithAdduct
+     * @return A neutral formula without adduct with those elements
+     */
+    Formula getElementsWithAdduct() {
+        if (this.parsedAdduct == null) {
+            return neutralFromCounts(this.elementOrdinals, this.elementCounts);
         }
+        // resolveAdduct checked that no count is negative, the elements that are completely subtracted are removed
+        return new FormulaBuilder()
+                .add(this, this.parsedAdduct.getMultimer())
+                .add(this.parsedAdduct.getFormulaPlus())
+                .subtract(this.parsedAdduct.getFormulaMinus())
+                .buildNeutral(true);
+    }
 
-        // Calculate monoisotopic mass with adduct
-        monoisotopicMassWithAdduct = 0;
-        for (Map.Entry<Element.ElementType, Integer> entry : partialElements.entrySet()) {
-            Element.ElementType element = entry.getKey();
-            int appearances = entry.getValue();
-            monoisotopicMassWithAdduct += Element.elementWeights.get(element) * appearances;
+    /**
+     * @return The ordinals of the elements in ascending order, the array must not be modified
+     */
+    byte[] getElementOrdinals() {
+        return elementOrdinals;
+    }
+
+    /**
+     * @return The appearances of the elements in the order of getElementOrdinals, the array must not be modified
+     */
+    int[] getElementCounts() {
+        return elementCounts;
+    }
+
+    private double calculateMonoisotopicMassWithAdduct() {
+        double monoisotopicMassWithAdduct = this.getMonoisotopicMass();
+        if (this.parsedAdduct == null) {
+            return monoisotopicMassWithAdduct;
         }
 
+        Adduct adductNew = this.parsedAdduct;
+
+        int finalCharge = calculateFinalCharge(adductNew);
+
+        // Partial elements: the elements multiplied by the adduct multimer plus formulaPlus minus formulaMinus
+        Formula formulaPlus = adductNew.getFormulaPlus();
+        Formula formulaMinus = adductNew.getFormulaMinus();
+        int multimer = adductNew.getMultimer();
+
+        // Calculate monoisotopic mass with adduct
+        monoisotopicMassWithAdduct = Element.sumMonoisotopicMasses(this.elementOrdinals, this.elementCounts) * multimer
+                + Element.sumMonoisotopicMasses(formulaPlus.elementOrdinals, formulaPlus.elementCounts)
+                - Element.sumMonoisotopicMasses(formulaMinus.elementOrdinals, formulaMinus.elementCounts);
+
         // Adjust for charge
         double electronsWeight = (finalCharge != 0) ? -ELECTRON_WEIGHT * finalCharge : 0;
         monoisotopicMassWithAdduct += electronsWeight;
@@ -548,38 +878,65 @@ public class Formula {
      * @throws IncorrectAdduct If the adduct provided is invalid
      */
     public static Formula formulaFromString(String formulaStr, String adduct, boolean noApi, Map<String, Object> metadata) throws IncorrectFormula, NotFoundElement, IncorrectAdduct {
+        MetricsListener metrics = Metrics.listener();
+        long start = Metrics.start(metrics);
+        FormulaEvents.Parse event = new FormulaEvents.Parse();
+        event.begin();
         try {
-            // Attempt to process the formula directly using formulaFromStringHill
-            return formulaFromStringHill(formulaStr, adduct, metadata);
-        } catch (Exception e) {
-            // Print the error and continue
-            System.out.println(e.getMessage());
+            Formula formula = parseAnyNotation(formulaStr, adduct, noApi, metadata);
+            if (formula != null) {
+                metrics.formulaParsed(MetricsListener.EntryPoint.STRING, Metrics.elapsed(metrics, start));
+                event.finish(MetricsListener.EntryPoint.STRING, formulaStr, FormulaEvents.OK);
+            } else {
+                metrics.formulaParseFailed(MetricsListener.EntryPoint.STRING, "NotResolved", Metrics.elapsed(metrics, start));
+                event.finish(MetricsListener.EntryPoint.STRING, formulaStr, "NotResolved");
+            }
+            return formula;
+        } catch (IncorrectFormula | NotFoundElement | IncorrectAdduct | RuntimeException e) {
+            metrics.formulaParseFailed(MetricsListener.EntryPoint.STRING, e.getClass().getSimpleName(), Metrics.elapsed(metrics, start));
+            event.finish(MetricsListener.EntryPoint.STRING, formulaStr, FormulaEvents.outcome(e));
+            throw e;
         }
+    }
 
-        if (!noApi) {
-            // If noApi is false, attempt to resolve the formula via ChemCalc API
+    /**
+     * Tries the notations of formulaFromString in order: condensed formulas with isotope prefixes, Hill notation,
+     * condensed formulas and ChemCalc
+     */
+    private static Formula parseAnyNotation(String formulaStr, String adduct, boolean noApi, Map<String, Object> metadata) throws IncorrectFormula, NotFoundElement, IncorrectAdduct {
+        // formulaFromStringHill ignores isotope prefixes like [13]C, so those formulas go first to the condensed parser
+        boolean isotopePrefixes = formulaStr.indexOf('[') >= 0;
+        if (isotopePrefixes) {
             try {
-                String url = CC_URL + "?mf=" + formulaStr + "&isotopomers=jcamp,xy";
-                HttpClient client = new HttpClient();
-                GetMethod method = new GetMethod(url);
-
-                int statusCode = client.executeMethod(method);
-                if (statusCode != 200) {
-                    throw new IncorrectFormula("The formula " + formulaStr + " was not parseable to a correct formula");
-                }
-
-                // Parse JSON response
-                ObjectMapper objectMapper = new ObjectMapper();
-                JsonNode data = objectMapper.readTree(method.getResponseBodyAsString());
+                return CondensedFormulaParser.parse(formulaStr, adduct, metadata);
+            } catch (IncorrectFormula | NotFoundElement | IncorrectAdduct e) {
+                // Continue with formulaFromStringHill
+            }
+        }
 
-                // Extract the molecular formula in Hill notation
-                String mfHill = data.get("mf").asText();
+        // Attempt to process the formula directly in Hill notation, the errors are not thrown to try the next notations
+        ParseResult hill = HillFormulaParser.tryParse(formulaStr, adduct, metadata);
+        if (hill.isSuccess()) {
+            return hill.getFormula();
+        }
 
-                // Use the Hill notation formula to create the ceu.biolab.Formula object
-                return formulaFromStringHill(mfHill, adduct, metadata);
-            } catch (IOException e) {
-                throw new IncorrectFormula("Error connecting to ChemCalc API: " + e.getMessage());
+        // A wrong adduct is wrong in any notation, so only the API can still read the formula
+        boolean adductError = hill.getErrorCode() == ParseResult.ErrorCode.INVALID_ADDUCT
+                || hill.getErrorCode() == ParseResult.ErrorCode.ADDUCT_NOT_APPLICABLE;
+        if (!isotopePrefixes && !adductError) {
+            try {
+                // Attempt to process condensed formulas with groups and hydrates locally before using the API
+                return CondensedFormulaParser.parse(formulaStr, adduct, metadata);
+            } catch (IncorrectFormula | NotFoundElement | IncorrectAdduct e) {
+                // Continue with the API
             }
+        }
+
+        if (!noApi) {
+            // If noApi is false, attempt to resolve the formula via ChemCalc API
+            String mfHill = ChemCalcResolver.getDefault().resolve(formulaStr);
+            // Use the Hill notation formula to create the ceu.biolab.Formula object
+            return HillFormulaParser.parse(mfHill, adduct, metadata);
         } else {
             // If noApi is true, return null as no API call is made
             return null;
@@ -617,6 +974,35 @@ public class Formula {
         return absoluteToPpm(getMonoisotopicMassWithAdduct(), referenceMonoisotopicMass);
     }
 
+    /**
+     * Batch version of checkMonoisotopicMass for a list of external masses.
+     * @param externalMasses The external monoisotopic masses to compare with the formula's mass
+     * @param massToleranceInPpm The mass tolerance in parts per million (ppm) for the comparison
+     * @return A BitSet with the positions of the external masses within the specified tolerance of the formula's mass
+     */
+    public BitSet checkMonoisotopicMass(double[] externalMasses, double massToleranceInPpm) {
+        return MassTolerance.withinTolerance(getMonoisotopicMass(), externalMasses, massToleranceInPpm);
+    }
+
+    /**
+     * Batch version of checkMonoisotopicMassWithAdduct for a list of external masses.
+     * @param externalMasses The external monoisotopic masses to compare with the formula's mass with the adduct
+     * @param massToleranceInPpm The mass tolerance in parts per million (ppm) for the comparison
+     * @return A BitSet with the positions of the external masses within the specified tolerance of the formula's mass with the adduct
+     */
+    public BitSet checkMonoisotopicMassWithAdduct(double[] externalMasses, double massToleranceInPpm) {
+        return MassTolerance.withinTolerance(getMonoisotopicMassWithAdduct(), externalMasses, massToleranceInPpm);
+    }
+
+    /**
+     * Batch version of ppmDifferenceWithExpMass for a list of experimental masses.
+     * @param referenceMonoisotopicMasses Experimental masses
+     * @return The ppms between the monoisotopic mass of the formula taking into account the adduct and each experimental mass
+     */
+    public double[] ppmDifferencesWithExpMasses(double[] referenceMonoisotopicMasses) {
+        return MassTolerance.ppmDifferences(getMonoisotopicMassWithAdduct(), referenceMonoisotopicMasses);
+    }
+
     /**
      *
      * @param referenceMonoisotopicMass Monoisotopic mass of reference
@@ -639,47 +1025,68 @@ public class Formula {
 
     /**
      * Static method to create a ceu.biolab.Formula object from a SMILES (Simplified Molecular Input Line Entry System) string.
+     * The formula contains the atoms of the structure, including the implicit hydrogens and the isotopes, and the charge
+     * is the sum of the formal charges of the atoms. See SmilesFormulaConverter to convert lists of SMILES in parallel.
      * @param smiles A string representing a molecular structure in SMILES notation. Example: CCCCCCC[C@@H](C/C=C/CCC(=O)NC/C(=C/Cl)/[C@@]12[C@@H](O1)[C@H](CCC2=O)O)OC
      * @return A new instance of the ceu.biolab.Formula class according to the molecular structure
      * @throws IncorrectFormula If the SMILES string does not represent a valid molecular structure
      */
     public static Formula formulaFromSMILES(String smiles) throws IncorrectFormula {
-        try {
-            // Create a SMILES parser
-            SmilesParser smilesParser = new SmilesParser(SilentChemObjectBuilder.getInstance());
-
-            // Parse the SMILES string to get a molecule
-            IAtomContainer molecule = smilesParser.parseSmiles(smiles);
-
-            // Get the molecular formula
-            String molecularFormula = MolecularFormulaManipulator.getString(
-                    MolecularFormulaManipulator.getMolecularFormula(molecule)
-            );
-
-            // Calculate the total charge
-            int totalCharge = 0;
-            for (IAtom atom : molecule.atoms()) {
-                Integer charge = atom.getFormalCharge();
-                if (charge != null) {
-                    totalCharge += charge;
-                }
-            }
-
-            return formulaFromStringHill(molecularFormula, null, null);
-
-        } catch (InvalidSmilesException | NotFoundElement | IncorrectAdduct e) {
-            throw new IncorrectFormula("Invalid SMILES string: " + smiles);
-        }
+        return SmilesFormulaConverter.fromSmiles(smiles);
     }
 
     /**
      * Static method to create a ceu.biolab.Formula object from an InChI (International Chemical Identifier) string.
+     * The formula is read from the formula layer of the InChI, and the charge from its charge (/q) and proton (/p)
+     * layers, without reconstructing the structure.
      * @param inchi A string representing a molecular structure in InChI notation. Example: InChI=1S/C45H73N5O10S3/c1-14-17-24(6)34(52)26(8)37-25(7)30(58-13)18-31-46-29(19-61-31)39-49-45(12,21-62-39)43-50-44(11,20-63-43)42(57)48-32(22(4)15-2)35(53)27(9)40(55)59-36(23(5)16-3)38(54)47-33(28(10)51)41(56)60-37/h19,22-28,30,32-37,51-53H,14-18,20-21H2,1-13H3,(H,47,54)(H,48,57)/t22-,23-,24+,25-,26-,27+,28+,30-,32-,33-,34-,35-,36-,37-,44+,45+/m0/s1
      * @return A new instance of the ceu.biolab.Formula class according to the molecular structure
      * @throws IncorrectFormula If the inchi string does not represent a valid molecular structure
      * @throws NotFoundElement If the element is not found in the periodic table
      */
     public static Formula formulaFromInChI(String inchi) throws IncorrectFormula, NotFoundElement {
+        return formulaFromInChI(inchi, false);
+    }
+
+    /**
+     * Static method to create a ceu.biolab.Formula object from an InChI (International Chemical Identifier) string,
+     * optionally validating the InChI by reconstructing its structure with CDK.
+     * @param inchi A string representing a molecular structure in InChI notation
+     * @param validateStructure If true, the structure is reconstructed with CDK and its elements must be the ones of
+     *                          the formula layer. It requires the native InChI library
+     * @return A new instance of the ceu.biolab.Formula class according to the molecular structure
+     * @throws IncorrectFormula If the inchi string does not represent a valid molecular structure
+     * @throws NotFoundElement If the element is not found in the periodic table
+     */
+    public static Formula formulaFromInChI(String inchi, boolean validateStructure) throws IncorrectFormula, NotFoundElement {
+        MetricsListener metrics = Metrics.listener();
+        long start = Metrics.start(metrics);
+        FormulaEvents.Parse event = new FormulaEvents.Parse();
+        event.begin();
+        try {
+            Formula formula = InChIFormulaParser.parse(inchi);
+            if (validateStructure && !formula.getElements().equals(formulaFromInChIStructure(inchi).getElements())) {
+                throw new IncorrectFormula("The formula of the InChI " + inchi + " does not match its structure");
+            }
+            metrics.formulaParsed(MetricsListener.EntryPoint.INCHI, Metrics.elapsed(metrics, start));
+            event.finish(MetricsListener.EntryPoint.INCHI, inchi, FormulaEvents.OK);
+            return formula;
+        } catch (IncorrectFormula | NotFoundElement | RuntimeException e) {
+            metrics.formulaParseFailed(MetricsListener.EntryPoint.INCHI, e.getClass().getSimpleName(), Metrics.elapsed(metrics, start));
+            event.finish(MetricsListener.EntryPoint.INCHI, inchi, FormulaEvents.outcome(e));
+            throw e;
+        }
+    }
+
+    /**
+     * Get the formula of the structure of an InChI reconstructed with CDK
+     */
+    private static Formula formulaFromInChIStructure(String inchi) throws IncorrectFormula, NotFoundElement {
+        MetricsListener metrics = Metrics.listener();
+        long start = Metrics.start(metrics);
+        FormulaEvents.StructureConversion event = new FormulaEvents.StructureConversion();
+        event.begin();
+        String outcome = FormulaEvents.OK;
         try {
             // Use CDK's InChI generator factory to parse the InChI string
             InChIGeneratorFactory factory = InChIGeneratorFactory.getInstance();
@@ -689,10 +1096,6 @@ public class Formula {
             if (inchiToStructure.getStatus() == InchiStatus.ERROR) {
                 throw new IncorrectFormula("Error: Could not parse InChI string.");
             }
-            else if (inchiToStructure.getStatus() != InchiStatus.WARNING) {
-                // TODO LOG SOMEHOW TO SEE WHAT HAPPENS. STILL TO THINK ABOUT IT
-                System.out.println("Warning generating the InChI");
-            }
 
             // Get the molecule from the InChI string
             IAtomContainer molecule = inchiToStructure.getAtomContainer();
@@ -705,20 +1108,38 @@ public class Formula {
             //int totalCharge = molecule.getCharge();
 
             // Use your existing formulaFromStringHill to construct the ceu.biolab.Formula object
-            return formulaFromStringHill(formulaStr, null, null);
+            return HillFormulaParser.parse(formulaStr, null, null);
         } catch (IncorrectAdduct e) {
+            outcome = FormulaEvents.outcome(e);
             throw new RuntimeException(e);
         } catch (CDKException e) {
+            outcome = FormulaEvents.outcome(e);
             throw new RuntimeException(e);
+        } catch (IncorrectFormula | NotFoundElement | RuntimeException e) {
+            outcome = FormulaEvents.outcome(e);
+            throw e;
+        } finally {
+            metrics.cdkConversion(MetricsListener.Conversion.INCHI, Metrics.elapsed(metrics, start));
+            event.finish(MetricsListener.Conversion.INCHI, inchi, outcome);
         }
     }
 
     /**
      * Get the map of chemical elements and their counts in the formula.
-     * @return A map containing chemical elements as keys and their respective counts as values
+     * @return A read-only map containing chemical elements as keys and their respective counts as values, iterated in the order of Element.ElementType
      */
     public Map<Element.ElementType, Integer> getElements() {
-        return elements;
+        return new ElementCountMap(elementOrdinals, elementCounts);
+    }
+
+    /**
+     * Get the number of appearances of an element in the formula
+     * @param ordinal The ordinal of the ElementType
+     * @return The number of appearances, 0 if the formula does not contain the element
+     */
+    int getCount(int ordinal) {
+        int index = ElementCountMap.indexOf(elementOrdinals, ordinal);
+        return index < 0 ? 0 : elementCounts[index];
     }
 
     /**
@@ -750,7 +1171,12 @@ public class Formula {
      * @return The monoisotopic mass
      */
     public double getMonoisotopicMass() {
-        return monoisotopicMass;
+        double mass = this.monoisotopicMass;
+        if (mass == 0.0) {
+            mass = calculateMonoisotopicMass();
+            this.monoisotopicMass = mass;
+        }
+        return mass;
     }
 
     /**
@@ -758,7 +1184,12 @@ public class Formula {
      * @return The monoisotopic mass taking into account the adduct
      */
     public double getMonoisotopicMassWithAdduct() {
-        return monoisotopicMassWithAdduct;
+        double mass = this.monoisotopicMassWithAdduct;
+        if (mass == 0.0) {
+            mass = calculateMonoisotopicMassWithAdduct();
+            this.monoisotopicMassWithAdduct = mass;
+        }
+        return mass;
     }
 
     /**
@@ -766,6 +1197,6 @@ public class Formula {
      * @return A copy of the additional metadata info
      */
     public Map<String, Object> getMetadata() {
-        return new HashMap<>(metadata);
+        return metadata == null ? new HashMap<>() : new HashMap<>(metadata);
     }
 }
@@ -0,0 +1,200 @@
+package ceu.biolab;
+
+import java.util.Arrays;
+
+/**
+ * Mutable accumulator of element appearances and charge to chain additions, subtractions and multiplications of
+ * formulas without creating an intermediate Formula for each operation. The appearances are kept in an array indexed
+ * by the ordinal of the ElementType and may be negative while accumulating; the immutable Formula is only created by
+ * build().
+ * A builder is not thread safe. It can be reused by the same thread calling reset().
+ *
+ * @author Alberto Gil-de-la-Fuente
+ * @since 1.0.2
+ */
+public final class FormulaBuilder {
+    private final int[] counts = new int[Element.ElementType.values().length]; //Appearances indexed by ordinal
+    private int minOrdinal = Integer.MAX_VALUE; //Range of ordinals that may have appearances
+    private int maxOrdinal = -1;
+    private int charge; //Net charge, negative for negative charges
+
+    /**
+     * Constructor for an empty ceu.biolab.FormulaBuilder
+     */
+    public FormulaBuilder() {
+    }
+
+    /**
+     * Adds appearances of an element
+     * @param elementType The element
+     * @param appearances Number of appearances to add, negative to subtract them
+     * @return This builder
+     */
+    public FormulaBuilder add(Element.ElementType elementType, int appearances) {
+        int ordinal = elementType.ordinal();
+        counts[ordinal] += appearances;
+        touch(ordinal, ordinal);
+        return this;
+    }
+
+    /**
+     * Adds the elements and the charge of a formula
+     * @param formula The formula to add, its adduct is ignored
+     * @return This builder
+     */
+    public FormulaBuilder add(Formula formula) {
+        return add(formula, 1);
+    }
+
+    /**
+     * Adds the elements and the charge of a formula multiplied by a number
+     * @param formula The formula to add, its adduct is ignored
+     * @param times Number of times to add the formula, negative to subtract it
+     * @return This builder
+     */
+    public FormulaBuilder add(Formula formula, int times) {
+        byte[] ordinals = formula.getElementOrdinals();
+        int[] formulaCounts = formula.getElementCounts();
+        for (int i = 0; i < ordinals.length; i++) {
+            counts[ordinals[i] & 0xFF] += formulaCounts[i] * times;
+        }
+        if (ordinals.length > 0) {
+            touch(ordinals[0] & 0xFF, ordinals[ordinals.length - 1] & 0xFF);
+        }
+        int formulaCharge = formula.getChargeType() == ChargeType.NEGATIVE ? -formula.getCharge() : formula.getCharge();
+        charge += formulaCharge * times;
+        return this;
+    }
+
+    /**
+     * Subtracts the elements and the charge of a formula
+     * @param formula The formula to subtract, its adduct is ignored
+     * @return This builder
+     */
+    public FormulaBuilder subtract(Formula formula) {
+        return add(formula, -1);
+    }
+
+    /**
+     * Multiplies the appearances of all the elements and the charge by a number
+     * @param factor Number to multiply by
+     * @return This builder
+     */
+    public FormulaBuilder multiply(int factor) {
+        for (int ordinal = minOrdinal; ordinal <= maxOrdinal; ordinal++) {
+            counts[ordinal] *= factor;
+        }
+        charge *= factor;
+        return this;
+    }
+
+    /**
+     * Sets the net charge
+     * @param charge The charge, negative for negative charges
+     * @return This builder
+     */
+    public FormulaBuilder setCharge(int charge) {
+        this.charge = charge;
+        return this;
+    }
+
+    /**
+     * Get the appearances accumulated of an element
+     * @param elementType The element
+     * @return The number of appearances, negative if more appearances were subtracted than added
+     */
+    public int getCount(Element.ElementType elementType) {
+        return counts[elementType.ordinal()];
+    }
+
+    /**
+     * Get the net charge
+     * @return The charge, negative for negative charges
+     */
+    public int getCharge() {
+        return charge;
+    }
+
+    /**
+     * Removes all the elements and the charge to reuse the builder
+     * @return This builder
+     */
+    public FormulaBuilder reset() {
+        if (maxOrdinal >= 0) {
+            Arrays.fill(counts, minOrdinal, maxOrdinal + 1, 0);
+        }
+        minOrdinal = Integer.MAX_VALUE;
+        maxOrdinal = -1;
+        charge = 0;
+        return this;
+    }
+
+    /**
+     * Creates a formula without adduct with the elements and the charge accumulated. The elements with 0 appearances
+     * are not included.
+     * @return The formula
+     * @throws IncorrectFormula If an element has a negative number of appearances
+     */
+    public Formula build() throws IncorrectFormula {
+        return Formula.fromCounts(counts, charge);
+    }
+
+    /**
+     * Creates a formula with an adduct with the elements and the charge accumulated. The elements with 0 appearances
+     * are not included.
+     * @param adduct A string representing an adduct in the form '[M+C2H2O-H]-', '[M-3H2O+2H]2+' or '[5M+Ca]2+'
+     * @return The formula
+     * @throws IncorrectFormula If an element has a negative number of appearances or the adduct cannot be applied
+     * @throws NotFoundElement If an element of the adduct is not found in the periodic table
+     * @throws IncorrectAdduct If the adduct provided is invalid
+     */
+    public Formula build(String adduct) throws IncorrectFormula, IncorrectAdduct, NotFoundElement {
+        return Formula.fromCounts(counts, charge, adduct);
+    }
+
+    /**
+     * Creates a neutral formula without adduct with the elements whose appearances have a sign
+     * @param positive True for the elements with positive appearances, false for the elements with negative
+     *                 appearances, whose counts are negated
+     * @return The neutral formula
+     */
+    Formula buildNeutral(boolean positive) {
+        int size = 0;
+        for (int ordinal = minOrdinal; ordinal <= maxOrdinal; ordinal++) {
+            if (positive ? counts[ordinal] > 0 : counts[ordinal] < 0) {
+                size++;
+            }
+        }
+        byte[] ordinals = new byte[size];
+        int[] appearances = new int[size];
+        size = 0;
+        for (int ordinal = minOrdinal; ordinal <= maxOrdinal; ordinal++) {
+            if (positive ? counts[ordinal] > 0 : counts[ordinal] < 0) {
+                ordinals[size] = (byte) ordinal;
+                appearances[size++] = Math.abs(counts[ordinal]);
+            }
+        }
+        return Formula.neutralFromCounts(ordinals, appearances);
+    }
+
+    /**
+     * Appends the elements with positive appearances in the order of Element.ElementType, with the number of
+     * appearances when it is greater than 1 (e.g. 'H3O')
+     * @param formulaString The string to append to
+     */
+    void appendElements(StringBuilder formulaString) {
+        for (int ordinal = minOrdinal; ordinal <= maxOrdinal; ordinal++) {
+            if (counts[ordinal] > 0) {
+                formulaString.append(Element.elementType(ordinal).name());
+                if (counts[ordinal] > 1) {
+                    formulaString.append(counts[ordinal]);
+                }
+            }
+        }
+    }
+
+    private void touch(int fromOrdinal, int toOrdinal) {
+        minOrdinal = Math.min(minOrdinal, fromOrdinal);
+        maxOrdinal = Math.max(maxOrdinal, toOrdinal);
+    }
+}
@@ -0,0 +1,167 @@
+package ceu.biolab;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Java Flight Recorder events of the library. Every event is created, begun and ended around the operation and only
+ * its finish method fills the fields and commits it when the recording enables the event and the duration exceeds
+ * its threshold. Without a recording the JIT compiler removes the events, so they cost nothing when disabled.
+ * The sample configuration formulavalidation.jfc enables them:
+ * <pre>
+ * java -XX:StartFlightRecording:settings=default,settings=formulavalidation.jfc,filename=run.jfr ...
+ * </pre>
+ *
+ * @author Alberto Gil-de-la-Fuente
+ * @since 1.0.2
+ */
+final class FormulaEvents {
+    private static final String CATEGORY = "FormulaValidation";
+    /**
+     * Outcome of the operations that succeed
+     */
+    static final String OK = "OK";
+
+    private FormulaEvents() {
+    }
+
+    /**
+     * Outcome of an operation that failed
+     * @param e The exception thrown
+     * @return The simple name of the exception
+     */
+    static String outcome(Throwable e) {
+        return e.getClass().getSimpleName();
+    }
+
+    @Name("ceu.biolab.FormulaParse")
+    @Label("Formula Parse")
+    @Description("Parse of a formula by a public entry point")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static final class Parse extends Event {
+        @Label("Entry Point")
+        String entryPoint;
+
+        @Label("Input Length")
+        int inputLength;
+
+        @Label("Outcome")
+        @Description("OK, the simple name of the exception or the ParseResult.ErrorCode")
+        String outcome;
+
+        void finish(MetricsListener.EntryPoint entryPoint, String input, String outcome) {
+            end();
+            if (shouldCommit()) {
+                this.entryPoint = entryPoint.name();
+                this.inputLength = input == null ? 0 : input.length();
+                this.outcome = outcome;
+                commit();
+            }
+        }
+    }
+
+    @Name("ceu.biolab.AdductParse")
+    @Label("Adduct Parse")
+    @Description("Construction of an adduct that is not in the cache of Adduct.of")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static final class AdductParse extends Event {
+        @Label("Adduct")
+        String adduct;
+
+        @Label("Outcome")
+        String outcome;
+
+        void finish(String adduct, String outcome) {
+            end();
+            if (shouldCommit()) {
+                this.adduct = adduct;
+                this.outcome = outcome;
+                commit();
+            }
+        }
+    }
+
+    @Name("ceu.biolab.ChemCalcCall")
+    @Label("ChemCalc Call")
+    @Description("Request to the ChemCalc service to resolve a formula that the local parsers cannot read")
+    @Category(CATEGORY)
+    static final class ChemCalcCall extends Event {
+        @Label("Formula")
+        String formula;
+
+        @Label("Status Code")
+        @Description("HTTP status of the response, 0 if there is no response")
+        int statusCode;
+
+        @Label("Outcome")
+        @Description("OK if ChemCalc responded, PermitTimeout if no request was free before the timeout, otherwise the simple name of the exception")
+        String outcome;
+
+        void finish(String formula, int statusCode, String outcome) {
+            end();
+            if (shouldCommit()) {
+                this.formula = formula;
+                this.statusCode = statusCode;
+                this.outcome = outcome;
+                commit();
+            }
+        }
+    }
+
+    @Name("ceu.biolab.StructureConversion")
+    @Label("Structure Conversion")
+    @Description("Conversion of a SMILES or InChI structure with CDK")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static final class StructureConversion extends Event {
+        @Label("Conversion")
+        String conversion;
+
+        @Label("Input Length")
+        int inputLength;
+
+        @Label("Outcome")
+        String outcome;
+
+        void finish(MetricsListener.Conversion conversion, String input, String outcome) {
+            end();
+            if (shouldCommit()) {
+                this.conversion = conversion.name();
+                this.inputLength = input == null ? 0 : input.length();
+                this.outcome = outcome;
+                commit();
+            }
+        }
+    }
+
+    @Name("ceu.biolab.BatchOperation")
+    @Label("Batch Operation")
+    @Description("Operation over a collection of formulas, masses, structures or rows")
+    @Category(CATEGORY)
+    static final class BatchOperation extends Event {
+        @Label("Operation")
+        String operation;
+
+        @Label("Inputs")
+        long inputs;
+
+        @Label("Results")
+        long results;
+
+        void finish(String operation, long inputs, long results) {
+            end();
+            if (shouldCommit()) {
+                this.operation = operation;
+                this.inputs = inputs;
+                this.results = results;
+                commit();
+            }
+        }
+    }
+}
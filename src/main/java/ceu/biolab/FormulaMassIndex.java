@@ -0,0 +1,306 @@
+package ceu.biolab;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Immutable index of formulas sorted by monoisotopic mass (or monoisotopic mass with adduct) to find the candidates
+ * for an experimental mass with a binary search instead of checking every formula. The masses are kept in a primitive
+ * array next to the formulas, so a query only touches the formulas that are returned.
+ * The tolerance in ppm is relative to the mass of each formula, as in Formula.checkMonoisotopicMass.
+ *
+ * @author Alberto Gil-de-la-Fuente
+ * @since 1.0.2
+ */
+public class FormulaMassIndex {
+    // Relative margin added to the bounds of the binary search, the exact tolerance is checked for every candidate
+    private static final double BOUND_MARGIN = 1e-12;
+
+    /**
+     * A formula that explains an observed peak with an adduct
+     */
+    public static class Annotation {
+        private final int peak;
+        private final String adduct;
+        private final Formula formula;
+        private final double ppm;
+
+        Annotation(int peak, String adduct, Formula formula, double ppm) {
+            this.peak = peak;
+            this.adduct = adduct;
+            this.formula = formula;
+            this.ppm = ppm;
+        }
+
+        /**
+         * Get the peak annotated
+         * @return The position of the m/z of the peak in the array passed to annotate
+         */
+        public int getPeak() {
+            return peak;
+        }
+
+        /**
+         * Get the adduct that explains the peak
+         * @return The adduct in the form of the AdductCatalog
+         */
+        public String getAdduct() {
+            return adduct;
+        }
+
+        /**
+         * Get the neutral formula that explains the peak with the adduct
+         * @return The formula
+         */
+        public Formula getFormula() {
+            return formula;
+        }
+
+        /**
+         * Get the error between the m/z of the formula with the adduct and the m/z of the peak
+         * @return The error in ppm
+         */
+        public double getPpm() {
+            return ppm;
+        }
+
+        @Override
+        public String toString() {
+            return peak + " " + adduct + " " + formula.getHillString() + " " + ppm;
+        }
+    }
+
+    private final double[] masses; //Masses of the formulas in ascending order
+    private final Formula[] formulas; //Formulas in the same order as masses
+    private final boolean massWithAdduct;
+
+    /**
+     * Constructor for the ceu.biolab.FormulaMassIndex class.
+     *
+     * @param formulas The formulas to index
+     * @param massWithAdduct If true the formulas are indexed by their monoisotopic mass with adduct, otherwise by
+     *                       their monoisotopic mass
+     */
+    public FormulaMassIndex(Collection<Formula> formulas, boolean massWithAdduct) {
+        this.massWithAdduct = massWithAdduct;
+        this.formulas = formulas.toArray(new Formula[0]);
+        Arrays.parallelSort(this.formulas, Comparator.comparingDouble(this::massOf));
+        this.masses = new double[this.formulas.length];
+        for (int i = 0; i < this.formulas.length; i++) {
+            this.masses[i] = massOf(this.formulas[i]);
+        }
+    }
+
+    /**
+     * Constructor for the ceu.biolab.FormulaMassIndex class indexing the formulas by their monoisotopic mass.
+     *
+     * @param formulas The formulas to index
+     */
+    public FormulaMassIndex(Collection<Formula> formulas) {
+        this(formulas, false);
+    }
+
+    private double massOf(Formula formula) {
+        return massWithAdduct ? formula.getMonoisotopicMassWithAdduct() : formula.getMonoisotopicMass();
+    }
+
+    /**
+     * Get the formulas whose mass is within a tolerance of an experimental mass
+     * @param mass The experimental mass
+     * @param massToleranceInPpm The mass tolerance in parts per million (ppm), relative to the mass of each formula
+     * @return The formulas within the tolerance in ascending order of mass
+     */
+    public List<Formula> findWithinPpm(double mass, double massToleranceInPpm) {
+        int[] range = rangeWithinPpm(mass, massToleranceInPpm);
+        List<Formula> found = new ArrayList<>(range[1] - range[0]);
+        for (int i = range[0]; i < range[1]; i++) {
+            if (isWithinPpm(this.masses[i], mass, massToleranceInPpm)) {
+                found.add(this.formulas[i]);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Get the positions of the index whose mass may be within a tolerance of an experimental mass. The bounds have a
+     * tiny margin, so the positions at the ends of the range must still be checked with the exact tolerance.
+     * @param mass The experimental mass
+     * @param massToleranceInPpm The mass tolerance in parts per million (ppm), relative to the mass of each formula
+     * @return Array with the first position (inclusive) and the last position (exclusive)
+     */
+    int[] rangeWithinPpm(double mass, double massToleranceInPpm) {
+        double ppm = massToleranceInPpm / 1_000_000.0;
+        // |m - mass| <= m * ppm  <=>  mass / (1 + ppm) <= m <= mass / (1 - ppm)
+        double lowerMass = mass / (1 + ppm) * (1 - BOUND_MARGIN);
+        double upperMass = ppm < 1 ? mass / (1 - ppm) * (1 + BOUND_MARGIN) : Double.POSITIVE_INFINITY;
+        return new int[]{lowerBound(lowerMass), upperBound(upperMass)};
+    }
+
+    /**
+     * Get the k formulas closest to an experimental mass in ppm, calculated with Formula.absoluteToPpm using the mass of
+     * each formula as reference.
+     * @param mass The experimental mass
+     * @param k Maximum number of formulas to return
+     * @return The closest formulas, from the closest to the furthest
+     */
+    public List<Formula> findNearest(double mass, int k) {
+        List<Formula> nearest = new ArrayList<>(Math.min(k, this.formulas.length));
+        int right = lowerBound(mass);
+        int left = right - 1;
+        // The ppm grows while moving away from the mass in both directions, so merging both sides gives the top k
+        while (nearest.size() < k && (left >= 0 || right < this.masses.length)) {
+            boolean takeLeft;
+            if (left < 0) {
+                takeLeft = false;
+            } else if (right >= this.masses.length) {
+                takeLeft = true;
+            } else {
+                takeLeft = Formula.absoluteToPpm(this.masses[left], mass) <= Formula.absoluteToPpm(this.masses[right], mass);
+            }
+            nearest.add(takeLeft ? this.formulas[left--] : this.formulas[right++]);
+        }
+        return nearest;
+    }
+
+    /**
+     * Get the formulas that explain each observed m/z with any adduct of a catalog. For every adduct the m/z of the
+     * peaks are converted into the neutral masses that the formulas should have, and the peaks sorted by m/z and the
+     * formulas sorted by mass are joined in a single pass, as both are in ascending order.
+     * The index must contain neutral formulas indexed by their monoisotopic mass, their adducts are ignored.
+     * @param mzs The m/z of the observed peaks
+     * @param catalog The adducts to consider
+     * @param massToleranceInPpm The mass tolerance in parts per million (ppm), relative to the m/z of each formula
+     *                           with the adduct
+     * @return The annotations sorted by peak, then by the order of the adducts in the catalog and then by mass
+     * @throws IllegalStateException if the formulas are indexed by their monoisotopic mass with adduct
+     */
+    public List<Annotation> annotate(double[] mzs, AdductCatalog catalog, double massToleranceInPpm) {
+        if (massWithAdduct) {
+            throw new IllegalStateException("The annotation needs an index by monoisotopic mass");
+        }
+        FormulaEvents.BatchOperation event = new FormulaEvents.BatchOperation();
+        event.begin();
+        Integer[] peaks = new Integer[mzs.length];
+        for (int i = 0; i < peaks.length; i++) {
+            peaks[i] = i;
+        }
+        Arrays.sort(peaks, Comparator.comparingDouble((Integer peak) -> mzs[peak]));
+
+        List<List<Annotation>> annotationsByPeak = new ArrayList<>(Collections.nCopies(mzs.length, null));
+        double ppm = massToleranceInPpm / 1_000_000.0;
+        int total = 0;
+        for (int adductPosition = 0; adductPosition < catalog.size(); adductPosition++) {
+            Adduct adduct = catalog.getAdduct(adductPosition);
+            String adductStr = catalog.getAdductString(adductPosition);
+            int start = 0;
+            for (int peak : peaks) {
+                double mz = mzs[peak];
+                // |t - mz| <= t * ppm  <=>  mz / (1 + ppm) <= t <= mz / (1 - ppm), and the neutral mass grows with t
+                double lowerMass = adduct.getNeutralMonoisotopicMass(mz / (1 + ppm));
+                lowerMass -= Math.abs(lowerMass) * BOUND_MARGIN;
+                double upperMass = ppm < 1 ? adduct.getNeutralMonoisotopicMass(mz / (1 - ppm)) : Double.POSITIVE_INFINITY;
+                upperMass += Math.abs(upperMass) * BOUND_MARGIN;
+                while (start < this.masses.length && this.masses[start] < lowerMass) {
+                    start++;
+                }
+                for (int i = start; i < this.masses.length && this.masses[i] <= upperMass; i++) {
+                    double formulaMz = catalog.getMz(this.formulas[i], adductPosition);
+                    if (!Double.isNaN(formulaMz) && isWithinPpm(formulaMz, mz, massToleranceInPpm)) {
+                        List<Annotation> annotations = annotationsByPeak.get(peak);
+                        if (annotations == null) {
+                            annotations = new ArrayList<>();
+                            annotationsByPeak.set(peak, annotations);
+                        }
+                        annotations.add(new Annotation(peak, adductStr, this.formulas[i], Formula.absoluteToPpm(formulaMz, mz)));
+                        total++;
+                    }
+                }
+            }
+        }
+
+        List<Annotation> annotations = new ArrayList<>(total);
+        for (List<Annotation> peakAnnotations : annotationsByPeak) {
+            if (peakAnnotations != null) {
+                annotations.addAll(peakAnnotations);
+            }
+        }
+        event.finish("FormulaMassIndex.annotate", mzs.length, total);
+        return annotations;
+    }
+
+    /**
+     * @return The first position whose mass is greater than or equal to the mass, or size() if there is none
+     */
+    int lowerBound(double mass) {
+        int low = 0;
+        int high = this.masses.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (this.masses[mid] < mass) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return The first position whose mass is greater than the mass, or size() if there is none
+     */
+    int upperBound(double mass) {
+        int low = 0;
+        int high = this.masses.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (this.masses[mid] <= mass) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    static boolean isWithinPpm(double formulaMass, double mass, double massToleranceInPpm) {
+        return Math.abs(formulaMass - mass) <= Formula.ppmToAbsolute(formulaMass, massToleranceInPpm);
+    }
+
+    /**
+     * Get the number of formulas in the index
+     * @return The number of formulas
+     */
+    public int size() {
+        return this.formulas.length;
+    }
+
+    /**
+     * Get the formula at a position of the index
+     * @param position The position, formulas are sorted by ascending mass
+     * @return The formula
+     */
+    public Formula getFormula(int position) {
+        return this.formulas[position];
+    }
+
+    /**
+     * Get the mass of the formula at a position of the index
+     * @param position The position, formulas are sorted by ascending mass
+     * @return The mass used to index the formula
+     */
+    public double getMass(int position) {
+        return this.masses[position];
+    }
+
+    /**
+     * Check if the formulas are indexed by their monoisotopic mass with adduct
+     * @return True if the index uses the monoisotopic mass with adduct, false if it uses the monoisotopic mass
+     */
+    public boolean isMassWithAdduct() {
+        return massWithAdduct;
+    }
+}
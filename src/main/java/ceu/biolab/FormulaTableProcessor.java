@@ -0,0 +1,326 @@
+package ceu.biolab;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Processes tab separated tables of formulas, adducts and experimental masses and writes, for every row, the
+ * monoisotopic mass, the m/z with the adduct, the error in ppm against the experimental mass, whether it is within the
+ * mass tolerance, the FormulaType and the error if the row is not valid.
+ * The rows are read in chunks that go through a reader, N workers and a writer connected by bounded queues. The
+ * number of chunks in process is limited, so the memory does not depend on the size of the table, and the writer
+ * reorders the chunks to keep the order of the input.
+ * <pre>
+ * java -cp ... ceu.biolab.FormulaTableProcessor [-i input.tsv] [-o output.tsv] [-t threads] [-p ppm]
+ * </pre>
+ * The class path must contain the jar of the library and its dependencies (CDK, Jackson...), e.g. the one printed by
+ * mvn dependency:build-classpath.
+ * The input columns are formula (Hill notation), adduct (optional, e.g. '[M+H]+') and experimental mass (optional). A
+ * first row starting with 'formula' is considered a header.
+ *
+ * @author Alberto Gil-de-la-Fuente
+ * @since 1.0.2
+ */
+public class FormulaTableProcessor {
+    /**
+     * Columns of the output table
+     */
+    public static final String[] OUTPUT_COLUMNS = {"formula", "adduct", "experimental_mass", "monoisotopic_mass",
+            "mz_with_adduct", "ppm_error", "within_tolerance", "formula_type", "error"};
+    private static final int CHUNK_SIZE = 1024; //Rows processed together by a worker
+    private static final int CHUNKS_PER_WORKER = 4; //Chunks in process for each worker
+    private static final int DEFAULT_PPM = 50;
+
+    private final int workers;
+    private final double massToleranceInPpm;
+
+    /**
+     * Constructor for the ceu.biolab.FormulaTableProcessor class
+     *
+     * @param workers Number of threads parsing the formulas and calculating the masses
+     * @param massToleranceInPpm The mass tolerance in parts per million (ppm) to check the experimental masses
+     * @throws IllegalArgumentException if the number of workers or the tolerance are not positive
+     */
+    public FormulaTableProcessor(int workers, double massToleranceInPpm) {
+        if (workers <= 0) {
+            throw new IllegalArgumentException("Wrong number of workers: " + workers);
+        }
+        if (!(massToleranceInPpm > 0)) {
+            throw new IllegalArgumentException("Wrong mass tolerance in ppm: " + massToleranceInPpm);
+        }
+        this.workers = workers;
+        this.massToleranceInPpm = massToleranceInPpm;
+    }
+
+    /**
+     * Rows of the input and, once processed, their output
+     */
+    private static final class Chunk {
+        private static final Chunk END = new Chunk(-1, null);
+
+        private final long sequence;
+        private final String[] lines;
+        private String output;
+
+        private Chunk(long sequence, String[] lines) {
+            this.sequence = sequence;
+            this.lines = lines;
+        }
+    }
+
+    /**
+     * Process a table. The reader and the writer are not closed.
+     * @param in The input table
+     * @param out The output table, with a header row
+     * @return The number of rows processed
+     * @throws IOException If the input cannot be read or the output cannot be written
+     */
+    public long process(BufferedReader in, Writer out) throws IOException {
+        int maxChunks = workers * CHUNKS_PER_WORKER;
+        Semaphore chunksInProcess = new Semaphore(maxChunks);
+        BlockingQueue<Chunk> toProcess = new ArrayBlockingQueue<>(maxChunks);
+        BlockingQueue<Chunk> toWrite = new ArrayBlockingQueue<>(maxChunks);
+        ExecutorService executor = Executors.newFixedThreadPool(workers + 1);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        LongAdder succeeded = new LongAdder(); //Rows without error
+        Thread readerThread = Thread.currentThread();
+
+        Future<?>[] workerFutures = new Future<?>[workers];
+        for (int i = 0; i < workers; i++) {
+            workerFutures[i] = executor.submit(() -> {
+                try {
+                    for (Chunk chunk = toProcess.take(); chunk != Chunk.END; chunk = toProcess.take()) {
+                        chunk.output = processChunk(chunk.lines, succeeded);
+                        toWrite.put(chunk);
+                    }
+                } catch (InterruptedException e) {
+                    // Cancelled because another stage failed
+                } catch (RuntimeException | Error e) {
+                    abort(failure, e, executor, readerThread);
+                }
+            });
+        }
+        Future<?> writerFuture = executor.submit(() -> {
+            Map<Long, Chunk> pending = new HashMap<>(); //Reorder buffer, limited by chunksInProcess
+            long next = 0;
+            long endSequence = -1;
+            try {
+                out.write(String.join("\t", OUTPUT_COLUMNS));
+                out.write('\n');
+                while (true) {
+                    Chunk chunk = toWrite.take();
+                    if (chunk.lines == null) {
+                        endSequence = chunk.sequence;
+                    } else {
+                        pending.put(chunk.sequence, chunk);
+                    }
+                    for (chunk = pending.remove(next); chunk != null; chunk = pending.remove(next)) {
+                        out.write(chunk.output);
+                        chunksInProcess.release();
+                        next++;
+                    }
+                    if (next == endSequence) {
+                        out.flush();
+                        return;
+                    }
+                }
+            } catch (InterruptedException e) {
+                // Cancelled because another stage failed
+            } catch (IOException | RuntimeException | Error e) {
+                abort(failure, e, executor, readerThread);
+            }
+        });
+
+        FormulaEvents.BatchOperation event = new FormulaEvents.BatchOperation();
+        event.begin();
+        long rows = 0;
+        long sequence = 0;
+        try {
+            String line = in.readLine();
+            if (line != null && line.regionMatches(true, 0, "formula", 0, "formula".length())) {
+                line = in.readLine();
+            }
+            while (line != null) {
+                String[] lines = new String[CHUNK_SIZE];
+                int size = 0;
+                while (line != null && size < CHUNK_SIZE) {
+                    if (!line.isBlank()) {
+                        lines[size++] = line;
+                    }
+                    line = in.readLine();
+                }
+                if (size > 0) {
+                    chunksInProcess.acquire();
+                    toProcess.put(new Chunk(sequence++, size == CHUNK_SIZE ? lines : Arrays.copyOf(lines, size)));
+                    rows += size;
+                }
+            }
+            for (int i = 0; i < workers; i++) {
+                toProcess.put(Chunk.END);
+            }
+            for (Future<?> workerFuture : workerFutures) {
+                workerFuture.get();
+            }
+            toWrite.put(new Chunk(sequence, null));
+            writerFuture.get();
+        } catch (InterruptedException | ExecutionException e) {
+            if (failure.get() == null) {
+                Thread.currentThread().interrupt();
+                throw new IOException("The processing of the table was interrupted", e);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        Throwable cause = failure.get();
+        if (cause != null) {
+            Thread.interrupted(); // Clear the interruption sent by the failed stage
+        }
+        if (cause instanceof IOException) {
+            throw (IOException) cause;
+        } else if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        } else if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        event.finish("FormulaTableProcessor.process", rows, succeeded.sum());
+        return rows;
+    }
+
+    private static void abort(AtomicReference<Throwable> failure, Throwable cause, ExecutorService executor, Thread readerThread) {
+        if (failure.compareAndSet(null, cause)) {
+            executor.shutdownNow();
+            readerThread.interrupt();
+        }
+    }
+
+    private String processChunk(String[] lines, LongAdder succeeded) {
+        StringBuilder output = new StringBuilder(lines.length * 96);
+        int rowsWithoutError = 0;
+        for (String line : lines) {
+            if (processRow(line, output)) {
+                rowsWithoutError++;
+            }
+        }
+        succeeded.add(rowsWithoutError);
+        return output.toString();
+    }
+
+    /**
+     * Append the output row of an input row. The errors of the row are written in the error column.
+     * @return True if the row is processed without error
+     */
+    private boolean processRow(String line, StringBuilder output) {
+        String[] fields = line.split("\t", -1);
+        String formulaStr = fields[0].trim();
+        String adduct = fields.length > 1 ? fields[1].trim() : "";
+        String experimentalMassStr = fields.length > 2 ? fields[2].trim() : "";
+        output.append(formulaStr).append('\t').append(adduct).append('\t').append(experimentalMassStr).append('\t');
+        try {
+            if (fields.length > 3) {
+                throw new IllegalArgumentException("Too many columns: " + fields.length);
+            }
+            ParseResult result = Formula.tryFormulaFromStringHill(formulaStr, adduct, null);
+            if (!result.isSuccess()) {
+                // The invalid formulas are reported with the error code and its position, without exceptions
+                output.append("\t\t\t\t\t").append(result.getErrorCode());
+                if (result.getErrorPosition() >= 0) {
+                    output.append(" at ").append(result.getErrorPosition());
+                }
+                output.append('\n');
+                return false;
+            }
+            Formula formula = result.getFormula();
+            double experimentalMass = experimentalMassStr.isEmpty() ? Double.NaN : Double.parseDouble(experimentalMassStr);
+            double mz = formula.getMonoisotopicMassWithAdduct();
+            output.append(formula.getMonoisotopicMass()).append('\t').append(mz).append('\t');
+            if (Double.isNaN(experimentalMass)) {
+                output.append('\t').append('\t');
+            } else {
+                output.append(formula.ppmDifferenceWithExpMass(experimentalMass)).append('\t')
+                        .append(formula.checkMonoisotopicMassWithAdduct(experimentalMass, massToleranceInPpm)).append('\t');
+            }
+            output.append(formula.getType()).append('\t').append('\n');
+            return true;
+        } catch (RuntimeException e) {
+            // The row keeps its input columns, the computed columns are empty and the error explains why
+            output.append("\t\t\t\t\t").append(e.getClass().getSimpleName());
+            if (e.getMessage() != null) {
+                output.append(": ").append(e.getMessage().replace('\t', ' ').replace('\n', ' ').replace('\r', ' '));
+            }
+            output.append('\n');
+            return false;
+        }
+    }
+
+    /**
+     * Command line entry point
+     * @param args [-i input] [-o output] [-t threads] [-p ppm]. The standard input and output are used by default,
+     *             the threads are the available processors and the tolerance is 50 ppm.
+     */
+    public static void main(String[] args) {
+        String input = null;
+        String output = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+        double ppm = DEFAULT_PPM;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String option = args[i];
+                if (i + 1 == args.length) {
+                    throw new IllegalArgumentException("Missing value of " + option);
+                }
+                String value = args[++i];
+                switch (option) {
+                    case "-i":
+                        input = value;
+                        break;
+                    case "-o":
+                        output = value;
+                        break;
+                    case "-t":
+                        threads = Integer.parseInt(value);
+                        break;
+                    case "-p":
+                        ppm = Double.parseDouble(value);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option " + option);
+                }
+            }
+            FormulaTableProcessor processor = new FormulaTableProcessor(threads, ppm);
+            try (BufferedReader in = input == null
+                    ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))
+                    : Files.newBufferedReader(Paths.get(input), StandardCharsets.UTF_8);
+                 Writer out = output == null
+                         ? new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8))
+                         : Files.newBufferedWriter(Paths.get(output), StandardCharsets.UTF_8)) {
+                processor.process(in, out);
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println("Usage: java -cp ... ceu.biolab.FormulaTableProcessor [-i input.tsv] [-o output.tsv] [-t threads] [-p ppm]");
+            System.exit(2);
+        } catch (IOException e) {
+            System.err.println("Error processing the table: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+}
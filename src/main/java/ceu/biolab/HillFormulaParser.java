@@ -0,0 +1,218 @@
+package ceu.biolab;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Single pass parser of formulas in Hill notation (e.g. 'C4H5N6Na', 'C4H5N6Na+', 'C6H12O6(-2)').
+ * It validates the string, counts the elements and reads the trailing charge scanning the chars only once,
+ * without regular expressions. It accepts and rejects the same strings as the previous regex based implementation:
+ * <ul>
+ *     <li>A body of letters, digits, '[', ']' and '?'. Each uppercase letter followed by lowercase letters is an
+ *     element symbol, optionally followed by its number of appearances. Isotope prefixes like '[13]' are ignored.</li>
+ *     <li>An optional charge with an optional opening parenthesis, the sign, the optional number of charges and an
+ *     optional closing parenthesis.</li>
+ * </ul>
+ *
+ * The scan reports the errors with a ParseResult.ErrorCode and a position instead of exceptions, so tryParse rejects
+ * invalid strings without creating them.
+ *
+ * @author Alberto Gil-de-la-Fuente
+ * @since 1.0.2
+ */
+final class HillFormulaParser {
+
+    private final String formulaStr;
+    private final Map<Element.ElementType, Integer> elements = new HashMap<>();
+    private int charge = 0;
+    private String chargeType = "";
+    private ParseResult.ErrorCode errorCode;
+    private int errorStart = -1;
+    private int errorEnd = -1;
+    private int zeroStart = -1; //First element with 0 appearances
+
+    private HillFormulaParser(String formulaStr) {
+        this.formulaStr = formulaStr;
+    }
+
+    /**
+     * Parses a formula in Hill notation.
+     * @param formulaStr A string representing a molecular formula in Hill notation
+     * @param adduct A string representing an adduct in the form '[M+C2H2O-H]-', '[M-3H2O+2H]2+' or '[5M+Ca]2+'
+     * @param metadata Optional argument to include a dict of metadata
+     * @return A new instance of the ceu.biolab.Formula class with the elements specified in the string
+     * @throws IncorrectFormula If the string is not a formula in Hill notation or the number of appearances is &lt;=0
+     * @throws NotFoundElement If the element is not found in the periodic table
+     * @throws IncorrectAdduct If the adduct provided is invalid
+     */
+    static Formula parse(String formulaStr, String adduct, Map<String, Object> metadata) throws IncorrectFormula, NotFoundElement, IncorrectAdduct {
+        HillFormulaParser parser = new HillFormulaParser(formulaStr);
+        if (!parser.scan()) {
+            switch (parser.errorCode) {
+                case UNKNOWN_ELEMENT:
+                    throw new NotFoundElement("ceu.biolab.Element " + formulaStr.substring(parser.errorStart, parser.errorEnd) + " not found");
+                case NUMBER_OVERFLOW:
+                    throw new NumberFormatException("For input string: \"" + formulaStr.substring(parser.errorStart, parser.errorEnd) + "\"");
+                default:
+                    throw new IncorrectFormula(formulaStr);
+            }
+        }
+        return new Formula(parser.elements, adduct, parser.charge, parser.chargeType, metadata);
+    }
+
+    /**
+     * Parses a formula in Hill notation without throwing exceptions. The adduct is resolved with Adduct.tryOf and
+     * checked against the elements before it is set, so rejecting it does not create exceptions either.
+     * @param formulaStr A string representing a molecular formula in Hill notation
+     * @param adduct A string representing an adduct in the form '[M+C2H2O-H]-', '[M-3H2O+2H]2+' or '[5M+Ca]2+'
+     * @param metadata Optional argument to include a dict of metadata
+     * @return The formula, or the error code and the position where the string is not valid
+     */
+    static ParseResult tryParse(String formulaStr, String adduct, Map<String, Object> metadata) {
+        HillFormulaParser parser = new HillFormulaParser(formulaStr);
+        if (!parser.scan()) {
+            return ParseResult.failure(formulaStr, parser.errorCode, parser.errorStart);
+        }
+        if (parser.zeroStart >= 0 && parser.elements.containsValue(0)) {
+            return ParseResult.failure(formulaStr, ParseResult.ErrorCode.ZERO_APPEARANCES, parser.zeroStart);
+        }
+        Adduct parsedAdduct = null;
+        if (adduct != null && !adduct.equals("None") && !adduct.isEmpty()) {
+            parsedAdduct = Adduct.tryOf(adduct);
+            if (parsedAdduct == null) {
+                return ParseResult.failure(formulaStr, ParseResult.ErrorCode.INVALID_ADDUCT, -1);
+            }
+        }
+        Formula formula;
+        try {
+            formula = new Formula(parser.elements, null, parser.charge, parser.chargeType, metadata);
+        } catch (IncorrectFormula | NotFoundElement | IncorrectAdduct e) {
+            // The scan only accepts positive appearances and a valid charge type, and there is no adduct to resolve
+            throw new IllegalStateException(e);
+        }
+        if (parsedAdduct != null && !formula.setAdductIfApplicable(adduct, parsedAdduct)) {
+            return ParseResult.failure(formulaStr, ParseResult.ErrorCode.ADDUCT_NOT_APPLICABLE, -1);
+        }
+        return ParseResult.success(formulaStr, formula);
+    }
+
+    /**
+     * Scans the string counting the elements and reading the charge
+     * @return True if the string is valid, false if it is not and errorCode and errorStart are set
+     */
+    private boolean scan() {
+        final int length = formulaStr.length();
+
+        // Errors found in the elements are only reported once the whole string is known to be valid
+        int i = 0;
+        while (i < length) {
+            char c = formulaStr.charAt(i);
+            if (isUppercase(c)) {
+                int symbolEnd = i + 1;
+                while (symbolEnd < length && isLowercase(formulaStr.charAt(symbolEnd))) {
+                    symbolEnd++;
+                }
+                int countEnd = symbolEnd;
+                while (countEnd < length && isDigit(formulaStr.charAt(countEnd))) {
+                    countEnd++;
+                }
+                if (errorCode == null) {
+                    int appearances = countEnd == symbolEnd ? 1 : parseDigits(formulaStr, symbolEnd, countEnd);
+                    Element.ElementType elementType = Element.fromSymbol(formulaStr, i, symbolEnd);
+                    if (appearances < 0) {
+                        setError(ParseResult.ErrorCode.NUMBER_OVERFLOW, symbolEnd, countEnd);
+                    } else if (elementType == null) {
+                        setError(ParseResult.ErrorCode.UNKNOWN_ELEMENT, i, symbolEnd);
+                    } else {
+                        if (appearances == 0 && zeroStart < 0) {
+                            zeroStart = i;
+                        }
+                        elements.put(elementType, elements.getOrDefault(elementType, 0) + appearances);
+                    }
+                }
+                i = countEnd;
+            } else if (isLowercase(c) || isDigit(c) || c == '[' || c == ']' || c == '?') {
+                i++;
+            } else {
+                break;
+            }
+        }
+        if (i == 0) {
+            return setError(ParseResult.ErrorCode.INVALID_SYNTAX, 0, 0);
+        }
+
+        // Optional charge: (?[+-]?\d*)?
+        if (i < length && formulaStr.charAt(i) == '(') {
+            i++;
+        }
+        char sign = 0;
+        if (i < length && (formulaStr.charAt(i) == '+' || formulaStr.charAt(i) == '-')) {
+            sign = formulaStr.charAt(i);
+            i++;
+        }
+        int chargeStart = i;
+        while (i < length && isDigit(formulaStr.charAt(i))) {
+            i++;
+        }
+        int chargeEnd = i;
+        if (i < length && formulaStr.charAt(i) == ')') {
+            i++;
+        }
+        if (i != length) {
+            return setError(ParseResult.ErrorCode.INVALID_SYNTAX, i, i);
+        }
+
+        if (errorCode != null) {
+            return false;
+        }
+
+        if (sign != 0) {
+            chargeType = sign == '+' ? "+" : "-";
+            charge = chargeStart == chargeEnd ? 1 : parseDigits(formulaStr, chargeStart, chargeEnd);
+            if (charge < 0) {
+                return setError(ParseResult.ErrorCode.NUMBER_OVERFLOW, chargeStart, chargeEnd);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Sets the error of the string. A syntax error replaces the errors found in the elements, since those are only
+     * reported once the whole string is known to be valid
+     * @return false
+     */
+    private boolean setError(ParseResult.ErrorCode errorCode, int errorStart, int errorEnd) {
+        this.errorCode = errorCode;
+        this.errorStart = errorStart;
+        this.errorEnd = errorEnd;
+        return false;
+    }
+
+    /**
+     * Parses a non-empty sequence of ASCII digits.
+     * @return The value or -1 if it does not fit in an int
+     */
+    private static int parseDigits(String str, int start, int end) {
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            int digit = str.charAt(i) - '0';
+            if (value > (Integer.MAX_VALUE - digit) / 10) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    private static boolean isUppercase(char c) {
+        return c >= 'A' && c <= 'Z';
+    }
+
+    private static boolean isLowercase(char c) {
+        return c >= 'a' && c <= 'z';
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+}
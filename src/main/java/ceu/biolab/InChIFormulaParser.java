@@ -0,0 +1,187 @@
+package ceu.biolab;
+
+/**
+ * Parser of the molecular formula of an InChI without reconstructing its structure. The formula is the first layer of
+ * the InChI (e.g. 'C2H4O2' or '2C2H4O2.Ca' with several components), the charge layer /q contains the charge of
+ * each component (e.g. '/q;;+2') and the proton layer /p the protons added to or removed from the main layer
+ * (e.g. '/p-2'), which change the number of hydrogens and the charge.
+ * The isotopic layer is not applied, and the layers after a fixed-H (/f) or reconnected (/r) layer describe
+ * alternative structures, so they are not read.
+ *
+ * @author Alberto Gil-de-la-Fuente
+ * @since 1.0.2
+ */
+final class InChIFormulaParser {
+    private static final String PREFIX = "InChI=";
+
+    private final String inchi;
+    private final int[] counts = new int[Element.ElementType.values().length];
+    private int charge = 0;
+
+    private InChIFormulaParser(String inchi) {
+        this.inchi = inchi;
+    }
+
+    /**
+     * Parses the formula of an InChI
+     * @param inchi A string representing a molecular structure in InChI notation. Example: InChI=1S/C2H4O2/c1-2(3)4/h1H3,(H,3,4)/p-1
+     * @return A new instance of the ceu.biolab.Formula class with the elements of the formula layer, the charge of the
+     * charge layer and the protons of the proton layer
+     * @throws IncorrectFormula If the string is not an InChI or its formula, charge or proton layers are not valid
+     * @throws NotFoundElement If an element is not found in the periodic table
+     */
+    static Formula parse(String inchi) throws IncorrectFormula, NotFoundElement {
+        InChIFormulaParser parser = new InChIFormulaParser(inchi);
+        int versionEnd = inchi.indexOf('/');
+        if (!inchi.startsWith(PREFIX) || versionEnd <= PREFIX.length()) {
+            throw new IncorrectFormula("Invalid InChI string: " + inchi);
+        }
+        boolean empty = true;
+        int layerStart = versionEnd + 1;
+        boolean firstLayer = true;
+        while (layerStart <= inchi.length()) {
+            int layerEnd = inchi.indexOf('/', layerStart);
+            if (layerEnd < 0) {
+                layerEnd = inchi.length();
+            }
+            char prefix = layerStart < layerEnd ? inchi.charAt(layerStart) : 0;
+            if (firstLayer && (isUppercase(prefix) || (prefix >= '0' && prefix <= '9'))) {
+                parser.parseFormulaLayer(layerStart, layerEnd);
+                empty = false;
+            } else if (prefix == 'q') {
+                parser.parseChargeLayer(layerStart + 1, layerEnd);
+            } else if (prefix == 'p') {
+                int protons = parser.parseCharge(layerStart + 1, layerEnd);
+                parser.addCount(Element.ElementType.H.ordinal(), protons);
+                parser.charge = parser.addExact(parser.charge, protons);
+                empty = false;
+            } else if (prefix == 'f' || prefix == 'r') {
+                break;
+            }
+            firstLayer = false;
+            layerStart = layerEnd + 1;
+        }
+        if (empty) {
+            throw new IncorrectFormula("Invalid InChI string: " + inchi);
+        }
+        return Formula.fromCounts(parser.counts, parser.charge);
+    }
+
+    /**
+     * Components separated by dots, each of them with an optional multiplier followed by elements and their counts
+     */
+    private void parseFormulaLayer(int start, int end) throws IncorrectFormula, NotFoundElement {
+        int position = start;
+        while (position < end) {
+            int numberEnd = digitsEnd(position, end);
+            int multiplier = numberEnd > position ? parseNumber(position, numberEnd) : 1;
+            position = numberEnd;
+            if (position == end || !isUppercase(inchi.charAt(position))) {
+                throw new IncorrectFormula("Invalid InChI string: " + inchi);
+            }
+            while (position < end && isUppercase(inchi.charAt(position))) {
+                int symbolStart = position++;
+                while (position < end && isLowercase(inchi.charAt(position))) {
+                    position++;
+                }
+                Element.ElementType elementType = Element.fromSymbol(inchi, symbolStart, position);
+                if (elementType == null) {
+                    throw new NotFoundElement("ceu.biolab.Element " + inchi.substring(symbolStart, position) + " not found");
+                }
+                numberEnd = digitsEnd(position, end);
+                int appearances = numberEnd > position ? parseNumber(position, numberEnd) : 1;
+                position = numberEnd;
+                try {
+                    addCount(elementType.ordinal(), Math.multiplyExact(appearances, multiplier));
+                } catch (ArithmeticException e) {
+                    throw new IncorrectFormula("Invalid InChI string: " + inchi);
+                }
+            }
+            if (position < end) {
+                if (inchi.charAt(position) != '.') {
+                    throw new IncorrectFormula("Invalid InChI string: " + inchi);
+                }
+                position++;
+            }
+        }
+    }
+
+    /**
+     * Charges of the components separated by semicolons. A charge can be repeated for several components, e.g. '2*-1'
+     */
+    private void parseChargeLayer(int start, int end) throws IncorrectFormula {
+        int entryStart = start;
+        while (entryStart <= end) {
+            int entryEnd = inchi.indexOf(';', entryStart);
+            if (entryEnd < 0 || entryEnd > end) {
+                entryEnd = end;
+            }
+            if (entryEnd > entryStart) {
+                int repetitions = 1;
+                int asterisk = inchi.indexOf('*', entryStart);
+                if (asterisk >= 0 && asterisk < entryEnd) {
+                    repetitions = parseNumber(entryStart, asterisk);
+                    entryStart = asterisk + 1;
+                }
+                try {
+                    charge = Math.addExact(charge, Math.multiplyExact(repetitions, parseCharge(entryStart, entryEnd)));
+                } catch (ArithmeticException e) {
+                    throw new IncorrectFormula("Invalid InChI string: " + inchi);
+                }
+            }
+            entryStart = entryEnd + 1;
+        }
+    }
+
+    /**
+     * Parses a charge with its sign, e.g. '+1' or '-2'
+     */
+    private int parseCharge(int start, int end) throws IncorrectFormula {
+        if (end - start < 2 || (inchi.charAt(start) != '+' && inchi.charAt(start) != '-')) {
+            throw new IncorrectFormula("Invalid InChI string: " + inchi);
+        }
+        int value = parseNumber(start + 1, end);
+        return inchi.charAt(start) == '-' ? -value : value;
+    }
+
+    private int parseNumber(int start, int end) throws IncorrectFormula {
+        if (start == end || digitsEnd(start, end) != end) {
+            throw new IncorrectFormula("Invalid InChI string: " + inchi);
+        }
+        try {
+            return Integer.parseInt(inchi, start, end, 10);
+        } catch (NumberFormatException e) {
+            throw new IncorrectFormula("Invalid InChI string: " + inchi);
+        }
+    }
+
+    private void addCount(int ordinal, int appearances) throws IncorrectFormula {
+        counts[ordinal] = addExact(counts[ordinal], appearances);
+        if (counts[ordinal] < 0) {
+            throw new IncorrectFormula("Invalid InChI string: " + inchi);
+        }
+    }
+
+    private int addExact(int value, int toAdd) throws IncorrectFormula {
+        try {
+            return Math.addExact(value, toAdd);
+        } catch (ArithmeticException e) {
+            throw new IncorrectFormula("Invalid InChI string: " + inchi);
+        }
+    }
+
+    private int digitsEnd(int position, int end) {
+        while (position < end && inchi.charAt(position) >= '0' && inchi.charAt(position) <= '9') {
+            position++;
+        }
+        return position;
+    }
+
+    private static boolean isUppercase(char c) {
+        return c >= 'A' && c <= 'Z';
+    }
+
+    private static boolean isLowercase(char c) {
+        return c >= 'a' && c <= 'z';
+    }
+}
@@ -22,6 +22,17 @@ public class IncorrectFormula extends Exception {
         this.inputValue = inputValue;
     }
 
+    /**
+     * Constructor for IncorrectFormula that does not capture the stack trace, for the parsers that reject a string to try
+     * another notation. Creating it costs about the same as parsing a valid string.
+     * @param inputValue The value causing the exception
+     * @param writableStackTrace False to not capture the stack trace
+     */
+    IncorrectFormula(Object inputValue, boolean writableStackTrace) {
+        super("The ceu.biolab.Formula " + inputValue + " does not correspond to a correct formula", null, false, writableStackTrace);
+        this.inputValue = inputValue;
+    }
+
     /**
      * Provides a string representation of the exception
      * @return String representation of the exception
@@ -0,0 +1,135 @@
+package ceu.biolab;
+
+import java.util.Arrays;
+
+/**
+ * Theoretical isotope pattern of a formula: the masses of its isotopic peaks in ascending order and the probability
+ * of each of them. Peaks below the abundance cutoff of the generator are not included, so the abundances may add up
+ * to slightly less than 1.
+ *
+ * @author Alberto Gil-de-la-Fuente
+ * @since 1.0.2
+ */
+public class IsotopePattern {
+
+    private final double[] masses;
+    private final double[] abundances;
+    private final double monoisotopicMass; //Mass of the peak formed only by the monoisotopic isotopes
+
+    /**
+     * Constructor for the ceu.biolab.IsotopePattern class. The arrays are not copied.
+     *
+     * @param masses Masses of the peaks in ascending order
+     * @param abundances Abundances of the peaks in the same order
+     * @param monoisotopicMass Mass of the peak formed only by the monoisotopic isotopes of the elements
+     */
+    IsotopePattern(double[] masses, double[] abundances, double monoisotopicMass) {
+        this.masses = masses;
+        this.abundances = abundances;
+        this.monoisotopicMass = monoisotopicMass;
+    }
+
+    /**
+     * Get the number of peaks of the pattern
+     * @return The number of peaks
+     */
+    public int size() {
+        return masses.length;
+    }
+
+    /**
+     * Get the mass of a peak
+     * @param peak Position of the peak, peaks are sorted by ascending mass
+     * @return The mass of the peak
+     */
+    public double getMass(int peak) {
+        return masses[peak];
+    }
+
+    /**
+     * Get the abundance of a peak
+     * @param peak Position of the peak, peaks are sorted by ascending mass
+     * @return The probability of the peak
+     */
+    public double getAbundance(int peak) {
+        return abundances[peak];
+    }
+
+    /**
+     * Get the monoisotopic mass of the formula, i.e., the mass of the peak formed only by the monoisotopic isotopes of
+     * the elements. It may not be the first peak when an element has lighter isotopes than the most abundant one.
+     * @return The monoisotopic mass of the pattern
+     */
+    public double getMonoisotopicMass() {
+        return monoisotopicMass;
+    }
+
+    /**
+     * Get a copy of the masses of the peaks
+     * @return The masses in ascending order
+     */
+    public double[] getMasses() {
+        return masses.clone();
+    }
+
+    /**
+     * Get a copy of the abundances of the peaks
+     * @return The probabilities of the peaks in the order of getMasses
+     */
+    public double[] getAbundances() {
+        return abundances.clone();
+    }
+
+    /**
+     * Get the position of the most abundant peak
+     * @return The position of the most abundant peak, or -1 if the pattern is empty
+     */
+    public int getMostAbundantPeak() {
+        int mostAbundant = -1;
+        for (int i = 0; i < abundances.length; i++) {
+            if (mostAbundant < 0 || abundances[i] > abundances[mostAbundant]) {
+                mostAbundant = i;
+            }
+        }
+        return mostAbundant;
+    }
+
+    /**
+     * Get the intensities of the peaks relative to the most abundant peak
+     * @return The intensities in the order of getMasses, the most abundant peak has intensity 1
+     */
+    public double[] getRelativeIntensities() {
+        double[] intensities = new double[abundances.length];
+        int mostAbundant = getMostAbundantPeak();
+        for (int i = 0; i < abundances.length; i++) {
+            intensities[i] = abundances[i] / abundances[mostAbundant];
+        }
+        return intensities;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (other instanceof IsotopePattern) {
+            IsotopePattern otherPattern = (IsotopePattern) other;
+            return Arrays.equals(masses, otherPattern.masses) && Arrays.equals(abundances, otherPattern.abundances);
+        }
+        return false;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Arrays.hashCode(masses) + Arrays.hashCode(abundances);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder pattern = new StringBuilder("[");
+        for (int i = 0; i < masses.length; i++) {
+            if (i > 0) {
+                pattern.append(", ");
+            }
+            pattern.append(String.format("%.5f: %.5f", masses[i], abundances[i]));
+        }
+        return pattern.append("]").toString();
+    }
+}
@@ -0,0 +1,222 @@
+package ceu.biolab;
+
+/**
+ * Calculates the theoretical isotope pattern of a formula from the natural abundances of the isotopes of its elements,
+ * without calling external services.
+ * The pattern of each element is raised to its number of appearances by repeated squaring and the patterns of the
+ * elements are convolved. After every convolution the peaks below the abundance cutoff (relative to the most abundant
+ * peak) are discarded and the peaks closer than the resolution are merged into their weighted average mass, so the
+ * number of peaks stays small for large formulas.
+ * The generator is immutable and can be shared between threads.
+ *
+ * @author Alberto Gil-de-la-Fuente
+ * @since 1.0.2
+ */
+public class IsotopePatternGenerator {
+    /**
+     * Default abundance cutoff, relative to the most abundant peak
+     */
+    public static final double DEFAULT_ABUNDANCE_CUTOFF = 1e-4;
+    /**
+     * Default resolution in Da, it keeps the fine structure of the isotopes of C, H, N, O and S apart
+     */
+    public static final double DEFAULT_RESOLUTION = 1e-3;
+
+    private final double abundanceCutoff;
+    private final double resolution;
+
+    /**
+     * Constructor for the ceu.biolab.IsotopePatternGenerator class with the default abundance cutoff and resolution
+     */
+    public IsotopePatternGenerator() {
+        this(DEFAULT_ABUNDANCE_CUTOFF, DEFAULT_RESOLUTION);
+    }
+
+    /**
+     * Constructor for the ceu.biolab.IsotopePatternGenerator class
+     *
+     * @param abundanceCutoff Peaks with an abundance lower than this fraction of the most abundant peak are discarded
+     * @param resolution Peaks closer than this mass difference in Da are merged. Use 0 to keep the fine structure or
+     *                   values around 0.5 to get the nominal M+1, M+2... peaks
+     * @throws IllegalArgumentException if the cutoff is not in [0, 1) or the resolution is negative
+     */
+    public IsotopePatternGenerator(double abundanceCutoff, double resolution) {
+        if (!(abundanceCutoff >= 0) || abundanceCutoff >= 1) {
+            throw new IllegalArgumentException("Wrong abundance cutoff: " + abundanceCutoff);
+        }
+        if (!(resolution >= 0)) {
+            throw new IllegalArgumentException("Wrong resolution: " + resolution);
+        }
+        this.abundanceCutoff = abundanceCutoff;
+        this.resolution = resolution;
+    }
+
+    /**
+     * Calculate the isotope pattern of a formula. The masses are shifted and divided by the charge as in
+     * Formula.getMonoisotopicMass, so the peak of the monoisotopic composition has the monoisotopic mass.
+     * @param formula The formula
+     * @return The isotope pattern of the formula
+     */
+    public IsotopePattern generate(Formula formula) {
+        Peaks peaks = elementsPattern(formula.getElementOrdinals(), formula.getElementCounts());
+        return toPattern(peaks, formula.getElementOrdinals(), formula.getElementCounts(),
+                formula.getMonoisotopicMass(), formula.getMassDivisor());
+    }
+
+    /**
+     * Calculate the isotope pattern of a formula with its adduct. The pattern is the one of the elements of the formula
+     * multiplied by the adduct multimer plus and minus the elements of the adduct, and the masses are shifted and
+     * divided by the charge as in Formula.getMonoisotopicMassWithAdduct.
+     * @param formula The formula
+     * @return The isotope pattern of the formula with its adduct
+     */
+    public IsotopePattern generateWithAdduct(Formula formula) {
+        return withAdduct(generate(formula.getElementsWithAdduct()), formula);
+    }
+
+    /**
+     * Transform the pattern of the elements with the adduct of a formula (the pattern of getElementsWithAdduct) into
+     * the pattern of the formula with its adduct
+     * @param elementsPattern The pattern of the neutral formula formed by the elements with the adduct
+     * @param formula The formula with the adduct
+     * @return The isotope pattern of the formula with its adduct
+     */
+    static IsotopePattern withAdduct(IsotopePattern elementsPattern, Formula formula) {
+        double[] masses = new double[elementsPattern.size()];
+        double[] abundances = new double[elementsPattern.size()];
+        double monoisotopicMass = formula.getMonoisotopicMassWithAdduct();
+        double elementsMass = elementsPattern.getMonoisotopicMass();
+        int massDivisor = formula.getMassDivisorWithAdduct();
+        for (int i = 0; i < masses.length; i++) {
+            masses[i] = monoisotopicMass + (elementsPattern.getMass(i) - elementsMass) / massDivisor;
+            abundances[i] = elementsPattern.getAbundance(i);
+        }
+        return new IsotopePattern(masses, abundances, monoisotopicMass);
+    }
+
+    private Peaks elementsPattern(byte[] elementOrdinals, int[] elementCounts) {
+        Peaks pattern = Peaks.single(0.0);
+        for (int i = 0; i < elementOrdinals.length; i++) {
+            int ordinal = elementOrdinals[i] & 0xFF;
+            // The isotope arrays of Element are only read, convolve always creates new peaks
+            Peaks element = new Peaks(Element.isotopeMasses(ordinal), Element.isotopeAbundances(ordinal), Element.isotopeMasses(ordinal).length);
+            pattern = convolve(pattern, power(element, elementCounts[i]));
+        }
+        return pattern;
+    }
+
+    private IsotopePattern toPattern(Peaks peaks, byte[] elementOrdinals, int[] elementCounts, double monoisotopicMass, int massDivisor) {
+        // The peak masses are relative to the sum of the monoisotopic masses of the elements, the same transformation
+        // of the formula mass is applied to all of them
+        double elementsMass = Element.sumMonoisotopicMasses(elementOrdinals, elementCounts);
+        double[] masses = new double[peaks.size];
+        double[] abundances = new double[peaks.size];
+        for (int i = 0; i < peaks.size; i++) {
+            masses[i] = monoisotopicMass + (peaks.masses[i] - elementsMass) / massDivisor;
+            abundances[i] = peaks.abundances[i];
+        }
+        return new IsotopePattern(masses, abundances, monoisotopicMass);
+    }
+
+    /**
+     * Raises a pattern to a number of appearances by repeated squaring
+     */
+    private Peaks power(Peaks peaks, int exponent) {
+        Peaks result = Peaks.single(0.0);
+        Peaks square = peaks;
+        while (exponent > 0) {
+            if ((exponent & 1) == 1) {
+                result = convolve(result, square);
+            }
+            exponent >>>= 1;
+            if (exponent > 0) {
+                square = convolve(square, square);
+            }
+        }
+        return result;
+    }
+
+    private Peaks convolve(Peaks peaks1, Peaks peaks2) {
+        double threshold = abundanceCutoff * peaks1.maxAbundance() * peaks2.maxAbundance();
+        Peaks product = new Peaks(new double[peaks1.size * peaks2.size], new double[peaks1.size * peaks2.size], 0);
+        for (int i = 0; i < peaks1.size; i++) {
+            for (int j = 0; j < peaks2.size; j++) {
+                double abundance = peaks1.abundances[i] * peaks2.abundances[j];
+                if (abundance >= threshold) {
+                    product.masses[product.size] = peaks1.masses[i] + peaks2.masses[j];
+                    product.abundances[product.size] = abundance;
+                    product.size++;
+                }
+            }
+        }
+        product.sortByMass();
+        return product.merge(resolution);
+    }
+
+    /**
+     * Mutable list of peaks used during the calculation
+     */
+    private static final class Peaks {
+        private final double[] masses;
+        private final double[] abundances;
+        private int size;
+
+        private Peaks(double[] masses, double[] abundances, int size) {
+            this.masses = masses;
+            this.abundances = abundances;
+            this.size = size;
+        }
+
+        private static Peaks single(double mass) {
+            return new Peaks(new double[]{mass}, new double[]{1.0}, 1);
+        }
+
+        private double maxAbundance() {
+            double max = 0.0;
+            for (int i = 0; i < size; i++) {
+                max = Math.max(max, abundances[i]);
+            }
+            return max;
+        }
+
+        private void sortByMass() {
+            // Insertion sort, the pruned patterns only have a few dozens of peaks
+            for (int i = 1; i < size; i++) {
+                double mass = masses[i];
+                double abundance = abundances[i];
+                int position = i;
+                while (position > 0 && masses[position - 1] > mass) {
+                    masses[position] = masses[position - 1];
+                    abundances[position] = abundances[position - 1];
+                    position--;
+                }
+                masses[position] = mass;
+                abundances[position] = abundance;
+            }
+        }
+
+        /**
+         * Merges in place the peaks closer than the resolution to the first peak of their group
+         */
+        private Peaks merge(double resolution) {
+            int merged = 0;
+            int i = 0;
+            while (i < size) {
+                int first = i;
+                double abundance = 0.0;
+                double weightedMass = 0.0;
+                while (i < size && masses[i] - masses[first] <= resolution) {
+                    abundance += abundances[i];
+                    weightedMass += masses[i] * abundances[i];
+                    i++;
+                }
+                // A peak that is not merged keeps its exact mass
+                masses[merged] = (i - first == 1) ? masses[first] : weightedMass / abundance;
+                abundances[merged] = abundance;
+                merged++;
+            }
+            size = merged;
+            return this;
+        }
+    }
+}
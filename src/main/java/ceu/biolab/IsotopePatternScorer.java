@@ -0,0 +1,255 @@
+package ceu.biolab;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Scores candidate formulas (with their adducts) by the similarity between their theoretical isotope pattern and an
+ * observed isotope cluster of m/z and intensity peaks.
+ * Every theoretical peak contributes its share of the abundance of the pattern multiplied by a mass score (1 for an
+ * exact m/z, decreasing linearly to 0 at the mass tolerance) and an intensity score (the ratio between the smaller
+ * and the larger relative intensity). Theoretical peaks without an observed peak within the tolerance contribute 0,
+ * so the score goes from 0 to 1.
+ * The patterns only depend on the elements of the formula with the adduct, so they are calculated once for each
+ * composition and shared by the candidates with the same composition.
+ *
+ * @author Alberto Gil-de-la-Fuente
+ * @since 1.0.2
+ */
+public class IsotopePatternScorer {
+    private static final int CACHE_MAX_SIZE = 65536; //Maximum number of distinct compositions kept by the cache
+
+    /**
+     * A candidate formula and its score
+     */
+    public static class ScoredFormula {
+        private final Formula formula;
+        private final double score;
+
+        ScoredFormula(Formula formula, double score) {
+            this.formula = formula;
+            this.score = score;
+        }
+
+        /**
+         * Get the candidate formula
+         * @return The formula
+         */
+        public Formula getFormula() {
+            return formula;
+        }
+
+        /**
+         * Get the score of the formula
+         * @return The score from 0 to 1
+         */
+        public double getScore() {
+            return score;
+        }
+
+        @Override
+        public String toString() {
+            return formula + ": " + score;
+        }
+    }
+
+    /**
+     * Theoretical pattern of a composition prepared for the scoring
+     */
+    private static final class ScoringPattern {
+        private final IsotopePattern pattern;
+        private final int[] order; //Peaks from the most to the least abundant
+        private final double[] weights; //Abundances divided by the total abundance of the pattern
+        private final double[] relativeIntensities;
+
+        private ScoringPattern(IsotopePattern pattern) {
+            this.pattern = pattern;
+            this.relativeIntensities = pattern.getRelativeIntensities();
+            this.weights = pattern.getAbundances();
+            double total = 0.0;
+            for (double weight : weights) {
+                total += weight;
+            }
+            for (int i = 0; i < weights.length; i++) {
+                weights[i] /= total;
+            }
+            Integer[] peaks = new Integer[weights.length];
+            for (int i = 0; i < peaks.length; i++) {
+                peaks[i] = i;
+            }
+            Arrays.sort(peaks, Comparator.comparingDouble((Integer peak) -> weights[peak]).reversed());
+            this.order = new int[peaks.length];
+            for (int i = 0; i < peaks.length; i++) {
+                this.order[i] = peaks[i];
+            }
+        }
+    }
+
+    private final IsotopePatternGenerator generator;
+    private final double massToleranceInPpm;
+    private final Map<Formula, ScoringPattern> cache = new ConcurrentHashMap<>();
+
+    /**
+     * Constructor for the ceu.biolab.IsotopePatternScorer class
+     *
+     * @param generator The generator of the theoretical patterns. Its resolution should be similar to the resolution
+     *                  of the observed peaks
+     * @param massToleranceInPpm The mass tolerance in parts per million (ppm) to match theoretical and observed peaks
+     * @throws IllegalArgumentException if the tolerance is not positive
+     */
+    public IsotopePatternScorer(IsotopePatternGenerator generator, double massToleranceInPpm) {
+        if (!(massToleranceInPpm > 0)) {
+            throw new IllegalArgumentException("Wrong mass tolerance in ppm: " + massToleranceInPpm);
+        }
+        this.generator = generator;
+        this.massToleranceInPpm = massToleranceInPpm;
+    }
+
+    /**
+     * Score a candidate formula with its adduct against an observed isotope cluster
+     * @param formula The candidate formula
+     * @param mzs The m/z of the observed peaks
+     * @param intensities The intensities of the observed peaks in the same order
+     * @return The score from 0 to 1
+     */
+    public double score(Formula formula, double[] mzs, double[] intensities) {
+        Cluster cluster = new Cluster(mzs, intensities);
+        return score(formula, cluster, Double.NEGATIVE_INFINITY);
+    }
+
+    /**
+     * Get the candidates with the highest scores against an observed isotope cluster. A candidate stops being scored
+     * as soon as its remaining peaks cannot reach the score of the current k-th candidate.
+     * @param candidates The candidate formulas with their adducts
+     * @param mzs The m/z of the observed peaks
+     * @param intensities The intensities of the observed peaks in the same order
+     * @param k Maximum number of candidates to return
+     * @return The best candidates from the highest to the lowest score
+     */
+    public List<ScoredFormula> topK(Collection<Formula> candidates, double[] mzs, double[] intensities, int k) {
+        if (k <= 0) {
+            return new ArrayList<>();
+        }
+        FormulaEvents.BatchOperation event = new FormulaEvents.BatchOperation();
+        event.begin();
+        Cluster cluster = new Cluster(mzs, intensities);
+        PriorityQueue<ScoredFormula> best = new PriorityQueue<>(Comparator.comparingDouble(ScoredFormula::getScore));
+        for (Formula candidate : candidates) {
+            double threshold = best.size() < k ? Double.NEGATIVE_INFINITY : best.peek().getScore();
+            double score = score(candidate, cluster, threshold);
+            if (score > threshold) {
+                if (best.size() == k) {
+                    best.poll();
+                }
+                best.add(new ScoredFormula(candidate, score));
+            }
+        }
+        List<ScoredFormula> sorted = new ArrayList<>(best);
+        sorted.sort(Comparator.comparingDouble(ScoredFormula::getScore).reversed());
+        event.finish("IsotopePatternScorer.topK", candidates.size(), sorted.size());
+        return sorted;
+    }
+
+    /**
+     * Get the number of compositions whose pattern is cached
+     * @return The number of cached patterns
+     */
+    public int getCacheSize() {
+        return cache.size();
+    }
+
+    /**
+     * Score a formula against a cluster
+     * @param threshold Score to beat, the scoring stops when it cannot be reached
+     * @return The score, or NEGATIVE_INFINITY if the scoring stopped before the end
+     */
+    private double score(Formula formula, Cluster cluster, double threshold) {
+        Formula elements = formula.getElementsWithAdduct();
+        ScoringPattern scoringPattern = cache.get(elements);
+        if (scoringPattern == null) {
+            scoringPattern = new ScoringPattern(generator.generate(elements));
+            if (cache.size() < CACHE_MAX_SIZE) {
+                cache.putIfAbsent(elements, scoringPattern);
+            }
+        }
+        IsotopePattern pattern = scoringPattern.pattern;
+        // The pattern of the composition is transformed into the m/z of the formula with its adduct
+        double monoisotopicMass = formula.getMonoisotopicMassWithAdduct();
+        double elementsMass = pattern.getMonoisotopicMass();
+        int massDivisor = formula.getMassDivisorWithAdduct();
+        double score = 0.0;
+        double remaining = 1.0;
+        for (int peak : scoringPattern.order) {
+            double weight = scoringPattern.weights[peak];
+            if (score + remaining < threshold) {
+                return Double.NEGATIVE_INFINITY;
+            }
+            remaining -= weight;
+            double mz = monoisotopicMass + (pattern.getMass(peak) - elementsMass) / massDivisor;
+            int observed = cluster.closest(mz);
+            if (observed < 0) {
+                continue;
+            }
+            double ppm = Formula.absoluteToPpm(mz, cluster.mzs[observed]);
+            if (ppm > massToleranceInPpm) {
+                continue;
+            }
+            double theoreticalIntensity = scoringPattern.relativeIntensities[peak];
+            double observedIntensity = cluster.relativeIntensities[observed];
+            double intensityScore = Math.min(theoreticalIntensity, observedIntensity) / Math.max(theoreticalIntensity, observedIntensity);
+            score += weight * (1 - ppm / massToleranceInPpm) * intensityScore;
+        }
+        return score;
+    }
+
+    /**
+     * Observed peaks sorted by m/z with the intensities relative to the most intense peak
+     */
+    private static final class Cluster {
+        private final double[] mzs;
+        private final double[] relativeIntensities;
+
+        private Cluster(double[] mzs, double[] intensities) {
+            if (mzs.length != intensities.length) {
+                throw new IllegalArgumentException("The number of m/z and intensities is different");
+            }
+            Integer[] peaks = new Integer[mzs.length];
+            double maxIntensity = 0.0;
+            for (int i = 0; i < peaks.length; i++) {
+                peaks[i] = i;
+                maxIntensity = Math.max(maxIntensity, intensities[i]);
+            }
+            Arrays.sort(peaks, Comparator.comparingDouble((Integer peak) -> mzs[peak]));
+            this.mzs = new double[mzs.length];
+            this.relativeIntensities = new double[mzs.length];
+            for (int i = 0; i < peaks.length; i++) {
+                this.mzs[i] = mzs[peaks[i]];
+                this.relativeIntensities[i] = maxIntensity > 0 ? intensities[peaks[i]] / maxIntensity : 0.0;
+            }
+        }
+
+        /**
+         * @return The position of the peak closest to the m/z, or -1 if there are no peaks
+         */
+        private int closest(double mz) {
+            int position = Arrays.binarySearch(mzs, mz);
+            if (position >= 0) {
+                return position;
+            }
+            int insertion = -position - 1;
+            if (insertion == 0) {
+                return mzs.length == 0 ? -1 : 0;
+            }
+            if (insertion == mzs.length) {
+                return insertion - 1;
+            }
+            return (mz - mzs[insertion - 1] <= mzs[insertion] - mz) ? insertion - 1 : insertion;
+        }
+    }
+}
@@ -0,0 +1,308 @@
+package ceu.biolab;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Expands a formula into its stable-isotope labeled isotopologues, replacing up to a number of atoms of each element by
+ * its labeled ElementType (C by C13, H by D, N by N15, O by O18, Cl by Cl37 and Li by Li6), and enumerates their masses
+ * in ascending order without creating a Formula for each isotopologue.
+ * The isotopologues are the combinations of the number of labels of every element. They are visited with a heap
+ * starting from the lightest one, and each combination is generated only from its canonical parent (the combination
+ * with one label less in its last labeled element), so every isotopologue is visited once. Labels that make the
+ * formula lighter (Li6) are counted from the fully labeled side, so all steps of the search increase the mass.
+ * The heap and the combinations are kept in primitive arrays that are reused while enumerating.
+ *
+ * @author Alberto Gil-de-la-Fuente
+ * @since 1.0.2
+ */
+public class IsotopologueExpander {
+
+    /**
+     * Receives the isotopologues in ascending order of mass
+     */
+    @FunctionalInterface
+    public interface IsotopologueConsumer {
+        /**
+         * @param mass The mass of the isotopologue
+         * @param labels The number of labeled atoms of each element in the order of getLabeledElements(). The array is
+         *               reused for the next isotopologue, so it must be copied to keep it.
+         * @return True to continue with the next isotopologue, false to stop
+         */
+        boolean accept(double mass, int[] labels);
+    }
+
+    private static final Map<Element.ElementType, Element.ElementType> LABELS = new EnumMap<>(Element.ElementType.class);
+
+    static {
+        LABELS.put(Element.ElementType.H, Element.ElementType.D);
+        LABELS.put(Element.ElementType.Li, Element.ElementType.Li6);
+        LABELS.put(Element.ElementType.C, Element.ElementType.C13);
+        LABELS.put(Element.ElementType.N, Element.ElementType.N15);
+        LABELS.put(Element.ElementType.O, Element.ElementType.O18);
+        LABELS.put(Element.ElementType.Cl, Element.ElementType.Cl37);
+    }
+
+    private final Formula formula;
+    private final Element.ElementType[] elements; //Labeled elements in ascending order of ordinal
+    private final int[] maxLabels;
+    private final double[] massSteps; //Mass increment of each step of the search, always positive
+    private final boolean[] lighterLabels; //True if the label decreases the mass
+    private final double lightestMass;
+
+    /**
+     * Constructor for the ceu.biolab.IsotopologueExpander class
+     *
+     * @param formula The formula to label
+     * @param maxLabels Maximum number of labeled atoms of each element. It is limited to the atoms of the element in
+     *                  the formula
+     * @param withAdduct If true the masses are the masses with the adduct of the formula (m/z), otherwise the
+     *                   monoisotopic masses
+     * @throws IllegalArgumentException if an element cannot be labeled or the maximum number of labels is negative
+     */
+    public IsotopologueExpander(Formula formula, Map<Element.ElementType, Integer> maxLabels, boolean withAdduct) {
+        this.formula = formula;
+        this.elements = maxLabels.keySet().toArray(new Element.ElementType[0]);
+        Arrays.sort(this.elements);
+        int size = this.elements.length;
+        this.maxLabels = new int[size];
+        this.massSteps = new double[size];
+        this.lighterLabels = new boolean[size];
+        Map<Element.ElementType, Integer> counts = formula.getElements();
+        // A labeled atom in the formula is repeated by the multimer of the adduct and the mass is divided by the charge
+        int multimer = withAdduct && formula.getAdduct() != null ? multimerOf(formula) : 1;
+        int massDivisor = withAdduct ? formula.getMassDivisorWithAdduct() : formula.getMassDivisor();
+        double mass = withAdduct ? formula.getMonoisotopicMassWithAdduct() : formula.getMonoisotopicMass();
+        for (int i = 0; i < size; i++) {
+            Element.ElementType element = this.elements[i];
+            Element.ElementType label = LABELS.get(element);
+            if (label == null) {
+                throw new IllegalArgumentException("The element " + element + " has no labeled ElementType");
+            }
+            int max = maxLabels.get(element);
+            if (max < 0) {
+                throw new IllegalArgumentException("Wrong maximum number of labels for the element " + element + ": " + max);
+            }
+            this.maxLabels[i] = Math.min(max, counts.getOrDefault(element, 0));
+            double delta = (Element.monoisotopicMass(label) - Element.monoisotopicMass(element)) * multimer / massDivisor;
+            this.lighterLabels[i] = delta < 0;
+            this.massSteps[i] = Math.abs(delta);
+            if (this.lighterLabels[i]) {
+                mass += delta * this.maxLabels[i];
+            }
+        }
+        this.lightestMass = mass;
+    }
+
+    /**
+     * Constructor for the ceu.biolab.IsotopologueExpander class using the monoisotopic masses
+     *
+     * @param formula The formula to label
+     * @param maxLabels Maximum number of labeled atoms of each element. It is limited to the atoms of the element in
+     *                  the formula
+     * @throws IllegalArgumentException if an element cannot be labeled or the maximum number of labels is negative
+     */
+    public IsotopologueExpander(Formula formula, Map<Element.ElementType, Integer> maxLabels) {
+        this(formula, maxLabels, false);
+    }
+
+    private static int multimerOf(Formula formula) {
+        try {
+            return Adduct.of(formula.getAdduct()).getMultimer();
+        } catch (IncorrectAdduct | NotFoundElement | IncorrectFormula e) {
+            // The adduct was already parsed when the formula was created
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Get the elements that can be labeled
+     * @return The elements in the order of the labels passed to the IsotopologueConsumer
+     */
+    public List<Element.ElementType> getLabeledElements() {
+        return List.of(elements);
+    }
+
+    /**
+     * Get the number of isotopologues, including the formula without labels
+     * @return The number of combinations of labels
+     */
+    public long size() {
+        long size = 1;
+        for (int max : maxLabels) {
+            size *= max + 1;
+        }
+        return size;
+    }
+
+    /**
+     * Enumerates the isotopologues in ascending order of mass
+     * @param consumer Receives each isotopologue, and can stop the enumeration
+     * @return The number of isotopologues passed to the consumer
+     */
+    public long forEach(IsotopologueConsumer consumer) {
+        int dimensions = elements.length;
+        int[] labels = new int[dimensions];
+        Heap heap = new Heap(dimensions);
+        heap.push(new int[dimensions], 0, 0, lightestMass);
+        long visited = 0;
+        while (heap.size > 0) {
+            int node = heap.pop();
+            double mass = heap.masses[node];
+            int offset = node * dimensions;
+            for (int i = 0; i < dimensions; i++) {
+                int steps = heap.steps[offset + i];
+                labels[i] = lighterLabels[i] ? maxLabels[i] - steps : steps;
+            }
+            visited++;
+            if (!consumer.accept(mass, labels)) {
+                break;
+            }
+            // Children: one step more in the last increased dimension or in a later one
+            for (int dimension = heap.lastDimensions[node]; dimension < dimensions; dimension++) {
+                if (heap.steps[offset + dimension] < maxLabels[dimension]) {
+                    heap.pushChild(node, dimension, mass + massSteps[dimension]);
+                }
+            }
+            heap.free(node);
+        }
+        return visited;
+    }
+
+    /**
+     * Get the masses of the lightest isotopologues
+     * @param limit Maximum number of masses
+     * @return The masses in ascending order
+     */
+    public double[] getMasses(int limit) {
+        double[] masses = new double[(int) Math.min(limit, size())];
+        int[] position = {0};
+        forEach((mass, labels) -> {
+            masses[position[0]++] = mass;
+            return position[0] < masses.length;
+        });
+        return masses;
+    }
+
+    /**
+     * Create the Formula of an isotopologue
+     * @param labels The number of labeled atoms of each element in the order of getLabeledElements()
+     * @return The formula with the labeled atoms replaced by the labeled ElementTypes, with the adduct and charge of
+     * the original formula
+     * @throws IncorrectFormula If the formula contains invalid elements or values
+     * @throws NotFoundElement If the element is not found in the periodic table
+     * @throws IncorrectAdduct If the adduct provided is invalid
+     */
+    public Formula toFormula(int[] labels) throws IncorrectFormula, IncorrectAdduct, NotFoundElement {
+        Map<Element.ElementType, Integer> counts = new EnumMap<>(formula.getElements());
+        for (int i = 0; i < elements.length; i++) {
+            if (labels[i] < 0 || labels[i] > maxLabels[i]) {
+                throw new IllegalArgumentException("Wrong number of labels for the element " + elements[i] + ": " + labels[i]);
+            }
+            if (labels[i] == 0) {
+                continue;
+            }
+            int natural = counts.get(elements[i]) - labels[i];
+            if (natural == 0) {
+                counts.remove(elements[i]);
+            } else {
+                counts.put(elements[i], natural);
+            }
+            counts.merge(LABELS.get(elements[i]), labels[i], Integer::sum);
+        }
+        return new Formula(counts, formula.getAdduct(), formula.getCharge(), formula.getChargeType().getSymbol());
+    }
+
+    /**
+     * Binary min-heap of search nodes ordered by mass. The steps of each node are stored in a flat array and the slots
+     * of the visited nodes are reused.
+     */
+    private static final class Heap {
+        private final int dimensions;
+        private int[] steps = new int[0];
+        private double[] masses = new double[0];
+        private int[] lastDimensions = new int[0];
+        private int[] heap = new int[0];
+        private int size = 0;
+        private int[] freeNodes = new int[0];
+        private int freeSize = 0;
+        private int nodes = 0;
+
+        private Heap(int dimensions) {
+            this.dimensions = dimensions;
+        }
+
+        private int allocate() {
+            if (freeSize > 0) {
+                return freeNodes[--freeSize];
+            }
+            if (nodes == masses.length) {
+                int capacity = Math.max(16, nodes * 2);
+                steps = Arrays.copyOf(steps, capacity * dimensions);
+                masses = Arrays.copyOf(masses, capacity);
+                lastDimensions = Arrays.copyOf(lastDimensions, capacity);
+                heap = Arrays.copyOf(heap, capacity);
+                freeNodes = Arrays.copyOf(freeNodes, capacity);
+            }
+            return nodes++;
+        }
+
+        private void free(int node) {
+            freeNodes[freeSize++] = node;
+        }
+
+        private void push(int[] nodeSteps, int from, int lastDimension, double mass) {
+            int node = allocate();
+            System.arraycopy(nodeSteps, from, steps, node * dimensions, dimensions);
+            insert(node, lastDimension, mass);
+        }
+
+        private void pushChild(int parent, int dimension, double mass) {
+            int node = allocate();
+            System.arraycopy(steps, parent * dimensions, steps, node * dimensions, dimensions);
+            steps[node * dimensions + dimension]++;
+            insert(node, dimension, mass);
+        }
+
+        private void insert(int node, int lastDimension, double mass) {
+            masses[node] = mass;
+            lastDimensions[node] = lastDimension;
+            int position = size++;
+            while (position > 0) {
+                int parent = (position - 1) >>> 1;
+                if (masses[heap[parent]] <= mass) {
+                    break;
+                }
+                heap[position] = heap[parent];
+                position = parent;
+            }
+            heap[position] = node;
+        }
+
+        private int pop() {
+            int top = heap[0];
+            int last = heap[--size];
+            int position = 0;
+            while (true) {
+                int child = 2 * position + 1;
+                if (child >= size) {
+                    break;
+                }
+                if (child + 1 < size && masses[heap[child + 1]] < masses[heap[child]]) {
+                    child++;
+                }
+                if (masses[heap[child]] >= masses[last]) {
+                    break;
+                }
+                heap[position] = heap[child];
+                position = child;
+            }
+            if (size > 0) {
+                heap[position] = last;
+            }
+            return top;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package ceu.biolab;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * MetricsListener that keeps counters and latency histograms of the notifications and exposes them as an MXBean.
+ * Metrics.enableJmx() registers it in the platform MBean server, where it can be read with JConsole or any JMX client.
+ *
+ * @author Alberto Gil-de-la-Fuente
+ * @since 1.0.2
+ */
+public class JmxMetrics implements MetricsListener, JmxMetricsMXBean {
+    private final Map<EntryPoint, LatencyHistogram> parseLatencies = new EnumMap<>(EntryPoint.class);
+    private final Map<String, LongAdder> parseFailures = new ConcurrentHashMap<>();
+    private final LatencyHistogram adductParseLatency = new LatencyHistogram();
+    private final LongAdder adductCacheHits = new LongAdder();
+    private final LatencyHistogram chemCalcLatency = new LatencyHistogram();
+    private final LongAdder chemCalcTimeouts = new LongAdder();
+    private final Map<Conversion, LatencyHistogram> cdkConversionLatencies = new EnumMap<>(Conversion.class);
+
+    /**
+     * Constructor for the ceu.biolab.JmxMetrics class with all the counters at 0
+     */
+    public JmxMetrics() {
+        // The maps are filled before publishing the object, so they are only read afterwards
+        for (EntryPoint entryPoint : EntryPoint.values()) {
+            parseLatencies.put(entryPoint, new LatencyHistogram());
+        }
+        for (Conversion conversion : Conversion.values()) {
+            cdkConversionLatencies.put(conversion, new LatencyHistogram());
+        }
+    }
+
+    @Override
+    public void formulaParsed(EntryPoint entryPoint, long nanos) {
+        parseLatencies.get(entryPoint).record(nanos);
+    }
+
+    @Override
+    public void formulaParseFailed(EntryPoint entryPoint, String errorType, long nanos) {
+        parseLatencies.get(entryPoint).record(nanos);
+        parseFailures.computeIfAbsent(entryPoint + " " + errorType, key -> new LongAdder()).increment();
+    }
+
+    @Override
+    public void adductParsed(long nanos) {
+        adductParseLatency.record(nanos);
+    }
+
+    @Override
+    public void adductCacheHit() {
+        adductCacheHits.increment();
+    }
+
+    @Override
+    public void chemCalcCalled(long nanos) {
+        chemCalcLatency.record(nanos);
+    }
+
+    @Override
+    public void chemCalcTimedOut() {
+        chemCalcTimeouts.increment();
+    }
+
+    @Override
+    public void cdkConversion(Conversion conversion, long nanos) {
+        cdkConversionLatencies.get(conversion).record(nanos);
+    }
+
+    @Override
+    public Map<String, LatencyHistogram> getParseLatencies() {
+        Map<String, LatencyHistogram> latencies = new TreeMap<>();
+        parseLatencies.forEach((entryPoint, histogram) -> latencies.put(entryPoint.name(), histogram));
+        return latencies;
+    }
+
+    @Override
+    public Map<String, Long> getParseFailures() {
+        Map<String, Long> failures = new TreeMap<>();
+        parseFailures.forEach((key, counter) -> failures.put(key, counter.sum()));
+        return failures;
+    }
+
+    @Override
+    public LatencyHistogram getAdductParseLatency() {
+        return adductParseLatency;
+    }
+
+    @Override
+    public long getAdductCacheHits() {
+        return adductCacheHits.sum();
+    }
+
+    @Override
+    public LatencyHistogram getChemCalcLatency() {
+        return chemCalcLatency;
+    }
+
+    @Override
+    public long getChemCalcTimeouts() {
+        return chemCalcTimeouts.sum();
+    }
+
+    @Override
+    public Map<String, LatencyHistogram> getCdkConversionLatencies() {
+        Map<String, LatencyHistogram> latencies = new TreeMap<>();
+        cdkConversionLatencies.forEach((conversion, histogram) -> latencies.put(conversion.name(), histogram));
+        return latencies;
+    }
+}
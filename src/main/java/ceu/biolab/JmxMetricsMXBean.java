@@ -0,0 +1,55 @@
+package ceu.biolab;
+
+import java.util.Map;
+
+/**
+ * Management interface of JmxMetrics. The latencies are exposed as composite values with the count, the mean, the
+ * percentiles and the maximum in microseconds.
+ *
+ * @author Alberto Gil-de-la-Fuente
+ * @since 1.0.2
+ */
+public interface JmxMetricsMXBean {
+
+    /**
+     * Get the latencies of the parses of formulas, including the ones that failed
+     * @return The latencies by MetricsListener.EntryPoint
+     */
+    Map<String, LatencyHistogram> getParseLatencies();
+
+    /**
+     * Get the number of strings that were not valid formulas
+     * @return The number of failures by entry point and error type, e.g. 'HILL NotFoundElement'
+     */
+    Map<String, Long> getParseFailures();
+
+    /**
+     * Get the latencies of the adducts parsed because they were not in the cache
+     * @return The latencies of the adduct parses
+     */
+    LatencyHistogram getAdductParseLatency();
+
+    /**
+     * Get the number of adducts found in the cache
+     * @return The number of cache hits
+     */
+    long getAdductCacheHits();
+
+    /**
+     * Get the latencies of the requests to ChemCalc
+     * @return The latencies of the requests
+     */
+    LatencyHistogram getChemCalcLatency();
+
+    /**
+     * Get the number of requests to ChemCalc that exceeded their timeout
+     * @return The number of timeouts
+     */
+    long getChemCalcTimeouts();
+
+    /**
+     * Get the latencies of the conversions of structures with CDK
+     * @return The latencies by MetricsListener.Conversion
+     */
+    Map<String, LatencyHistogram> getCdkConversionLatencies();
+}
@@ -0,0 +1,138 @@
+package ceu.biolab;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Concurrent histogram of latencies in nanoseconds. Every power of two is divided in 8 buckets, so the percentiles are
+ * the upper bound of a bucket and overestimate the real value by less than 12.5%. Recording a value only increments
+ * counters, without locks or allocations.
+ *
+ * @author Alberto Gil-de-la-Fuente
+ * @since 1.0.2
+ */
+public final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (63 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder total = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0L);
+
+    /**
+     * Record a latency
+     * @param nanos The latency in nanoseconds, negative values are recorded as 0
+     */
+    public void record(long nanos) {
+        long value = Math.max(nanos, 0L);
+        buckets.incrementAndGet(bucket(value));
+        count.increment();
+        total.add(value);
+        max.accumulate(value);
+    }
+
+    /**
+     * Get the number of latencies recorded
+     * @return The number of latencies
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * Get the mean of the latencies
+     * @return The mean in microseconds, 0 if there are no latencies
+     */
+    public double getMeanMicros() {
+        long n = count.sum();
+        return n == 0 ? 0.0 : total.sum() / 1000.0 / n;
+    }
+
+    /**
+     * Get the median of the latencies
+     * @return The upper bound of the bucket of the median in microseconds
+     */
+    public double getP50Micros() {
+        return getPercentileMicros(50.0);
+    }
+
+    /**
+     * Get the 90th percentile of the latencies
+     * @return The upper bound of the bucket of the percentile in microseconds
+     */
+    public double getP90Micros() {
+        return getPercentileMicros(90.0);
+    }
+
+    /**
+     * Get the 99th percentile of the latencies
+     * @return The upper bound of the bucket of the percentile in microseconds
+     */
+    public double getP99Micros() {
+        return getPercentileMicros(99.0);
+    }
+
+    /**
+     * Get the maximum latency
+     * @return The maximum in microseconds
+     */
+    public double getMaxMicros() {
+        return max.get() / 1000.0;
+    }
+
+    /**
+     * Get a percentile of the latencies
+     * @param percentile The percentile, between 0 and 100
+     * @return The upper bound of the bucket of the percentile in microseconds, 0 if there are no latencies
+     */
+    public double getPercentileMicros(double percentile) {
+        long[] counts = new long[BUCKETS];
+        long n = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets.get(i);
+            n += counts[i];
+        }
+        if (n == 0) {
+            return 0.0;
+        }
+        long rank = Math.max(1L, (long) Math.ceil(n * percentile / 100.0));
+        long accumulated = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            accumulated += counts[i];
+            if (accumulated >= rank) {
+                return Math.min(upperBound(i), max.get()) / 1000.0;
+            }
+        }
+        return max.get() / 1000.0;
+    }
+
+    /**
+     * The values below SUB_BUCKETS have their own bucket, the other values are divided by their highest bit and the
+     * next SUB_BUCKET_BITS bits
+     */
+    static int bucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * Greatest value of a bucket
+     */
+    static long upperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        int subBucket = bucket % SUB_BUCKETS;
+        int shift = exponent - SUB_BUCKET_BITS;
+        long lower = (long) (SUB_BUCKETS + subBucket) << shift;
+        return lower + ((1L << shift) - 1);
+    }
+}
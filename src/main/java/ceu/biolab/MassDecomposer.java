@@ -0,0 +1,455 @@
+package ceu.biolab;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Enumerates the elemental compositions whose monoisotopic mass is within a tolerance in ppm of a target mass. The
+ * alphabet of elements comes from a FormulaType or from an explicit set of elements, and every element can be
+ * restricted to a minimum and maximum number of appearances.
+ * The search goes from the heaviest to the lightest element and discards a branch when the remaining mass cannot be
+ * filled with the remaining elements. The number of appearances of the lightest element is calculated directly from
+ * the remaining mass, so only compositions of the other elements are enumerated.
+ * The decomposer is immutable and can be shared between threads.
+ *
+ * @author Alberto Gil-de-la-Fuente
+ * @since 1.0.2
+ */
+public class MassDecomposer {
+    // Absolute margin (Da) of the search window, the exact tolerance is checked for every composition
+    private static final double SEARCH_MARGIN = 1e-9;
+
+    /**
+     * Receives the compositions found by the decomposer
+     */
+    @FunctionalInterface
+    public interface DecompositionConsumer {
+        /**
+         * @param counts The appearances of each element in the order of getAlphabet(). The array is reused for the
+         *               next composition, so it must be copied to keep it.
+         */
+        void accept(int[] counts);
+    }
+
+    private final Element.ElementType[] alphabet; //Elements in ascending order of ordinal
+    private final double[] masses; //Monoisotopic masses in the order of the alphabet
+    private final int[] minCounts;
+    private final int[] maxCounts;
+    private final int[] searchOrder; //Positions of the alphabet from the heaviest to the lightest element
+    private final double[] suffixMinMasses; //Minimum mass of the elements from each position of the search order
+
+    /**
+     * Constructor for the ceu.biolab.MassDecomposer class without bounds for the elements
+     *
+     * @param formulaType The type of formula that defines the alphabet. ALL and ALLD are not supported
+     * @throws IllegalArgumentException if the formula type is ALL or ALLD
+     */
+    public MassDecomposer(FormulaType formulaType) {
+        this(formulaType, Collections.emptyMap(), Collections.emptyMap());
+    }
+
+    /**
+     * Constructor for the ceu.biolab.MassDecomposer class
+     *
+     * @param formulaType The type of formula that defines the alphabet. ALL and ALLD are not supported
+     * @param minCounts Minimum number of appearances of the elements, 0 for the elements not present
+     * @param maxCounts Maximum number of appearances of the elements, no limit for the elements not present
+     * @throws IllegalArgumentException if the formula type is ALL or ALLD or the bounds are not valid
+     */
+    public MassDecomposer(FormulaType formulaType, Map<Element.ElementType, Integer> minCounts, Map<Element.ElementType, Integer> maxCounts) {
+        this(alphabetOf(formulaType), minCounts, maxCounts);
+    }
+
+    /**
+     * Constructor for the ceu.biolab.MassDecomposer class
+     *
+     * @param alphabet The elements of the compositions
+     * @param minCounts Minimum number of appearances of the elements, 0 for the elements not present
+     * @param maxCounts Maximum number of appearances of the elements, no limit for the elements not present
+     * @throws IllegalArgumentException if the alphabet is empty, contains elements without weight or the bounds are
+     * not valid
+     */
+    public MassDecomposer(Set<Element.ElementType> alphabet, Map<Element.ElementType, Integer> minCounts, Map<Element.ElementType, Integer> maxCounts) {
+        if (alphabet.isEmpty()) {
+            throw new IllegalArgumentException("The alphabet of the decomposer is empty");
+        }
+        checkBoundedElements(alphabet, minCounts);
+        checkBoundedElements(alphabet, maxCounts);
+        this.alphabet = alphabet.toArray(new Element.ElementType[0]);
+        Arrays.sort(this.alphabet);
+        int size = this.alphabet.length;
+        this.masses = new double[size];
+        this.minCounts = new int[size];
+        this.maxCounts = new int[size];
+        for (int i = 0; i < size; i++) {
+            Element.ElementType element = this.alphabet[i];
+            this.masses[i] = Element.monoisotopicMass(element);
+            if (Double.isNaN(this.masses[i])) {
+                throw new IllegalArgumentException("The element " + element + " has no weight");
+            }
+            this.minCounts[i] = minCounts.getOrDefault(element, 0);
+            this.maxCounts[i] = maxCounts.getOrDefault(element, Integer.MAX_VALUE);
+            if (this.minCounts[i] < 0 || this.minCounts[i] > this.maxCounts[i]) {
+                throw new IllegalArgumentException("Wrong bounds for the element " + element + ": [" + this.minCounts[i] + ", " + this.maxCounts[i] + "]");
+            }
+        }
+        this.searchOrder = new int[size];
+        Integer[] positions = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            positions[i] = i;
+        }
+        Arrays.sort(positions, Comparator.comparingDouble((Integer position) -> this.masses[position]).reversed());
+        this.suffixMinMasses = new double[size + 1];
+        for (int i = size - 1; i >= 0; i--) {
+            this.searchOrder[i] = positions[i];
+            this.suffixMinMasses[i] = this.suffixMinMasses[i + 1] + this.minCounts[positions[i]] * this.masses[positions[i]];
+        }
+    }
+
+    private static Set<Element.ElementType> alphabetOf(FormulaType formulaType) {
+        switch (formulaType) {
+            case CHNOPS:
+                return Element.SETCHNOPS;
+            case CHNOPSD:
+                return Element.SETCHNOPSD;
+            case CHNOPSCL:
+                return Element.SETCHNOPSCL;
+            case CHNOPSCLD:
+                return Element.SETCHNOPSCLD;
+            default:
+                throw new IllegalArgumentException("The formula type " + formulaType + " has no bounded alphabet, use an explicit set of elements");
+        }
+    }
+
+    private static void checkBoundedElements(Set<Element.ElementType> alphabet, Map<Element.ElementType, Integer> counts) {
+        for (Element.ElementType element : counts.keySet()) {
+            if (!alphabet.contains(element)) {
+                throw new IllegalArgumentException("The element " + element + " is not in the alphabet");
+            }
+        }
+    }
+
+    /**
+     * Get the elements of the compositions
+     * @return The elements in the order of the counts passed to the DecompositionConsumer
+     */
+    public List<Element.ElementType> getAlphabet() {
+        return Collections.unmodifiableList(Arrays.asList(alphabet));
+    }
+
+    /**
+     * Get the neutral formulas whose monoisotopic mass is within a tolerance of a mass
+     * @param mass The target mass
+     * @param massToleranceInPpm The mass tolerance in parts per million (ppm), relative to the mass of each formula
+     * @return The formulas from the closest to the furthest to the mass
+     * @throws IllegalArgumentException if the mass is not positive or the tolerance is not in [0, 1000000)
+     */
+    public List<Formula> decompose(double mass, double massToleranceInPpm) {
+        return decompose(mass, null, null, massToleranceInPpm);
+    }
+
+    /**
+     * Get the neutral formulas whose monoisotopic mass with an adduct is within a tolerance of a mass, as checked by
+     * Formula.checkMonoisotopicMassWithAdduct
+     * @param mass The target mass, e.g. the m/z of a peak
+     * @param adduct The adduct, or null to decompose the mass as a neutral mass
+     * @param massToleranceInPpm The mass tolerance in parts per million (ppm), relative to the mass with adduct of each
+     *                           formula
+     * @return The formulas with the adduct from the closest to the furthest to the mass
+     * @throws IllegalArgumentException if the mass is not positive or the tolerance is not in [0, 1000000)
+     * @throws IncorrectFormula If the adduct contains invalid elements or values
+     * @throws NotFoundElement If an element of the adduct is not found in the periodic table
+     * @throws IncorrectAdduct If the adduct is invalid
+     */
+    public List<Formula> decompose(double mass, String adduct, double massToleranceInPpm) throws IncorrectAdduct, NotFoundElement, IncorrectFormula {
+        if (adduct == null || adduct.equals("None") || adduct.equals("")) {
+            return decompose(mass, null, null, massToleranceInPpm);
+        }
+        return decompose(mass, Adduct.of(adduct), adduct, massToleranceInPpm);
+    }
+
+    private List<Formula> decompose(double mass, Adduct adduct, String adductStr, double massToleranceInPpm) {
+        List<Formula> formulas = new ArrayList<>();
+        decompose(mass, adduct, massToleranceInPpm, counts -> formulas.add(toFormula(counts, adductStr)));
+        formulas.sort(Comparator.comparingDouble(formula -> Math.abs(formula.getMonoisotopicMassWithAdduct() - mass)));
+        return formulas;
+    }
+
+    /**
+     * Enumerates the compositions whose monoisotopic mass is within a tolerance of a mass without creating formulas
+     * @param mass The target mass
+     * @param massToleranceInPpm The mass tolerance in parts per million (ppm), relative to the mass of each composition
+     * @param consumer Receives each composition found
+     * @return The number of compositions found
+     * @throws IllegalArgumentException if the mass is not positive or the tolerance is not in [0, 1000000)
+     */
+    public int decompose(double mass, double massToleranceInPpm, DecompositionConsumer consumer) {
+        return decompose(mass, null, massToleranceInPpm, consumer);
+    }
+
+    /**
+     * Enumerates the compositions whose monoisotopic mass with an adduct is within a tolerance of a mass without
+     * creating formulas. Compositions that do not contain the elements subtracted by the adduct are skipped.
+     * @param mass The target mass, e.g. the m/z of a peak
+     * @param adduct The adduct, or null to decompose the mass as a neutral mass
+     * @param massToleranceInPpm The mass tolerance in parts per million (ppm), relative to the mass with adduct of each
+     *                           composition
+     * @param consumer Receives each composition found
+     * @return The number of compositions found
+     * @throws IllegalArgumentException if the mass is not positive or the tolerance is not in [0, 1000000)
+     */
+    public int decompose(double mass, Adduct adduct, double massToleranceInPpm, DecompositionConsumer consumer) {
+        if (!(mass > 0) || Double.isInfinite(mass)) {
+            throw new IllegalArgumentException("The mass to decompose must be positive: " + mass);
+        }
+        if (!(massToleranceInPpm >= 0) || massToleranceInPpm >= 1_000_000.0) {
+            throw new IllegalArgumentException("Wrong mass tolerance in ppm: " + massToleranceInPpm);
+        }
+        double ppm = massToleranceInPpm / 1_000_000.0;
+        // |m - mass| <= m * ppm  <=>  mass / (1 + ppm) <= m <= mass / (1 - ppm)
+        double lowerMass = mass / (1 + ppm);
+        double upperMass = mass / (1 - ppm);
+        if (adduct != null) {
+            // The mass with adduct grows with the neutral mass, so the window is transformed by its ends
+            lowerMass = adduct.getNeutralMonoisotopicMass(lowerMass);
+            upperMass = adduct.getNeutralMonoisotopicMass(upperMass);
+        }
+        lowerMass -= SEARCH_MARGIN;
+        upperMass += SEARCH_MARGIN;
+        if (upperMass <= 0) {
+            return 0;
+        }
+        Search search = new Search(mass, adduct, massToleranceInPpm, upperMass, consumer);
+        search.branch(0, lowerMass, upperMass);
+        return search.found;
+    }
+
+    /**
+     * Decomposes every mass of a peak list with every adduct using the common ForkJoinPool
+     * @param masses The masses of the peaks, e.g. their m/z. Sorting them by mass keeps similar work together
+     * @param adducts The adducts to try for every peak. A null adduct decomposes the masses as neutral masses
+     * @param massToleranceInPpm The mass tolerance in parts per million (ppm), relative to the mass with adduct of each
+     *                           formula
+     * @return For each mass, the formulas with any of the adducts from the closest to the furthest to the mass
+     * @throws IncorrectFormula If an adduct contains invalid elements or values
+     * @throws NotFoundElement If an element of an adduct is not found in the periodic table
+     * @throws IncorrectAdduct If an adduct is invalid
+     */
+    public List<List<Formula>> decompose(double[] masses, List<String> adducts, double massToleranceInPpm) throws IncorrectAdduct, NotFoundElement, IncorrectFormula {
+        return decompose(masses, adducts, massToleranceInPpm, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Decomposes every mass of a peak list with every adduct. The peaks are split recursively into tasks, so idle
+     * workers of the pool steal the remaining peaks.
+     * @param masses The masses of the peaks, e.g. their m/z. Sorting them by mass keeps similar work together
+     * @param adducts The adducts to try for every peak. A null adduct decomposes the masses as neutral masses
+     * @param massToleranceInPpm The mass tolerance in parts per million (ppm), relative to the mass with adduct of each
+     *                           formula
+     * @param pool The pool that runs the decompositions
+     * @return For each mass, the formulas with any of the adducts from the closest to the furthest to the mass
+     * @throws IncorrectFormula If an adduct contains invalid elements or values
+     * @throws NotFoundElement If an element of an adduct is not found in the periodic table
+     * @throws IncorrectAdduct If an adduct is invalid
+     */
+    public List<List<Formula>> decompose(double[] masses, List<String> adducts, double massToleranceInPpm, ForkJoinPool pool) throws IncorrectAdduct, NotFoundElement, IncorrectFormula {
+        FormulaEvents.BatchOperation event = new FormulaEvents.BatchOperation();
+        event.begin();
+        // Adducts are parsed once here, so the tasks can only fail with unchecked exceptions
+        Adduct[] parsedAdducts = new Adduct[adducts.size()];
+        String[] adductStrs = new String[adducts.size()];
+        for (int i = 0; i < parsedAdducts.length; i++) {
+            String adduct = adducts.get(i);
+            if (adduct != null && !adduct.equals("None") && !adduct.equals("")) {
+                parsedAdducts[i] = Adduct.of(adduct);
+                adductStrs[i] = adduct;
+            }
+        }
+        @SuppressWarnings("unchecked")
+        List<Formula>[] candidates = new List[masses.length];
+        pool.invoke(new BatchTask(masses, parsedAdducts, adductStrs, massToleranceInPpm, candidates, 0, masses.length));
+        long formulas = 0;
+        for (List<Formula> massCandidates : candidates) {
+            formulas += massCandidates.size();
+        }
+        event.finish("MassDecomposer.decompose", masses.length, formulas);
+        return Arrays.asList(candidates);
+    }
+
+    /**
+     * Decomposes a range of the peaks, splitting it in halves until it is small enough
+     */
+    private final class BatchTask extends RecursiveAction {
+        private static final int PEAKS_PER_TASK = 8;
+
+        private final double[] masses;
+        private final Adduct[] adducts;
+        private final String[] adductStrs;
+        private final double massToleranceInPpm;
+        private final List<Formula>[] candidates;
+        private final int start;
+        private final int end;
+
+        private BatchTask(double[] masses, Adduct[] adducts, String[] adductStrs, double massToleranceInPpm, List<Formula>[] candidates, int start, int end) {
+            this.masses = masses;
+            this.adducts = adducts;
+            this.adductStrs = adductStrs;
+            this.massToleranceInPpm = massToleranceInPpm;
+            this.candidates = candidates;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start > PEAKS_PER_TASK) {
+                int middle = (start + end) >>> 1;
+                invokeAll(new BatchTask(masses, adducts, adductStrs, massToleranceInPpm, candidates, start, middle),
+                        new BatchTask(masses, adducts, adductStrs, massToleranceInPpm, candidates, middle, end));
+                return;
+            }
+            for (int i = start; i < end; i++) {
+                double mass = masses[i];
+                List<Formula> formulas = new ArrayList<>();
+                for (int j = 0; j < adducts.length; j++) {
+                    formulas.addAll(decompose(mass, adducts[j], adductStrs[j], massToleranceInPpm));
+                }
+                if (adducts.length > 1) {
+                    formulas.sort(Comparator.comparingDouble(formula -> Math.abs(formula.getMonoisotopicMassWithAdduct() - mass)));
+                }
+                candidates[i] = formulas;
+            }
+        }
+    }
+
+    private Formula toFormula(int[] counts, String adduct) {
+        int size = 0;
+        for (int count : counts) {
+            if (count > 0) {
+                size++;
+            }
+        }
+        byte[] elementOrdinals = new byte[size];
+        int[] elementCounts = new int[size];
+        int position = 0;
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] > 0) {
+                elementOrdinals[position] = (byte) alphabet[i].ordinal();
+                elementCounts[position] = counts[i];
+                position++;
+            }
+        }
+        if (adduct == null) {
+            return Formula.neutralFromCounts(elementOrdinals, elementCounts);
+        }
+        try {
+            return Formula.neutralFromCounts(elementOrdinals, elementCounts, adduct);
+        } catch (IncorrectFormula | IncorrectAdduct | NotFoundElement e) {
+            // The adduct is already parsed and the search skips the compositions where it cannot be applied
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * State of a single decomposition
+     */
+    private final class Search {
+        private final double mass;
+        private final Adduct adduct;
+        private final double massToleranceInPpm;
+        private final DecompositionConsumer consumer;
+        private final int[] counts = new int[alphabet.length];
+        private final int[] maxSearchCounts = new int[alphabet.length]; //Maximum counts in the search order
+        private final double[] suffixMaxMasses = new double[alphabet.length + 1];
+        private int found = 0;
+
+        private final int[] subtractedPositions; //Positions in the alphabet of the elements subtracted by the adduct
+        private final int[] subtractedMinCounts; //Minimum appearances of those elements so the adduct can be applied
+
+        private Search(double mass, Adduct adduct, double massToleranceInPpm, double upperMass, DecompositionConsumer consumer) {
+            this.mass = mass;
+            this.adduct = adduct;
+            this.massToleranceInPpm = massToleranceInPpm;
+            this.consumer = consumer;
+            for (int i = alphabet.length - 1; i >= 0; i--) {
+                int position = searchOrder[i];
+                maxSearchCounts[i] = (int) Math.min(maxCounts[position], Math.floor(upperMass / masses[position]));
+                suffixMaxMasses[i] = suffixMaxMasses[i + 1] + maxSearchCounts[i] * masses[position];
+            }
+            Map<Element.ElementType, Integer> subtracted = adduct == null ? Collections.emptyMap() : adduct.getFormulaMinus().getElements();
+            Map<Element.ElementType, Integer> added = adduct == null ? Collections.emptyMap() : adduct.getFormulaPlus().getElements();
+            this.subtractedPositions = new int[subtracted.size()];
+            this.subtractedMinCounts = new int[subtracted.size()];
+            int i = 0;
+            for (Map.Entry<Element.ElementType, Integer> entry : subtracted.entrySet()) {
+                // count * multimer + added >= subtracted
+                int missing = entry.getValue() - added.getOrDefault(entry.getKey(), 0);
+                subtractedPositions[i] = Arrays.binarySearch(alphabet, entry.getKey());
+                subtractedMinCounts[i] = missing <= 0 ? 0 : (missing + adduct.getMultimer() - 1) / adduct.getMultimer();
+                i++;
+            }
+        }
+
+        /**
+         * Assigns the appearances of the element at a depth of the search order
+         * @param depth Position in the search order
+         * @param lowerMass Minimum mass to fill with the elements from the depth
+         * @param upperMass Maximum mass to fill with the elements from the depth
+         */
+        private void branch(int depth, double lowerMass, double upperMass) {
+            int position = searchOrder[depth];
+            double elementMass = masses[position];
+            int first;
+            int last;
+            if (depth == alphabet.length - 1) {
+                first = (int) Math.max(minCounts[position], Math.ceil(lowerMass / elementMass));
+                last = (int) Math.min(maxSearchCounts[depth], Math.floor(upperMass / elementMass));
+                for (int count = first; count <= last; count++) {
+                    counts[position] = count;
+                    accept();
+                }
+                return;
+            }
+            first = (int) Math.max(minCounts[position], Math.ceil((lowerMass - suffixMaxMasses[depth + 1]) / elementMass));
+            last = (int) Math.min(maxSearchCounts[depth], Math.floor((upperMass - suffixMinMasses[depth + 1]) / elementMass));
+            for (int count = first; count <= last; count++) {
+                counts[position] = count;
+                double elementsMass = count * elementMass;
+                branch(depth + 1, lowerMass - elementsMass, upperMass - elementsMass);
+            }
+        }
+
+        private void accept() {
+            // Same order of the sum as Formula.getMonoisotopicMass, so both masses are identical
+            double compositionMass = 0.0;
+            for (int i = 0; i < counts.length; i++) {
+                compositionMass += masses[i] * counts[i];
+            }
+            if (compositionMass <= 0) {
+                return;
+            }
+            double massWithAdduct = adduct == null ? compositionMass : adduct.getMonoisotopicMassWithAdduct(compositionMass);
+            if (FormulaMassIndex.isWithinPpm(massWithAdduct, mass, massToleranceInPpm) && canApplyAdduct()) {
+                found++;
+                consumer.accept(counts);
+            }
+        }
+
+        private boolean canApplyAdduct() {
+            for (int i = 0; i < subtractedPositions.length; i++) {
+                int count = subtractedPositions[i] < 0 ? 0 : counts[subtractedPositions[i]];
+                if (count < subtractedMinCounts[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package ceu.biolab;
+
+import java.util.BitSet;
+
+/**
+ * Batch versions of the ppm calculations of Formula over arrays of experimental masses. The tolerance is converted
+ * to an absolute delta once per reference mass instead of once per experimental mass, and the results are the same
+ * as Formula.absoluteToPpm and Formula.checkMonoisotopicMass for each mass.
+ *
+ * @author Alberto Gil-de-la-Fuente
+ * @since 1.0.2
+ */
+final class MassTolerance {
+
+    private MassTolerance() {
+    }
+
+    /**
+     * Calculates the ppm difference between a reference mass and every experimental mass
+     * @param referenceMass Monoisotopic mass of reference
+     * @param masses Experimental masses
+     * @return The ppm difference for each experimental mass, as calculated by Formula.absoluteToPpm
+     */
+    static double[] ppmDifferences(double referenceMass, double[] masses) {
+        double[] ppms = new double[masses.length];
+        for (int i = 0; i < masses.length; i++) {
+            ppms[i] = Math.abs((referenceMass - masses[i]) / referenceMass) * 1_000_000.0;
+        }
+        return ppms;
+    }
+
+    /**
+     * Checks which experimental masses are within a tolerance of a reference mass
+     * @param referenceMass Monoisotopic mass of reference
+     * @param masses Experimental masses
+     * @param massToleranceInPpm The mass tolerance in parts per million (ppm) of the reference mass
+     * @return A BitSet with the positions of the experimental masses within the tolerance
+     */
+    static BitSet withinTolerance(double referenceMass, double[] masses, double massToleranceInPpm) {
+        double absValueDelta = Formula.ppmToAbsolute(referenceMass, massToleranceInPpm);
+        long[] words = new long[(masses.length + 63) >>> 6];
+        for (int word = 0; word < words.length; word++) {
+            int start = word << 6;
+            int end = Math.min(start + 64, masses.length);
+            long bits = 0L;
+            for (int i = start; i < end; i++) {
+                // The result of the comparison is set as the bit of the mass in the word
+                long within = (Math.abs(referenceMass - masses[i]) <= absValueDelta) ? 1L : 0L;
+                bits |= within << (i - start);
+            }
+            words[word] = bits;
+        }
+        return BitSet.valueOf(words);
+    }
+}
@@ -0,0 +1,98 @@
+package ceu.biolab;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Registry of the MetricsListener notified by the library. The metrics are disabled by default, i.e., the listener
+ * is MetricsListener.NOOP and the instrumented paths only compare the listener with NOOP before skipping the
+ * measurements. enableJmx() registers a JmxMetrics in the platform MBean server.
+ *
+ * @author Alberto Gil-de-la-Fuente
+ * @since 1.0.2
+ */
+public final class Metrics {
+    /**
+     * Name of the MBean registered by enableJmx()
+     */
+    public static final String JMX_NAME = "ceu.biolab:type=FormulaMetrics";
+
+    private static volatile MetricsListener listener = MetricsListener.NOOP;
+
+    private Metrics() {
+    }
+
+    /**
+     * Set the listener notified by the library
+     * @param metricsListener The listener, MetricsListener.NOOP or null to disable the metrics
+     */
+    public static void setListener(MetricsListener metricsListener) {
+        listener = metricsListener == null ? MetricsListener.NOOP : metricsListener;
+    }
+
+    /**
+     * Get the listener notified by the library
+     * @return The listener, MetricsListener.NOOP if the metrics are disabled
+     */
+    public static MetricsListener getListener() {
+        return listener;
+    }
+
+    /**
+     * Enable the metrics with a new JmxMetrics registered in the platform MBean server with the name JMX_NAME. A
+     * JmxMetrics registered before with that name is replaced.
+     * @return The JmxMetrics that receives the notifications
+     * @throws IllegalStateException If the MBean cannot be registered
+     */
+    public static synchronized JmxMetrics enableJmx() {
+        JmxMetrics jmxMetrics = new JmxMetrics();
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(JMX_NAME);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(jmxMetrics, name);
+        } catch (JMException e) {
+            throw new IllegalStateException("The metrics cannot be registered in JMX", e);
+        }
+        setListener(jmxMetrics);
+        return jmxMetrics;
+    }
+
+    /**
+     * Disable the metrics. The MBean registered by enableJmx() keeps the values measured until now
+     */
+    public static void disable() {
+        setListener(MetricsListener.NOOP);
+    }
+
+    /**
+     * Get the listener to notify in an instrumented path
+     * @return The listener
+     */
+    static MetricsListener listener() {
+        return listener;
+    }
+
+    /**
+     * Start measuring an operation
+     * @param metrics The listener returned by listener()
+     * @return System.nanoTime(), or 0 without calling it if the metrics are disabled
+     */
+    static long start(MetricsListener metrics) {
+        return metrics == MetricsListener.NOOP ? 0L : System.nanoTime();
+    }
+
+    /**
+     * Get the time since an operation started
+     * @param metrics The listener returned by listener()
+     * @param start The value returned by start(metrics)
+     * @return The nanoseconds since start, or 0 without calling System.nanoTime() if the metrics are disabled
+     */
+    static long elapsed(MetricsListener metrics, long start) {
+        return metrics == MetricsListener.NOOP ? 0L : System.nanoTime() - start;
+    }
+}
@@ -0,0 +1,113 @@
+package ceu.biolab;
+
+/**
+ * Listener of the operations of the library that may take time in production: the parses of formulas by entry point,
+ * the parses of adducts, the calls to ChemCalc and the conversions of structures with CDK. The listener registered
+ * with Metrics.setListener is notified by all the threads, so implementations must be thread safe and fast.
+ * All the methods do nothing by default. While the listener is NOOP the library does not measure the times, so the
+ * instrumented paths cost the same as without metrics.
+ *
+ * @author Alberto Gil-de-la-Fuente
+ * @since 1.0.2
+ */
+public interface MetricsListener {
+
+    /**
+     * Listener that ignores all the notifications, used when the metrics are disabled
+     */
+    MetricsListener NOOP = new MetricsListener() {
+    };
+
+    /**
+     * Public methods that parse formulas
+     */
+    enum EntryPoint {
+        /**
+         * Formula.formulaFromStringHill
+         */
+        HILL,
+        /**
+         * Formula.tryFormulaFromStringHill
+         */
+        TRY_HILL,
+        /**
+         * Formula.formulaFromString
+         */
+        STRING,
+        /**
+         * Formula.formulaFromSMILES and SmilesFormulaConverter
+         */
+        SMILES,
+        /**
+         * Formula.formulaFromInChI
+         */
+        INCHI
+    }
+
+    /**
+     * Conversions of structures made with CDK
+     */
+    enum Conversion {
+        /**
+         * Parse of a SMILES into a structure
+         */
+        SMILES,
+        /**
+         * Reconstruction of the structure of an InChI
+         */
+        INCHI
+    }
+
+    /**
+     * Called when a formula is parsed
+     * @param entryPoint The method called to parse the formula
+     * @param nanos Time to parse the formula in nanoseconds
+     */
+    default void formulaParsed(EntryPoint entryPoint, long nanos) {
+    }
+
+    /**
+     * Called when a string is not a valid formula
+     * @param entryPoint The method called to parse the formula
+     * @param errorType The simple name of the exception thrown, the ParseResult.ErrorCode of the methods that do
+     *                  not throw exceptions, or 'NotResolved' if formulaFromString returns null
+     * @param nanos Time to reject the string in nanoseconds
+     */
+    default void formulaParseFailed(EntryPoint entryPoint, String errorType, long nanos) {
+    }
+
+    /**
+     * Called when an adduct is parsed because it is not in the cache of Adduct.of
+     * @param nanos Time to parse the adduct in nanoseconds
+     */
+    default void adductParsed(long nanos) {
+    }
+
+    /**
+     * Called when Adduct.of finds the adduct in its cache
+     */
+    default void adductCacheHit() {
+    }
+
+    /**
+     * Called when a request to ChemCalc finishes, with or without response
+     * @param nanos Time of the request in nanoseconds
+     */
+    default void chemCalcCalled(long nanos) {
+    }
+
+    /**
+     * Called when a request to ChemCalc is cancelled because it exceeds its timeout waiting for a free request or for
+     * the response
+     */
+    default void chemCalcTimedOut() {
+    }
+
+    /**
+     * Called when CDK converts a structure
+     * @param conversion The conversion
+     * @param nanos Time of the conversion in nanoseconds
+     */
+    default void cdkConversion(Conversion conversion, long nanos) {
+    }
+}
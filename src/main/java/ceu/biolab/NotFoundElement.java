@@ -22,6 +22,17 @@ public class NotFoundElement extends Exception {
         this.inputValue = inputValue;
     }
 
+    /**
+     * Constructor for NotFoundElement that does not capture the stack trace, for the parsers that reject a string to try
+     * another notation. Creating it costs about the same as parsing a valid string.
+     * @param inputValue The value causing the exception
+     * @param writableStackTrace False to not capture the stack trace
+     */
+    NotFoundElement(Object inputValue, boolean writableStackTrace) {
+        super("The element " + inputValue + " does not correspond to any element", null, false, writableStackTrace);
+        this.inputValue = inputValue;
+    }
+
     /**
      * Provides a string representation of the exception
      * @return String representation of the exception
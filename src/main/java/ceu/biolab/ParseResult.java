@@ -0,0 +1,116 @@
+package ceu.biolab;
+
+/**
+ * Result of parsing a formula without throwing exceptions: either the parsed formula or the reason why the string is
+ * not valid and the position of the input where the error was found. Rejecting a formula or an adduct that cannot
+ * be applied to it does not create exceptions, and the adduct strings that are not valid are cached, so only the
+ * first occurrence of each one creates an exception. Invalid rows of bulk inputs cost about the same as valid ones.
+ *
+ * @author Alberto Gil-de-la-Fuente
+ * @since 1.0.2
+ */
+public final class ParseResult {
+
+    /**
+     * Reasons why a formula cannot be parsed
+     */
+    public enum ErrorCode {
+        /**
+         * The string does not follow the notation of the formula
+         */
+        INVALID_SYNTAX,
+        /**
+         * An element is not found in the periodic table
+         */
+        UNKNOWN_ELEMENT,
+        /**
+         * A number of appearances or the charge does not fit in an int
+         */
+        NUMBER_OVERFLOW,
+        /**
+         * An element has 0 appearances
+         */
+        ZERO_APPEARANCES,
+        /**
+         * The adduct is not valid or contains elements not found in the periodic table
+         */
+        INVALID_ADDUCT,
+        /**
+         * The adduct subtracts elements that the formula does not contain
+         */
+        ADDUCT_NOT_APPLICABLE
+    }
+
+    private final String input;
+    private final Formula formula;
+    private final ErrorCode errorCode;
+    private final int errorPosition;
+
+    private ParseResult(String input, Formula formula, ErrorCode errorCode, int errorPosition) {
+        this.input = input;
+        this.formula = formula;
+        this.errorCode = errorCode;
+        this.errorPosition = errorPosition;
+    }
+
+    static ParseResult success(String input, Formula formula) {
+        return new ParseResult(input, formula, null, -1);
+    }
+
+    static ParseResult failure(String input, ErrorCode errorCode, int errorPosition) {
+        return new ParseResult(input, null, errorCode, errorPosition);
+    }
+
+    /**
+     * Check if the string was parsed
+     * @return True if the result contains a formula, false if it contains an error
+     */
+    public boolean isSuccess() {
+        return formula != null;
+    }
+
+    /**
+     * Get the string that was parsed
+     * @return The input string
+     */
+    public String getInput() {
+        return input;
+    }
+
+    /**
+     * Get the parsed formula
+     * @return The formula, or null if the string is not valid
+     */
+    public Formula getFormula() {
+        return formula;
+    }
+
+    /**
+     * Get the reason why the string is not valid
+     * @return The error code, or null if the string was parsed
+     */
+    public ErrorCode getErrorCode() {
+        return errorCode;
+    }
+
+    /**
+     * Get the position of the input where the error was found
+     * @return The index of the first char of the wrong token, or -1 if the string was parsed or the error is in the
+     * adduct
+     */
+    public int getErrorPosition() {
+        return errorPosition;
+    }
+
+    /**
+     * Provides a string representation of the result
+     * @return The formula, or the error code and its position (e.g. 'UNKNOWN_ELEMENT at 5 in C6H12Xx')
+     */
+    @Override
+    public String toString() {
+        if (isSuccess()) {
+            return formula.toString();
+        }
+        return errorPosition < 0 ? errorCode + " in " + input : errorCode + " at " + errorPosition + " in " + input;
+    }
+}
@@ -0,0 +1,180 @@
+package ceu.biolab;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.stream.Stream;
+
+import org.openscience.cdk.exception.InvalidSmilesException;
+import org.openscience.cdk.interfaces.IAtom;
+import org.openscience.cdk.interfaces.IAtomContainer;
+import org.openscience.cdk.silent.SilentChemObjectBuilder;
+import org.openscience.cdk.smiles.SmilesParser;
+
+/**
+ * Converts SMILES into formulas counting the atoms of the parsed structure: the explicit atoms, their implicit
+ * hydrogens, their isotopes (e.g. [13C] is C13) and their formal charges, which give the charge of the formula.
+ * CDK SmilesParser is not thread safe, so every thread keeps its own parser and reuses it for all its SMILES. The
+ * batch methods convert lists of SMILES in parallel on a ForkJoinPool.
+ *
+ * @author Alberto Gil-de-la-Fuente
+ * @since 1.0.2
+ */
+public final class SmilesFormulaConverter {
+    private static final int SMILES_PER_TASK = 64;
+
+    private static final ThreadLocal<SmilesParser> PARSER =
+            ThreadLocal.withInitial(() -> new SmilesParser(SilentChemObjectBuilder.getInstance()));
+
+    private SmilesFormulaConverter() {
+    }
+
+    /**
+     * Converts a SMILES into a formula
+     * @param smiles A string representing a molecular structure in SMILES notation
+     * @return A new instance of the ceu.biolab.Formula class with the atoms of the structure and its charge
+     * @throws IncorrectFormula If the SMILES string does not represent a valid molecular structure or contains atoms
+     * that are not elements of the periodic table
+     */
+    public static Formula fromSmiles(String smiles) throws IncorrectFormula {
+        MetricsListener metrics = Metrics.listener();
+        long start = Metrics.start(metrics);
+        FormulaEvents.Parse event = new FormulaEvents.Parse();
+        event.begin();
+        try {
+            Formula formula = countAtoms(smiles, metrics);
+            metrics.formulaParsed(MetricsListener.EntryPoint.SMILES, Metrics.elapsed(metrics, start));
+            event.finish(MetricsListener.EntryPoint.SMILES, smiles, FormulaEvents.OK);
+            return formula;
+        } catch (IncorrectFormula | RuntimeException e) {
+            metrics.formulaParseFailed(MetricsListener.EntryPoint.SMILES, e.getClass().getSimpleName(), Metrics.elapsed(metrics, start));
+            event.finish(MetricsListener.EntryPoint.SMILES, smiles, FormulaEvents.outcome(e));
+            throw e;
+        }
+    }
+
+    private static Formula countAtoms(String smiles, MetricsListener metrics) throws IncorrectFormula {
+        IAtomContainer molecule;
+        long start = Metrics.start(metrics);
+        FormulaEvents.StructureConversion event = new FormulaEvents.StructureConversion();
+        event.begin();
+        String outcome = FormulaEvents.OK;
+        try {
+            molecule = PARSER.get().parseSmiles(smiles);
+        } catch (InvalidSmilesException e) {
+            outcome = FormulaEvents.outcome(e);
+            throw new IncorrectFormula("Invalid SMILES string: " + smiles);
+        } catch (RuntimeException e) {
+            outcome = FormulaEvents.outcome(e);
+            throw e;
+        } finally {
+            metrics.cdkConversion(MetricsListener.Conversion.SMILES, Metrics.elapsed(metrics, start));
+            event.finish(MetricsListener.Conversion.SMILES, smiles, outcome);
+        }
+        if (molecule.isEmpty()) {
+            throw new IncorrectFormula("Invalid SMILES string: " + smiles);
+        }
+
+        int[] counts = new int[Element.ElementType.values().length];
+        int charge = 0;
+        int hydrogen = Element.ElementType.H.ordinal();
+        for (IAtom atom : molecule.atoms()) {
+            String symbol = atom.getSymbol();
+            Element.ElementType elementType = symbol == null ? null : Element.fromSymbol(symbol, 0, symbol.length());
+            if (elementType != null && atom.getMassNumber() != null) {
+                elementType = Element.isotope(elementType, atom.getMassNumber());
+            }
+            if (elementType == null) {
+                throw new IncorrectFormula("Invalid SMILES string: " + smiles);
+            }
+            counts[elementType.ordinal()]++;
+            Integer implicitHydrogens = atom.getImplicitHydrogenCount();
+            if (implicitHydrogens != null) {
+                counts[hydrogen] += implicitHydrogens;
+            }
+            Integer formalCharge = atom.getFormalCharge();
+            if (formalCharge != null) {
+                charge += formalCharge;
+            }
+        }
+        return Formula.fromCounts(counts, charge);
+    }
+
+    /**
+     * Converts a list of SMILES into formulas in parallel using the common ForkJoinPool
+     * @param smiles Strings representing molecular structures in SMILES notation
+     * @return The formulas in the order of the SMILES, null for the SMILES that are not valid
+     */
+    public static List<Formula> fromSmiles(List<String> smiles) {
+        return fromSmiles(smiles, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Converts a list of SMILES into formulas in parallel
+     * @param smiles Strings representing molecular structures in SMILES notation
+     * @param pool The pool that runs the conversions
+     * @return The formulas in the order of the SMILES, null for the SMILES that are not valid
+     */
+    public static List<Formula> fromSmiles(List<String> smiles, ForkJoinPool pool) {
+        FormulaEvents.BatchOperation event = new FormulaEvents.BatchOperation();
+        event.begin();
+        String[] smilesArray = smiles.toArray(new String[0]);
+        Formula[] formulas = new Formula[smilesArray.length];
+        pool.invoke(new BatchTask(smilesArray, formulas, 0, smilesArray.length));
+        int converted = 0;
+        for (Formula formula : formulas) {
+            if (formula != null) {
+                converted++;
+            }
+        }
+        event.finish("SmilesFormulaConverter.fromSmiles", smilesArray.length, converted);
+        return Arrays.asList(formulas);
+    }
+
+    /**
+     * Converts a stream of SMILES into formulas. The stream can be parallel, every thread uses its own parser.
+     * @param smiles Strings representing molecular structures in SMILES notation
+     * @return The formulas in the order of the SMILES, null for the SMILES that are not valid
+     */
+    public static Stream<Formula> fromSmiles(Stream<String> smiles) {
+        return smiles.map(SmilesFormulaConverter::fromSmilesOrNull);
+    }
+
+    private static Formula fromSmilesOrNull(String smiles) {
+        try {
+            return fromSmiles(smiles);
+        } catch (IncorrectFormula e) {
+            return null;
+        }
+    }
+
+    /**
+     * Converts a range of the SMILES, splitting it in halves until it is small enough
+     */
+    private static final class BatchTask extends RecursiveAction {
+        private final String[] smiles;
+        private final Formula[] formulas;
+        private final int start;
+        private final int end;
+
+        private BatchTask(String[] smiles, Formula[] formulas, int start, int end) {
+            this.smiles = smiles;
+            this.formulas = formulas;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start <= SMILES_PER_TASK) {
+                for (int i = start; i < end; i++) {
+                    formulas[i] = fromSmilesOrNull(smiles[i]);
+                }
+                return;
+            }
+            int middle = (start + end) >>> 1;
+            invokeAll(new BatchTask(smiles, formulas, start, middle), new BatchTask(smiles, formulas, middle, end));
+        }
+    }
+}
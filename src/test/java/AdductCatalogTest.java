@@ -0,0 +1,51 @@
+import ceu.biolab.*;
+import org.junit.jupiter.api.Test;
+
+import java.util.BitSet;
+import java.util.List;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AdductCatalogTest {
+
+    @Test
+    public void testFillMzMatchesFormulaWithAdduct() throws Exception {
+        double[] mzs = new double[AdductCatalog.ESI_POSITIVE.size() + AdductCatalog.ESI_NEGATIVE.size()];
+        for (String formulaStr : List.of("C6H12O6", "C5H5N5", "CH4", "C2H6")) {
+            Formula formula = Formula.formulaFromStringHill(formulaStr, null, null);
+            for (AdductCatalog catalog : List.of(AdductCatalog.ESI_POSITIVE, AdductCatalog.ESI_NEGATIVE)) {
+                BitSet applicable = catalog.fillMz(formula, mzs);
+                for (int i = 0; i < catalog.size(); i++) {
+                    String adduct = catalog.getAdductString(i);
+                    Formula withAdduct;
+                    try {
+                        withAdduct = Formula.formulaFromStringHill(formulaStr, adduct, null);
+                    } catch (IncorrectFormula e) {
+                        assertFalse(applicable.get(i), formulaStr + " " + adduct);
+                        assertTrue(Double.isNaN(mzs[i]));
+                        continue;
+                    }
+                    assertTrue(applicable.get(i), formulaStr + " " + adduct);
+                    assertTrue(catalog.isApplicable(formula, i));
+                    assertEquals(withAdduct.getMonoisotopicMassWithAdduct(), mzs[i], 1e-9, formulaStr + " " + adduct);
+                }
+                assertEquals(applicable, catalog.getApplicableAdducts(formula));
+            }
+        }
+    }
+
+    @Test
+    public void testCustomCatalog() throws Exception {
+        AdductCatalog catalog = new AdductCatalog(List.of("[M+H]+", "[M+H-H2O]+", "[2M+Na]+"));
+        assertEquals(List.of("[M+H]+", "[M+H-H2O]+", "[2M+Na]+"), catalog.getAdductStrings());
+        assertEquals(2, catalog.getAdduct(2).getMultimer());
+
+        Formula methane = Formula.formulaFromStringHill("CH4", null, null);
+        double[] mzs = catalog.getMzs(methane);
+        assertEquals(Formula.formulaFromStringHill("CH4", "[M+H]+", null).getMonoisotopicMassWithAdduct(), mzs[0], 1e-9);
+        assertTrue(Double.isNaN(mzs[1]));
+        assertFalse(catalog.isApplicable(methane, 1));
+
+        assertThrows(IncorrectAdduct.class, () -> new AdductCatalog(List.of("[M+H]+", "M+H")));
+        assertThrows(IllegalArgumentException.class, () -> catalog.fillMz(methane, new double[2]));
+    }
+}
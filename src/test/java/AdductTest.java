@@ -1,5 +1,6 @@
 import ceu.biolab.Adduct;
 import ceu.biolab.ChargeType;
+import ceu.biolab.Formula;
 import ceu.biolab.IncorrectAdduct;
 import org.junit.jupiter.api.Test;
 import static org.junit.jupiter.api.Assertions.*;
@@ -46,4 +47,24 @@ public class AdductTest {
         //H mass is 1.01 aprox
         assertTrue(mass < -17 && mass > -17.01);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testAdductCache() throws Exception {
+        Adduct first = Adduct.of("[M+NH4]+");
+        long hits = Adduct.getCacheHits();
+        Adduct second = Adduct.of("[M+NH4]+");
+        assertSame(first, second);
+        assertEquals(hits + 1, Adduct.getCacheHits());
+        assertEquals(new Adduct("[M+NH4]+"), second);
+    }
+
+    @Test
+    public void testNeutralMonoisotopicMass() throws Exception {
+        for (String adductStr : new String[]{"[M+H]+", "[M-H]-", "[2M+Na]+", "[M-H2O+2H]2+", "[M+Cl]-"}) {
+            Adduct adduct = Adduct.of(adductStr);
+            Formula formula = Formula.formulaFromStringHill("C6H12O6", adductStr, null);
+            assertEquals(formula.getMonoisotopicMassWithAdduct(), adduct.getMonoisotopicMassWithAdduct(formula.getMonoisotopicMass()), 0);
+            assertEquals(formula.getMonoisotopicMass(), adduct.getNeutralMonoisotopicMass(formula.getMonoisotopicMassWithAdduct()), 1e-9);
+        }
+    }
+}
@@ -0,0 +1,149 @@
+import ceu.biolab.*;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ChemCalcResolverTest {
+
+    private HttpServer server;
+    private final AtomicInteger requests = new AtomicInteger();
+    private volatile int status = 200;
+
+    @BeforeEach
+    public void startServer() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/mf", exchange -> {
+            requests.incrementAndGet();
+            String query = exchange.getRequestURI().getQuery();
+            String body = query.equals("mf=(CH3)2CO") ? "{\"mf\":\"C3H6O\"}" : "{\"error\":\"wrong formula\"}";
+            if (query.equals("mf=slow") || query.equals("mf=wait")) {
+                try {
+                    Thread.sleep(query.equals("mf=slow") ? 2000 : 200);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(status, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        });
+        server.setExecutor(java.util.concurrent.Executors.newCachedThreadPool());
+        server.start();
+    }
+
+    @AfterEach
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    private ChemCalcResolver resolver(int failureThreshold) {
+        return new ChemCalcResolver("http://127.0.0.1:" + server.getAddress().getPort() + "/mf", 2,
+                Duration.ofMillis(500), failureThreshold, Duration.ofMinutes(1));
+    }
+
+    @Test
+    public void testResolveAndCache() throws Exception {
+        ChemCalcResolver resolver = resolver(5);
+        List<CompletableFuture<String>> futures = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            futures.add(resolver.resolveAsync("(CH3)2CO"));
+        }
+        for (CompletableFuture<String> future : futures) {
+            assertEquals("C3H6O", future.join());
+        }
+        // The concurrent requests of the same formula share one call
+        int afterFirst = requests.get();
+        assertEquals(1, afterFirst);
+        assertEquals("C3H6O", resolver.resolve("(CH3)2CO"));
+        assertEquals(afterFirst, requests.get());
+        assertEquals(1, resolver.getResolvedCacheSize());
+
+        IncorrectFormula rejection = assertThrows(IncorrectFormula.class, () -> resolver.resolve("XyZ"));
+        IncorrectFormula cachedRejection = assertThrows(IncorrectFormula.class, () -> resolver.resolve("XyZ"));
+        assertEquals(rejection.getMessage(), cachedRejection.getMessage());
+        assertEquals(afterFirst + 1, requests.get());
+        assertEquals(1, resolver.getRejectedCacheSize());
+    }
+
+    @Test
+    public void testTimeoutAndCircuitBreaker() throws Exception {
+        ChemCalcResolver resolver = resolver(2);
+        assertThrows(IncorrectFormula.class, () -> resolver.resolve("slow"));
+        assertFalse(resolver.isCircuitOpen());
+        status = 503;
+        assertThrows(IncorrectFormula.class, () -> resolver.resolve("(CH3)2CO"));
+        assertTrue(resolver.isCircuitOpen());
+        int before = requests.get();
+        status = 200;
+        assertThrows(IncorrectFormula.class, () -> resolver.resolve("(CH3)2CO"));
+        assertEquals(before, requests.get());
+        assertEquals(0, resolver.getRejectedCacheSize());
+    }
+
+    @Test
+    public void testErrorStatusIsNotCached() throws Exception {
+        ChemCalcResolver resolver = resolver(2);
+        status = 429;
+        assertThrows(IncorrectFormula.class, () -> resolver.resolve("(CH3)2CO"));
+        assertEquals(0, resolver.getRejectedCacheSize());
+        assertFalse(resolver.isCircuitOpen());
+        status = 200;
+        assertEquals("C3H6O", resolver.resolve("(CH3)2CO"));
+        status = 404;
+        assertThrows(IncorrectFormula.class, () -> resolver.resolve("XyZ"));
+        assertThrows(IncorrectFormula.class, () -> resolver.resolve("XyZ"));
+        assertEquals(0, resolver.getRejectedCacheSize());
+        assertTrue(resolver.isCircuitOpen());
+    }
+
+    @Test
+    public void testHalfOpenCircuit() throws Exception {
+        ChemCalcResolver resolver = new ChemCalcResolver("http://127.0.0.1:" + server.getAddress().getPort() + "/mf", 2,
+                Duration.ofMillis(500), 1, Duration.ofMillis(200), Duration.ofMinutes(1));
+        status = 503;
+        assertThrows(IncorrectFormula.class, () -> resolver.resolve("(CH3)2CO"));
+        assertTrue(resolver.isCircuitOpen());
+        Thread.sleep(300);
+        // The probe fails, so the circuit opens again
+        assertThrows(IncorrectFormula.class, () -> resolver.resolve("(CH3)2CO"));
+        assertTrue(resolver.isCircuitOpen());
+        assertEquals(2, requests.get());
+
+        Thread.sleep(300);
+        status = 200;
+        CompletableFuture<String> probe = resolver.resolveAsync("wait");
+        assertThrows(CompletionException.class, () -> resolver.resolveAsync("(CH3)2CO").join());
+        assertTrue(resolver.isCircuitOpen());
+        // ChemCalc answers the probe, so the circuit closes even if the formula is rejected
+        assertThrows(CompletionException.class, probe::join);
+        assertEquals(3, requests.get());
+        assertFalse(resolver.isCircuitOpen());
+        assertEquals("C3H6O", resolver.resolve("(CH3)2CO"));
+    }
+
+    @Test
+    public void testRejectedExpire() throws Exception {
+        ChemCalcResolver resolver = new ChemCalcResolver("http://127.0.0.1:" + server.getAddress().getPort() + "/mf", 2,
+                Duration.ofMillis(500), 5, Duration.ofMinutes(1), Duration.ofMillis(200));
+        assertThrows(IncorrectFormula.class, () -> resolver.resolve("XyZ"));
+        assertThrows(IncorrectFormula.class, () -> resolver.resolve("XyZ"));
+        assertEquals(1, requests.get());
+        Thread.sleep(300);
+        assertThrows(IncorrectFormula.class, () -> resolver.resolve("XyZ"));
+        assertEquals(2, requests.get());
+    }
+}
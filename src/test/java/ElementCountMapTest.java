@@ -0,0 +1,86 @@
+import ceu.biolab.*;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ElementCountMapTest {
+
+    @Test
+    public void testReadOnlyView() throws Exception {
+        Map<Element.ElementType, Integer> elements = Formula.formulaFromStringHill("C6H12NO6SCl", null, null).getElements();
+
+        // Iterated in the order of Element.ElementType, not in the order of the string
+        List<Element.ElementType> order = new ArrayList<>(elements.keySet());
+        List<Element.ElementType> sorted = new ArrayList<>(order);
+        sorted.sort(null);
+        assertEquals(sorted, order);
+        assertEquals(6, elements.size());
+
+        assertEquals(12, elements.get(Element.ElementType.H));
+        assertEquals(1, elements.get(Element.ElementType.Cl));
+        assertNull(elements.get(Element.ElementType.Na));
+        assertNull(elements.get("C"));
+        assertTrue(elements.containsKey(Element.ElementType.S));
+        assertFalse(elements.containsKey(Element.ElementType.P));
+        assertFalse(elements.containsKey("S"));
+        assertFalse(elements.containsKey(null));
+
+        assertThrows(UnsupportedOperationException.class, () -> elements.put(Element.ElementType.O, 1));
+        assertThrows(UnsupportedOperationException.class, () -> elements.remove(Element.ElementType.O));
+        assertThrows(UnsupportedOperationException.class, () -> elements.entrySet().iterator().next().setValue(1));
+
+        Map<Element.ElementType, Integer> hashMap = new HashMap<>(elements);
+        assertEquals(hashMap, elements);
+        assertEquals(elements, hashMap);
+        assertEquals(hashMap.hashCode(), elements.hashCode());
+        hashMap.put(Element.ElementType.H, 11);
+        assertNotEquals(hashMap, elements);
+    }
+
+    @Test
+    public void testMergeOfElements() throws Exception {
+        Formula glucose = Formula.formulaFromStringHill("C6H12O6", null, null);
+        Formula salt = Formula.formulaFromStringHill("ClNa", null, null);
+        Formula water = Formula.formulaFromStringHill("H2O", null, null);
+
+        // Disjoint elements are interleaved in ordinal order
+        Map<Element.ElementType, Integer> disjoint = glucose.add(salt).getElements();
+        assertEquals(Map.of(Element.ElementType.C, 6, Element.ElementType.H, 12, Element.ElementType.O, 6,
+                Element.ElementType.Na, 1, Element.ElementType.Cl, 1), disjoint);
+        List<Element.ElementType> order = new ArrayList<>(disjoint.keySet());
+        List<Element.ElementType> sorted = new ArrayList<>(order);
+        sorted.sort(null);
+        assertEquals(sorted, order);
+
+        // Overlapping elements are added once
+        assertEquals(Map.of(Element.ElementType.C, 6, Element.ElementType.H, 14, Element.ElementType.O, 7),
+                glucose.add(water).getElements());
+        assertEquals(Map.of(Element.ElementType.C, 6, Element.ElementType.H, 10, Element.ElementType.O, 5),
+                glucose.subtract(water).getElements());
+        assertEquals(Map.of(Element.ElementType.H, 6, Element.ElementType.O, 3), water.multiply(3).getElements());
+    }
+
+    @Test
+    public void testSubtractionErrors() throws Exception {
+        Formula water = Formula.formulaFromStringHill("H2O", null, null);
+        Formula hydrogen = Formula.formulaFromStringHill("H2", null, null);
+        Formula dioxide = Formula.formulaFromStringHill("CO2", null, null);
+
+        // Elements whose appearances are subtracted completely are not removed, zero appearances are not valid
+        assertThrows(IncorrectFormula.class, () -> water.subtract(hydrogen));
+        assertThrows(IncorrectFormula.class, () -> water.subtract(water));
+        Formula salt = Formula.formulaFromStringHill("ClNa", null, null);
+        Formula saltWater = water.add(salt);
+        assertThrows(IncorrectFormula.class, () -> saltWater.subtract(salt));
+        // Negative appearances of an element
+        assertThrows(IncorrectFormula.class, () -> water.subtract(dioxide));
+        assertThrows(IncorrectFormula.class, () -> hydrogen.subtract(water));
+        assertThrows(IncorrectFormula.class, () -> water.multiply(0));
+        assertThrows(IncorrectFormula.class, () -> water.multiply(-1));
+    }
+}
@@ -0,0 +1,60 @@
+import ceu.biolab.*;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ElementMaskTest {
+
+    @Test
+    public void testMasksMatchSets() {
+        assertEquals(Element.SETCHNOPS, Element.MASKCHNOPS.toSet());
+        assertEquals(Element.SETCHNOPSD, Element.MASKCHNOPSD.toSet());
+        assertEquals(Element.SETCHNOPSCL, Element.MASKCHNOPSCL.toSet());
+        assertEquals(Element.SETCHNOPSCLD, Element.MASKCHNOPSCLD.toSet());
+        assertEquals(6, Element.MASKCHNOPS.size());
+        assertTrue(Element.MASKCHNOPS.isSubsetOf(Element.MASKCHNOPSCLD));
+        assertFalse(Element.MASKCHNOPSD.isSubsetOf(Element.MASKCHNOPSCL));
+
+        // Every ordinal, including the ones in the second and third words
+        Set<Element.ElementType> all = EnumSet.allOf(Element.ElementType.class);
+        ElementMask allMask = ElementMask.of(all);
+        assertEquals(all, allMask.toSet());
+        for (Element.ElementType element : all) {
+            assertTrue(ElementMask.of(element).contains(element));
+            assertEquals(1, ElementMask.of(element).size());
+            assertTrue(ElementMask.of(element).intersects(allMask));
+        }
+        assertEquals(allMask, Element.MASKCHNOPS.union(ElementMask.of(all)));
+        assertTrue(ElementMask.EMPTY.isSubsetOf(Element.MASKCHNOPS));
+        assertFalse(ElementMask.EMPTY.intersects(allMask));
+    }
+
+    @Test
+    public void testTypeAndFilters() throws Exception {
+        List<Formula> library = new ArrayList<>();
+        for (String formulaStr : List.of("C6H12O6", "C2H5Cl", "C2H5D", "C2H4DCl", "C2H6Na", "CH3DNa", "H2O", "C5H5N5P", "Br")) {
+            library.add(Formula.formulaFromStringHill(formulaStr, null, null));
+        }
+        List<FormulaType> types = new ArrayList<>();
+        for (Formula formula : library) {
+            types.add(formula.getType());
+            assertEquals(formula.getElements().keySet(), formula.getElementMask().toSet());
+        }
+        assertEquals(List.of(FormulaType.CHNOPS, FormulaType.CHNOPSCL, FormulaType.CHNOPSD, FormulaType.CHNOPSCLD,
+                FormulaType.ALL, FormulaType.ALLD, FormulaType.CHNOPS, FormulaType.CHNOPS, FormulaType.ALL), types);
+
+        Formula chloroethane = library.get(1);
+        assertTrue(chloroethane.containsOnly(Element.MASKCHNOPSCL));
+        assertFalse(chloroethane.containsOnly(Element.MASKCHNOPS));
+        assertTrue(chloroethane.containsAny(ElementMask.of(Element.ElementType.Cl, Element.ElementType.Br)));
+
+        List<Formula> chnops = Element.MASKCHNOPS.filterContainsOnly(library);
+        assertEquals(List.of(library.get(0), library.get(6), library.get(7)), chnops);
+        List<Formula> halogenated = ElementMask.of(Element.ElementType.Cl, Element.ElementType.Br).filterContainsAny(library);
+        assertEquals(List.of(library.get(1), library.get(3), library.get(8)), halogenated);
+    }
+}
@@ -21,4 +21,41 @@ public class ElementTest {
         // Verify Oxygen weight
         assertEquals(15.994915, Element.elementWeights.get(Element.ElementType.O), 1e-9);
     }
+
+    @Test
+    public void testMonoisotopicMass() {
+        for (Element.ElementType elementType : Element.ElementType.values()) {
+            Double weight = Element.elementWeights.get(elementType);
+            if (weight == null) {
+                assertTrue(Double.isNaN(Element.monoisotopicMass(elementType)));
+            } else {
+                assertEquals(weight, Element.monoisotopicMass(elementType), 0);
+            }
+        }
+    }
+
+    @Test
+    public void testIsotopes() {
+        for (Element.ElementType elementType : Element.ElementType.values()) {
+            double[] masses = Element.getIsotopeMasses(elementType);
+            double[] abundances = Element.getIsotopeAbundances(elementType);
+            assertEquals(masses.length, abundances.length);
+            double total = 0;
+            for (int i = 0; i < masses.length; i++) {
+                assertTrue(i == 0 || masses[i] > masses[i - 1], elementType + " masses are not ascending");
+                total += abundances[i];
+            }
+            assertEquals(1.0, total, 1e-4, elementType.toString());
+        }
+        // Elements with several natural isotopes must not default to a single one
+        for (Element.ElementType elementType : new Element.ElementType[]{Element.ElementType.Ti, Element.ElementType.Cr,
+                Element.ElementType.Ga, Element.ElementType.Rb, Element.ElementType.Sr, Element.ElementType.Cd,
+                Element.ElementType.Sn, Element.ElementType.Ba, Element.ElementType.Pt, Element.ElementType.Hg,
+                Element.ElementType.Pb, Element.ElementType.U}) {
+            assertTrue(Element.getIsotopeMasses(elementType).length > 1, elementType.toString());
+        }
+        assertArrayEquals(new double[]{0.51839, 0.48161}, Element.getIsotopeAbundances(Element.ElementType.Ag), 1e-9);
+        assertEquals(10, Element.getIsotopeMasses(Element.ElementType.Sn).length);
+        assertEquals(1, Element.getIsotopeMasses(Element.ElementType.Au).length);
+    }
 }
@@ -0,0 +1,41 @@
+import ceu.biolab.*;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FormulaBuilderTest {
+
+    @Test
+    public void testArithmeticMatchesFormula() throws Exception {
+        Formula glucose = Formula.formulaFromStringHill("C6H12O6", null, null);
+        Formula water = Formula.formulaFromStringHill("H2O", null, null);
+        Formula sodium = Formula.formulaFromStringHill("Na", null, null);
+
+        FormulaBuilder builder = new FormulaBuilder().add(glucose).multiply(3).subtract(water).add(sodium, 2);
+        assertEquals(glucose.multiply(3).subtract(water).add(sodium).add(sodium), builder.build());
+        assertEquals(17, builder.getCount(Element.ElementType.O));
+        assertEquals(0, builder.getCount(Element.ElementType.N));
+
+        builder.reset().add(Element.ElementType.H, 2).add(Element.ElementType.O, 1);
+        assertEquals(water, builder.build());
+
+        // Elements completely subtracted are not included, negative appearances are not valid
+        assertEquals(Formula.formulaFromStringHill("H2", null, null), builder.add(Element.ElementType.O, -1).build());
+        assertThrows(IncorrectFormula.class, () -> new FormulaBuilder().subtract(water).build());
+    }
+
+    @Test
+    public void testChargeAndAdduct() throws Exception {
+        FormulaBuilder builder = new FormulaBuilder().add(Element.ElementType.C, 6).add(Element.ElementType.H, 12)
+                .add(Element.ElementType.O, 6);
+        Formula withAdduct = builder.build("[M+H]+");
+        Formula expected = Formula.formulaFromStringHill("C6H12O6", "[M+H]+", null);
+        assertEquals(expected.getMonoisotopicMassWithAdduct(), withAdduct.getMonoisotopicMassWithAdduct(), 1e-9);
+        assertEquals(expected.getFinalFormulaWithAdduct(), withAdduct.getFinalFormulaWithAdduct());
+
+        Formula charged = builder.setCharge(-2).build();
+        assertEquals(2, charged.getCharge());
+        assertEquals(ChargeType.NEGATIVE, charged.getChargeType());
+        assertEquals(-4, new FormulaBuilder().add(charged, 2).getCharge());
+    }
+}
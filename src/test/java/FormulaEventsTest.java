@@ -0,0 +1,73 @@
+import ceu.biolab.*;
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FormulaEventsTest {
+
+    @Test
+    public void testEvents() throws Exception {
+        Path file = Files.createTempFile("formula-events", ".jfr");
+        try (Recording recording = new Recording()) {
+            for (String event : List.of("ceu.biolab.FormulaParse", "ceu.biolab.StructureConversion", "ceu.biolab.BatchOperation")) {
+                recording.enable(event).withoutThreshold();
+            }
+            recording.start();
+            Formula.formulaFromStringHill("C6H12O6", null, null);
+            Formula.tryFormulaFromStringHill("C6H12Xx", null, null);
+            SmilesFormulaConverter.fromSmiles(List.of("CCO", "C1CC"));
+            new FormulaTableProcessor(1, 10).process(new BufferedReader(new StringReader("H2O\t[M+H]+\nCH4\t[M+H-H2O]+\nC6H12O6\n")), new StringWriter());
+            recording.stop();
+            recording.dump(file);
+
+            List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+            List<String> parses = events.stream()
+                    .filter(event -> event.getEventType().getName().equals("ceu.biolab.FormulaParse"))
+                    .map(event -> event.getString("entryPoint") + " " + event.getInt("inputLength") + " " + event.getString("outcome"))
+                    .sorted()
+                    .collect(Collectors.toList());
+            assertEquals(List.of("HILL 7 OK", "SMILES 3 OK", "SMILES 4 IncorrectFormula", "TRY_HILL 3 ADDUCT_NOT_APPLICABLE",
+                    "TRY_HILL 3 OK", "TRY_HILL 7 OK", "TRY_HILL 7 UNKNOWN_ELEMENT"), parses);
+            assertEquals(2, events.stream().filter(event -> event.getEventType().getName().equals("ceu.biolab.StructureConversion")).count());
+            RecordedEvent batch = batchOperation(events, "SmilesFormulaConverter.fromSmiles");
+            assertEquals(2, batch.getLong("inputs"));
+            assertEquals(1, batch.getLong("results"));
+            // The rows with an error are not results
+            RecordedEvent table = batchOperation(events, "FormulaTableProcessor.process");
+            assertEquals(3, table.getLong("inputs"));
+            assertEquals(2, table.getLong("results"));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static RecordedEvent batchOperation(List<RecordedEvent> events, String operation) {
+        return events.stream()
+                .filter(event -> event.getEventType().getName().equals("ceu.biolab.BatchOperation"))
+                .filter(event -> event.getString("operation").equals(operation))
+                .findFirst().orElseThrow();
+    }
+
+    @Test
+    public void testSampleConfiguration() throws Exception {
+        try (Reader reader = new InputStreamReader(getClass().getResourceAsStream("/formulavalidation.jfc"), StandardCharsets.UTF_8)) {
+            Configuration configuration = Configuration.create(reader);
+            assertEquals("true", configuration.getSettings().get("ceu.biolab.FormulaParse#enabled"));
+            assertEquals("0 ms", configuration.getSettings().get("ceu.biolab.ChemCalcCall#threshold"));
+        }
+    }
+}
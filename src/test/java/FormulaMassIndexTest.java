@@ -0,0 +1,90 @@
+import ceu.biolab.*;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FormulaMassIndexTest {
+
+    private static List<Formula> formulas(String adduct, String... hillFormulas) throws Exception {
+        List<Formula> formulas = new ArrayList<>();
+        for (String hillFormula : hillFormulas) {
+            formulas.add(Formula.formulaFromStringHill(hillFormula, adduct, null));
+        }
+        return formulas;
+    }
+
+    @Test
+    public void testFindWithinPpm() throws Exception {
+        FormulaMassIndex index = new FormulaMassIndex(formulas(null, "C6H12O6", "CO2", "H2O", "NH3", "CH4"));
+        assertEquals(5, index.size());
+        assertEquals(List.of(Formula.formulaFromStringHill("H2O", null, null)), index.findWithinPpm(18.0106, 10));
+        assertTrue(index.findWithinPpm(18.5, 10).isEmpty());
+
+        for (int i = 1; i < index.size(); i++) {
+            assertTrue(index.getMass(i - 1) <= index.getMass(i));
+        }
+    }
+
+    @Test
+    public void testFindWithinPpmWithAdduct() throws Exception {
+        FormulaMassIndex index = new FormulaMassIndex(formulas("[M+H]+", "C6H12O6", "H2O", "NH3"), true);
+        List<Formula> found = index.findWithinPpm(19.01784, 5);
+        assertEquals(1, found.size());
+        assertTrue(found.get(0).checkMonoisotopicMassWithAdduct(19.01784, 5));
+    }
+
+    @Test
+    public void testAnnotate() throws Exception {
+        List<Formula> formulas = formulas(null, "C6H12O6", "C5H5N5", "C7H8N4O2", "C3H7NO2", "H2O", "CH4", "C6H13NO5");
+        FormulaMassIndex index = new FormulaMassIndex(formulas);
+        AdductCatalog catalog = AdductCatalog.ESI_POSITIVE;
+        double[] mzs = {
+                Formula.formulaFromStringHill("C6H12O6", "[M+Na]+", null).getMonoisotopicMassWithAdduct() + 0.0005,
+                Formula.formulaFromStringHill("C5H5N5", "[M+H]+", null).getMonoisotopicMassWithAdduct(),
+                500.0,
+                Formula.formulaFromStringHill("C3H7NO2", "[2M+H]+", null).getMonoisotopicMassWithAdduct()
+        };
+        double ppm = 5;
+        List<FormulaMassIndex.Annotation> annotations = index.annotate(mzs, catalog, ppm);
+
+        // Same annotations as checking every formula with every adduct
+        List<String> expected = new ArrayList<>();
+        for (int peak = 0; peak < mzs.length; peak++) {
+            for (int adduct = 0; adduct < catalog.size(); adduct++) {
+                for (Formula formula : formulas) {
+                    Formula withAdduct;
+                    try {
+                        withAdduct = Formula.formulaFromStringHill(formula.getHillString(), catalog.getAdductString(adduct), null);
+                    } catch (IncorrectFormula e) {
+                        continue;
+                    }
+                    if (withAdduct.checkMonoisotopicMassWithAdduct(mzs[peak], ppm)) {
+                        expected.add(peak + " " + catalog.getAdductString(adduct) + " " + formula.getHillString());
+                    }
+                }
+            }
+        }
+        List<String> found = new ArrayList<>();
+        for (FormulaMassIndex.Annotation annotation : annotations) {
+            found.add(annotation.getPeak() + " " + annotation.getAdduct() + " " + annotation.getFormula().getHillString());
+            assertTrue(annotation.getPpm() <= ppm);
+        }
+        assertEquals(expected, found);
+        assertTrue(found.contains("0 [M+Na]+ C6H12O6"));
+        assertTrue(found.contains("1 [M+H]+ C5H5N5"));
+        assertTrue(found.contains("3 [2M+H]+ C3H7NO2"));
+
+        assertThrows(IllegalStateException.class, () -> new FormulaMassIndex(formulas, true).annotate(mzs, catalog, ppm));
+    }
+
+    @Test
+    public void testFindNearest() throws Exception {
+        FormulaMassIndex index = new FormulaMassIndex(formulas(null, "C6H12O6", "CO2", "H2O", "NH3", "CH4"));
+        List<Formula> nearest = index.findNearest(17.5, 2);
+        assertEquals(Formula.formulaFromStringHill("NH3", null, null), nearest.get(0));
+        assertEquals(Formula.formulaFromStringHill("H2O", null, null), nearest.get(1));
+        assertEquals(5, index.findNearest(17.5, 10).size());
+    }
+}
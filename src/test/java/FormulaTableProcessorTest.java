@@ -0,0 +1,69 @@
+import ceu.biolab.*;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FormulaTableProcessorTest {
+
+    @Test
+    public void testProcessRows() throws Exception {
+        String input = "formula\tadduct\texperimental_mass\n" +
+                "C6H12O6\t[M+H]+\t181.0707\n" +
+                "C6H12O6\t\t\n" +
+                "C6H12Xx\t[M+H]+\t181.0707\n" +
+                "C6H12O6\t[M+H\t181.0707\n";
+        StringWriter out = new StringWriter();
+        long rows = new FormulaTableProcessor(2, 10).process(new BufferedReader(new StringReader(input)), out);
+        assertEquals(4, rows);
+
+        String[] lines = out.toString().split("\n");
+        assertEquals(5, lines.length);
+        assertEquals(String.join("\t", FormulaTableProcessor.OUTPUT_COLUMNS), lines[0]);
+
+        String[] glucose = lines[1].split("\t", -1);
+        assertEquals(FormulaTableProcessor.OUTPUT_COLUMNS.length, glucose.length);
+        Formula formula = Formula.formulaFromStringHill("C6H12O6", "[M+H]+", null);
+        assertEquals(formula.getMonoisotopicMass(), Double.parseDouble(glucose[3]), 1e-9);
+        assertEquals(formula.getMonoisotopicMassWithAdduct(), Double.parseDouble(glucose[4]), 1e-9);
+        assertEquals(formula.ppmDifferenceWithExpMass(181.0707), Double.parseDouble(glucose[5]), 1e-9);
+        assertEquals("true", glucose[6]);
+        assertEquals("CHNOPS", glucose[7]);
+        assertEquals("", glucose[8]);
+
+        String[] withoutMass = lines[2].split("\t", -1);
+        assertEquals("", withoutMass[5]);
+        assertEquals("", withoutMass[6]);
+        assertEquals("", withoutMass[8]);
+
+        assertTrue(lines[3].split("\t", -1)[8].startsWith("UNKNOWN_ELEMENT"));
+        assertEquals("C6H12Xx", lines[3].split("\t", -1)[0]);
+        assertTrue(lines[4].split("\t", -1)[8].startsWith("INVALID_ADDUCT"));
+    }
+
+    @Test
+    public void testKeepsInputOrder() throws Exception {
+        StringBuilder input = new StringBuilder();
+        int rows = 20000;
+        for (int i = 1; i <= rows; i++) {
+            input.append(i % 7 == 0 ? "Xx" : "C" + (i % 50 + 1) + "H" + i).append("\t[M+H]+\n");
+        }
+        StringWriter out = new StringWriter();
+        assertEquals(rows, new FormulaTableProcessor(3, 5).process(new BufferedReader(new StringReader(input.toString())), out));
+
+        String[] lines = out.toString().split("\n");
+        assertEquals(rows + 1, lines.length);
+        for (int i = 1; i <= rows; i++) {
+            String[] columns = lines[i].split("\t", -1);
+            if (i % 7 == 0) {
+                assertEquals("Xx", columns[0]);
+                assertFalse(columns[8].isEmpty());
+            } else {
+                assertEquals("C" + (i % 50 + 1) + "H" + i, columns[0]);
+                assertTrue(columns[8].isEmpty());
+            }
+        }
+    }
+}
@@ -4,6 +4,7 @@ import org.junit.jupiter.api.Test;
 import java.text.Normalizer;
 import java.util.Map;
 import java.util.Set;
+import java.util.BitSet;
 import static org.junit.jupiter.api.Assertions.*;
 import java.util.HashMap;
 import ceu.biolab.FormulaType;
@@ -78,6 +79,27 @@ public class FormulaTest {
         assertEquals(expected, result);
     }
 
+    @Test
+    public void testFormulaFromInChiLayers() throws Exception {
+        Formula acetate = Formula.formulaFromInChI("InChI=1S/C2H4O2/c1-2(3)4/h1H3,(H,3,4)/p-1");
+        assertEquals("C2H3O2-", acetate.getHillString());
+        assertEquals(ChargeType.NEGATIVE, acetate.getChargeType());
+
+        Formula calciumAcetate = Formula.formulaFromInChI("InChI=1S/2C2H4O2.Ca/c2*1-2(3)4;/h2*1H3,(H,3,4);/q;;+2/p-2");
+        assertEquals("C4H6CaO4", calciumAcetate.getHillString());
+        assertEquals(ChargeType.NEUTRAL, calciumAcetate.getChargeType());
+
+        Formula choline = Formula.formulaFromInChI("InChI=1S/C5H14NO/c1-6(2,3)4-5-7/h7H,4-5H2,1-3H3/q+1");
+        assertEquals("C5H14NO+", choline.getHillString());
+        assertEquals("H+", Formula.formulaFromInChI("InChI=1S/p+1").getHillString());
+
+        assertEquals(Formula.formulaFromStringHill("H2O", null, null), Formula.formulaFromInChI("InChI=1S/H2O/h1H2", true));
+        assertThrows(IncorrectFormula.class, () -> Formula.formulaFromInChI("C2H4O2"));
+        assertThrows(IncorrectFormula.class, () -> Formula.formulaFromInChI("InChI=1S/"));
+        assertThrows(IncorrectFormula.class, () -> Formula.formulaFromInChI("InChI=1S/C2H4O2/q+"));
+        assertThrows(NotFoundElement.class, () -> Formula.formulaFromInChI("InChI=1S/C2Xx"));
+    }
+
     @Test
     public void testCheckMonoisotopicMass() throws IncorrectFormula, IncorrectAdduct, NotFoundElement {
         Formula formula = Formula.formulaFromStringHill("H2O", "None", null);
@@ -185,5 +207,118 @@ public class FormulaTest {
         assertEquals(expectedFormulaType, formulaType, "Formula H2CON should be CHNOPS");
     }
 
+    @Test
+    public void testParseHillCharge() throws IncorrectFormula, IncorrectAdduct, NotFoundElement {
+        Formula formula = Formula.formulaFromStringHill("C6H12O6(-2)", null, null);
+        assertEquals(2, formula.getCharge());
+        assertEquals(ChargeType.NEGATIVE, formula.getChargeType());
+        assertEquals(6, formula.getElements().get(Element.ElementType.C));
+
+        Formula isotopePrefix = Formula.formulaFromStringHill("[13]C6H12O6+", null, null);
+        assertEquals(1, isotopePrefix.getCharge());
+        assertEquals(ChargeType.POSITIVE, isotopePrefix.getChargeType());
+        assertEquals(6, isotopePrefix.getElements().get(Element.ElementType.C));
+    }
+
+    @Test
+    public void testParseHillIncorrect() {
+        assertThrows(IncorrectFormula.class, () -> Formula.formulaFromStringHill("(CH3)2CO", null, null));
+        assertThrows(IncorrectFormula.class, () -> Formula.formulaFromStringHill("C2H5-OH", null, null));
+        assertThrows(IncorrectFormula.class, () -> Formula.formulaFromStringHill("C0H4", null, null));
+        assertThrows(NotFoundElement.class, () -> Formula.formulaFromStringHill("C2Hx4", null, null));
+    }
+
+    @Test
+    public void testTryParseHill() throws IncorrectFormula, IncorrectAdduct, NotFoundElement {
+        ParseResult valid = Formula.tryFormulaFromStringHill("C6H12O6", "[M+H]+", null);
+        assertTrue(valid.isSuccess());
+        assertEquals(Formula.formulaFromStringHill("C6H12O6", "[M+H]+", null), valid.getFormula());
+        assertNull(valid.getErrorCode());
+
+        assertError(ParseResult.ErrorCode.INVALID_SYNTAX, 0, "(CH3)2CO", null);
+        assertError(ParseResult.ErrorCode.INVALID_SYNTAX, 5, "C2H5-OH", null);
+        assertError(ParseResult.ErrorCode.ZERO_APPEARANCES, 0, "C0H4", null);
+        assertError(ParseResult.ErrorCode.UNKNOWN_ELEMENT, 2, "C2Hx4", null);
+        assertError(ParseResult.ErrorCode.NUMBER_OVERFLOW, 1, "C99999999999", null);
+        assertError(ParseResult.ErrorCode.INVALID_ADDUCT, -1, "C6H12O6", "[M+Xx]+");
+        assertError(ParseResult.ErrorCode.ADDUCT_NOT_APPLICABLE, -1, "CH4", "[M-H2O+H]+");
+        assertError(ParseResult.ErrorCode.ADDUCT_NOT_APPLICABLE, -1, "CH4", "[M+H-H2O]+");
+        assertTrue(Formula.tryFormulaFromStringHill("C6H12O6", "[M+H-H2O]+", null).isSuccess());
+        assertEquals(Formula.formulaFromStringHill("C6H12O6", "[M+H-H2O]+", null).getMonoisotopicMassWithAdduct(),
+                Formula.tryFormulaFromStringHill("C6H12O6", "[M+H-H2O]+", null).getFormula().getMonoisotopicMassWithAdduct(), 0);
+
+        // Invalid adducts are only parsed the first time
+        assertError(ParseResult.ErrorCode.INVALID_ADDUCT, -1, "C6H12O6", "[M+Xyz]+");
+        long misses = Adduct.getCacheMisses();
+        assertError(ParseResult.ErrorCode.INVALID_ADDUCT, -1, "C6H12O6", "[M+Xyz]+");
+        assertError(ParseResult.ErrorCode.INVALID_ADDUCT, -1, "CH4", "[M+Xyz]+");
+        assertEquals(misses, Adduct.getCacheMisses());
+        assertError(ParseResult.ErrorCode.INVALID_ADDUCT, -1, "CH4", "[99999999999M+H]+");
+    }
+
+    private static void assertError(ParseResult.ErrorCode errorCode, int position, String formulaStr, String adduct) {
+        ParseResult result = Formula.tryFormulaFromStringHill(formulaStr, adduct, null);
+        assertFalse(result.isSuccess(), formulaStr);
+        assertNull(result.getFormula());
+        assertEquals(errorCode, result.getErrorCode(), formulaStr);
+        assertEquals(position, result.getErrorPosition(), formulaStr);
+        assertEquals(formulaStr, result.getInput());
+    }
+
+    @Test
+    public void testHillString() throws IncorrectFormula, IncorrectAdduct, NotFoundElement {
+        assertEquals("C6H11O7-", Formula.formulaFromStringHill("O7H11C6-", null, null).getHillString());
+        assertEquals("ClNa", Formula.formulaFromStringHill("NaCl", null, null).getHillString());
+        assertEquals("H2O", Formula.formulaFromStringHill("OH2", "[M+H]+", null).getHillString());
+    }
+
+    @Test
+    public void testBatchMassChecks() throws IncorrectFormula, IncorrectAdduct, NotFoundElement {
+        Formula formula = Formula.formulaFromStringHill("H2O", "[M+H]+", null);
+        double[] masses = new double[150];
+        for (int i = 0; i < masses.length; i++) {
+            masses[i] = 18.0 + i * 0.0001;
+        }
+        BitSet neutral = formula.checkMonoisotopicMass(masses, 10.0);
+        BitSet withAdduct = formula.checkMonoisotopicMassWithAdduct(masses, 10.0);
+        double[] ppms = formula.ppmDifferencesWithExpMasses(masses);
+        for (int i = 0; i < masses.length; i++) {
+            assertEquals(formula.checkMonoisotopicMass(masses[i], 10.0), neutral.get(i));
+            assertEquals(formula.checkMonoisotopicMassWithAdduct(masses[i], 10.0), withAdduct.get(i));
+            assertEquals(formula.ppmDifferenceWithExpMass(masses[i]), ppms[i], 0);
+        }
+        assertTrue(neutral.cardinality() > 0);
+    }
+
+    @Test
+    public void testFormulaFromCondensedString() throws IncorrectFormula, IncorrectAdduct, NotFoundElement {
+        assertEquals(Formula.formulaFromStringHill("C3H6O", null, null), Formula.formulaFromString("(CH3)2CO", null, true, null));
+        assertEquals(Formula.formulaFromStringHill("CaH2O2", null, null), Formula.formulaFromString("Ca(OH)2", null, true, null));
+        assertEquals(Formula.formulaFromStringHill("CuH10O9S", null, null), Formula.formulaFromString("CuSO4\u00B75H2O", null, true, null));
+        assertEquals(Formula.formulaFromStringHill("CuH12N4O4S", null, null), Formula.formulaFromString("[Cu(NH3)4]SO4", null, true, null));
+        assertEquals(Formula.formulaFromStringHill("C2H6O", "[M+H]+", null), Formula.formulaFromString("CH3(CH2)OH", "[M+H]+", true, null));
+
+        Formula labeled = Formula.formulaFromString("[13]C2C4H12O6", null, true, null);
+        assertEquals(2, labeled.getElements().get(Element.ElementType.C13));
+        assertEquals(4, labeled.getElements().get(Element.ElementType.C));
+        Formula deuterated = Formula.formulaFromString("C6H10[2]H2O6", null, true, null);
+        assertEquals(2, deuterated.getElements().get(Element.ElementType.D));
+        assertEquals(FormulaType.CHNOPSD, deuterated.getType());
+        assertEquals(FormulaType.CHNOPSD, Formula.formulaFromString("C6[2]H12O6", null, true, null).getType());
+
+        Formula charged = Formula.formulaFromString("(CH3)4N(+)", null, true, null);
+        assertEquals(1, charged.getCharge());
+        assertEquals(ChargeType.POSITIVE, charged.getChargeType());
+
+        assertNull(Formula.formulaFromString("Ca(OH", null, true, null));
+        assertNull(Formula.formulaFromString("(CH3)0", null, true, null));
+
+        // A wrong adduct is not read by the local parsers
+        assertNull(Formula.formulaFromString("C6H12O6", "garbage", true, null));
+        assertNull(Formula.formulaFromString("(CH3)2CO", "garbage", true, null));
+        assertNull(Formula.formulaFromString("[13]C2C4H12O6", "garbage", true, null));
+        assertNull(Formula.formulaFromString("CH4", "[M+H-H2O]+", true, null));
+    }
+
 }
 
@@ -0,0 +1,60 @@
+import ceu.biolab.*;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class IsotopePatternGeneratorTest {
+
+    @Test
+    public void testGenerate() throws Exception {
+        Formula glucose = Formula.formulaFromStringHill("C6H12O6", null, null);
+        IsotopePattern pattern = new IsotopePatternGenerator(1e-4, 0.5).generate(glucose);
+        assertEquals(0, pattern.getMostAbundantPeak());
+        assertEquals(glucose.getMonoisotopicMass(), pattern.getMass(0), 1e-9);
+        // M+1 of C6H12O6 is about 6.9% of M
+        double[] intensities = pattern.getRelativeIntensities();
+        assertEquals(0.069, intensities[1], 0.002);
+        assertEquals(1.00335, pattern.getMass(1) - pattern.getMass(0), 0.002);
+        double total = 0;
+        for (int i = 0; i < pattern.size(); i++) {
+            total += pattern.getAbundance(i);
+        }
+        assertEquals(1.0, total, 1e-3);
+    }
+
+    @Test
+    public void testGenerateChlorine() throws Exception {
+        Formula formula = Formula.formulaFromStringHill("CH2Cl2", null, null);
+        IsotopePattern pattern = new IsotopePatternGenerator(1e-4, 0.5).generate(formula);
+        double[] intensities = pattern.getRelativeIntensities();
+        // Two chlorines: M, M+2 and M+4 with ratios 1 : 0.64 : 0.10
+        assertEquals(0.64, intensities[2], 0.01);
+        assertEquals(0.10, intensities[4], 0.01);
+    }
+
+    @Test
+    public void testGenerateMetals() throws Exception {
+        IsotopePatternGenerator generator = new IsotopePatternGenerator(1e-4, 0.5);
+        // 107Ag and 109Ag: M and M+2 with ratio 1 : 0.93
+        double[] intensities = generator.generate(Formula.formulaFromStringHill("Ag", null, null)).getRelativeIntensities();
+        assertEquals(2, intensities.length);
+        assertEquals(0.929, intensities[1], 0.002);
+        // The most abundant isotope of Sn is 120Sn, four mass units above 116Sn
+        IsotopePattern tin = generator.generate(Formula.formulaFromStringHill("Sn", null, null));
+        assertTrue(tin.size() > 5);
+        assertEquals(Formula.formulaFromStringHill("Sn", null, null).getMonoisotopicMass(),
+                tin.getMass(tin.getMostAbundantPeak()), 1e-6);
+    }
+
+    @Test
+    public void testGenerateWithAdduct() throws Exception {
+        Formula formula = Formula.formulaFromStringHill("C6H12O6", "[M+2H]2+", null);
+        IsotopePatternGenerator generator = new IsotopePatternGenerator();
+        IsotopePattern pattern = generator.generateWithAdduct(formula);
+        assertEquals(formula.getMonoisotopicMassWithAdduct(), pattern.getMass(0), 1e-9);
+        // The 13C peak is at half the mass difference for a doubly charged ion
+        IsotopePattern nominal = new IsotopePatternGenerator(1e-4, 0.4).generateWithAdduct(formula);
+        assertEquals(1.00335 / 2, nominal.getMass(1) - nominal.getMass(0), 0.002);
+        assertThrows(IllegalArgumentException.class, () -> new IsotopePatternGenerator(1, 0));
+    }
+}
@@ -0,0 +1,41 @@
+import ceu.biolab.*;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class IsotopePatternScorerTest {
+
+    @Test
+    public void testScore() throws Exception {
+        IsotopePatternGenerator generator = new IsotopePatternGenerator(1e-4, 0.1);
+        IsotopePatternScorer scorer = new IsotopePatternScorer(generator, 5);
+        Formula formula = Formula.formulaFromStringHill("C9H8ClNO2", "[M+H]+", null);
+        IsotopePattern pattern = generator.generateWithAdduct(formula);
+        double[] intensities = pattern.getRelativeIntensities();
+        for (int i = 0; i < intensities.length; i++) {
+            intensities[i] *= 1000;
+        }
+        double score = scorer.score(formula, pattern.getMasses(), intensities);
+        assertTrue(score > 0.999);
+        // Without chlorine the M+2 peak of the cluster is not explained
+        Formula other = Formula.formulaFromStringHill("C10H11NO2S", "[M+H]+", null);
+        assertTrue(scorer.score(other, pattern.getMasses(), intensities) < score);
+    }
+
+    @Test
+    public void testTopK() throws Exception {
+        IsotopePatternGenerator generator = new IsotopePatternGenerator(1e-4, 0.1);
+        IsotopePatternScorer scorer = new IsotopePatternScorer(generator, 10);
+        Formula formula = Formula.formulaFromStringHill("C6H12O6", "[M+Na]+", null);
+        IsotopePattern pattern = generator.generateWithAdduct(formula);
+        List<Formula> candidates = new MassDecomposer(FormulaType.CHNOPS).decompose(formula.getMonoisotopicMassWithAdduct(), "[M+Na]+", 10);
+        List<IsotopePatternScorer.ScoredFormula> best = scorer.topK(candidates, pattern.getMasses(), pattern.getAbundances(), 3);
+        assertEquals(3, best.size());
+        assertEquals(formula, best.get(0).getFormula());
+        assertTrue(best.get(0).getScore() >= best.get(1).getScore());
+        assertTrue(best.get(1).getScore() >= best.get(2).getScore());
+        assertTrue(scorer.getCacheSize() <= candidates.size());
+        assertTrue(scorer.topK(candidates, pattern.getMasses(), pattern.getAbundances(), 0).isEmpty());
+    }
+}
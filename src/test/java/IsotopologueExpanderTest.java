@@ -0,0 +1,54 @@
+import ceu.biolab.*;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class IsotopologueExpanderTest {
+
+    @Test
+    public void testExpandInMassOrder() throws Exception {
+        Formula glucose = Formula.formulaFromStringHill("C6H12O6", null, null);
+        IsotopologueExpander expander = new IsotopologueExpander(glucose,
+                Map.of(Element.ElementType.C, 6, Element.ElementType.O, 2, Element.ElementType.H, 3));
+        assertEquals(7 * 3 * 4, expander.size());
+        List<Double> masses = new ArrayList<>();
+        Set<List<Integer>> labels = new HashSet<>();
+        long visited = expander.forEach((mass, counts) -> {
+            masses.add(mass);
+            labels.add(List.of(counts[0], counts[1], counts[2]));
+            try {
+                assertEquals(expander.toFormula(counts).getMonoisotopicMass(), mass, 1e-9);
+            } catch (Exception e) {
+                fail(e);
+            }
+            return true;
+        });
+        assertEquals(expander.size(), visited);
+        assertEquals(expander.size(), labels.size());
+        assertEquals(glucose.getMonoisotopicMass(), masses.get(0), 1e-9);
+        for (int i = 1; i < masses.size(); i++) {
+            assertTrue(masses.get(i - 1) <= masses.get(i));
+        }
+        assertEquals(5, expander.getMasses(5).length);
+    }
+
+    @Test
+    public void testExpandLighterLabel() throws Exception {
+        Formula formula = Formula.formulaFromStringHill("Li2CO3", "[M+H]+", null);
+        IsotopologueExpander expander = new IsotopologueExpander(formula, Map.of(Element.ElementType.Li, 5), true);
+        assertEquals(3, expander.size());
+        List<int[]> labels = new ArrayList<>();
+        double[] masses = expander.getMasses(3);
+        expander.forEach((mass, counts) -> labels.add(counts.clone()));
+        assertEquals(2, labels.get(0)[0]);
+        assertEquals(0, labels.get(2)[0]);
+        assertEquals(formula.getMonoisotopicMassWithAdduct(), masses[2], 1e-9);
+        assertEquals(expander.toFormula(labels.get(0)).getMonoisotopicMassWithAdduct(), masses[0], 1e-9);
+        assertThrows(IllegalArgumentException.class, () -> new IsotopologueExpander(formula, Map.of(Element.ElementType.S, 1)));
+    }
+}
@@ -0,0 +1,69 @@
+import ceu.biolab.*;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MassDecomposerTest {
+
+    @Test
+    public void testDecompose() throws Exception {
+        MassDecomposer decomposer = new MassDecomposer(FormulaType.CHNOPS);
+        Formula glucose = Formula.formulaFromStringHill("C6H12O6", null, null);
+        List<Formula> formulas = decomposer.decompose(glucose.getMonoisotopicMass(), 5);
+        assertEquals(glucose, formulas.get(0));
+        for (Formula formula : formulas) {
+            assertTrue(formula.checkMonoisotopicMass(glucose.getMonoisotopicMass(), 5));
+            assertEquals(FormulaType.CHNOPS, formula.getType());
+        }
+        assertEquals(formulas.size(), decomposer.decompose(glucose.getMonoisotopicMass(), 5, counts -> { }));
+    }
+
+    @Test
+    public void testDecomposeWithBounds() throws Exception {
+        MassDecomposer decomposer = new MassDecomposer(FormulaType.CHNOPSCL,
+                Map.of(Element.ElementType.Cl, 1),
+                Map.of(Element.ElementType.Cl, 1, Element.ElementType.P, 0, Element.ElementType.S, 0, Element.ElementType.H, 40));
+        double mass = Formula.formulaFromStringHill("C9H8ClNO2", null, null).getMonoisotopicMass();
+        List<Formula> formulas = decomposer.decompose(mass, 10);
+        assertTrue(formulas.contains(Formula.formulaFromStringHill("C9H8ClNO2", null, null)));
+        for (Formula formula : formulas) {
+            Map<Element.ElementType, Integer> elements = formula.getElements();
+            assertEquals(1, elements.get(Element.ElementType.Cl));
+            assertFalse(elements.containsKey(Element.ElementType.P));
+            assertFalse(elements.containsKey(Element.ElementType.S));
+        }
+    }
+
+    @Test
+    public void testDecomposerAlphabet() throws Exception {
+        assertThrows(IllegalArgumentException.class, () -> new MassDecomposer(FormulaType.ALL));
+        assertThrows(IllegalArgumentException.class, () -> new MassDecomposer(Set.of(Element.ElementType.C),
+                Map.of(Element.ElementType.H, 1), Map.of()));
+        MassDecomposer decomposer = new MassDecomposer(Set.of(Element.ElementType.O, Element.ElementType.C), Map.of(), Map.of());
+        assertEquals(List.of(Element.ElementType.C, Element.ElementType.O), decomposer.getAlphabet());
+        assertEquals(List.of(Formula.formulaFromStringHill("CO2", null, null)), decomposer.decompose(43.98983, 5));
+    }
+
+    @Test
+    public void testDecomposeWithAdduct() throws Exception {
+        MassDecomposer decomposer = new MassDecomposer(FormulaType.CHNOPS);
+        Formula glucose = Formula.formulaFromStringHill("C6H12O6", "[M-H2O+H]+", null);
+        double mz = glucose.getMonoisotopicMassWithAdduct();
+        List<Formula> formulas = decomposer.decompose(mz, "[M-H2O+H]+", 5);
+        assertTrue(formulas.contains(glucose));
+        for (Formula formula : formulas) {
+            assertTrue(formula.checkMonoisotopicMassWithAdduct(mz, 5));
+            assertTrue(formula.getElements().containsKey(Element.ElementType.O));
+        }
+
+        double[] masses = {Formula.formulaFromStringHill("C5H5N5", null, null).getMonoisotopicMass(), mz};
+        List<List<Formula>> candidates = decomposer.decompose(masses, Arrays.asList(null, "[M-H2O+H]+"), 5);
+        assertEquals(2, candidates.size());
+        assertTrue(candidates.get(0).contains(Formula.formulaFromStringHill("C5H5N5", null, null)));
+        assertTrue(candidates.get(1).containsAll(formulas));
+    }
+}
@@ -0,0 +1,88 @@
+import ceu.biolab.*;
+import org.junit.jupiter.api.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MetricsTest {
+
+    @Test
+    public void testListener() throws Exception {
+        List<String> events = new ArrayList<>();
+        Metrics.setListener(new MetricsListener() {
+            @Override
+            public void formulaParsed(EntryPoint entryPoint, long nanos) {
+                events.add(entryPoint + " " + (nanos >= 0));
+            }
+
+            @Override
+            public void formulaParseFailed(EntryPoint entryPoint, String errorType, long nanos) {
+                events.add(entryPoint + " " + errorType);
+            }
+
+            @Override
+            public void cdkConversion(Conversion conversion, long nanos) {
+                events.add("CDK " + conversion);
+            }
+        });
+        try {
+            Formula.formulaFromStringHill("C6H12O6", null, null);
+            assertThrows(NotFoundElement.class, () -> Formula.formulaFromStringHill("C6H12Xx", null, null));
+            Formula.tryFormulaFromStringHill("C0H4", null, null);
+            Formula.formulaFromString("(CH3)2CO", null, true, null);
+            Formula.formulaFromSMILES("CCO");
+        } finally {
+            Metrics.disable();
+        }
+        assertEquals(List.of("HILL true", "HILL NotFoundElement", "TRY_HILL ZERO_APPEARANCES", "STRING true",
+                "CDK SMILES", "SMILES true"), events);
+
+        Formula.formulaFromStringHill("C6H12O6", null, null);
+        assertEquals(6, events.size());
+        assertSame(MetricsListener.NOOP, Metrics.getListener());
+    }
+
+    @Test
+    public void testJmx() throws Exception {
+        JmxMetrics metrics = Metrics.enableJmx();
+        try {
+            for (int i = 0; i < 10; i++) {
+                Formula.formulaFromStringHill("C6H12O6", "[M+H]+", null);
+            }
+            assertThrows(IncorrectFormula.class, () -> Formula.formulaFromStringHill("C2H5-OH", null, null));
+        } finally {
+            Metrics.disable();
+        }
+        assertEquals(11, metrics.getParseLatencies().get("HILL").getCount());
+        assertEquals(1L, metrics.getParseFailures().get("HILL IncorrectFormula"));
+        assertTrue(metrics.getAdductCacheHits() + metrics.getAdductParseLatency().getCount() >= 10);
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(Metrics.JMX_NAME);
+        TabularData latencies = (TabularData) server.getAttribute(name, "ParseLatencies");
+        CompositeData hill = (CompositeData) latencies.get(new Object[]{"HILL"}).get("value");
+        assertEquals(11L, hill.get("count"));
+        assertTrue((Double) hill.get("p99Micros") <= (Double) hill.get("maxMicros"));
+        assertEquals(0L, server.getAttribute(name, "ChemCalcTimeouts"));
+    }
+
+    @Test
+    public void testLatencyHistogram() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(500.5, histogram.getMeanMicros(), 1e-9);
+        assertEquals(1000.0, histogram.getMaxMicros(), 1e-9);
+        // The percentiles are the upper bound of their bucket, less than 12.5% above the real value
+        assertTrue(histogram.getP50Micros() >= 500 && histogram.getP50Micros() < 500 * 1.125);
+        assertTrue(histogram.getP99Micros() >= 990 && histogram.getP99Micros() <= 1000);
+    }
+}
@@ -0,0 +1,59 @@
+import ceu.biolab.*;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SmilesFormulaConverterTest {
+
+    @Test
+    public void testFromSmiles() throws Exception {
+        assertEquals(Formula.formulaFromStringHill("C6H12O6", null, null),
+                SmilesFormulaConverter.fromSmiles("OC[C@H]1OC(O)[C@H](O)[C@@H](O)[C@@H]1O"));
+
+        Formula acetate = SmilesFormulaConverter.fromSmiles("CC(=O)[O-]");
+        assertEquals("C2H3O2-", acetate.getHillString());
+        assertEquals(ChargeType.NEGATIVE, acetate.getChargeType());
+        assertEquals(1, acetate.getCharge());
+
+        Formula ammonium = SmilesFormulaConverter.fromSmiles("[NH4+]");
+        assertEquals(Formula.formulaFromStringHill("H4N+", null, null).getMonoisotopicMass(), ammonium.getMonoisotopicMass(), 1e-9);
+
+        Formula labeled = SmilesFormulaConverter.fromSmiles("[13CH4]");
+        assertEquals(1, labeled.getElements().get(Element.ElementType.C13));
+        assertEquals(4, labeled.getElements().get(Element.ElementType.H));
+
+        Formula deuterated = SmilesFormulaConverter.fromSmiles("[2H]C([2H])([2H])O");
+        assertEquals(3, deuterated.getElements().get(Element.ElementType.D));
+        assertEquals(1, deuterated.getElements().get(Element.ElementType.H));
+        assertEquals(FormulaType.CHNOPSD, deuterated.getType());
+
+        assertEquals(Formula.formulaFromStringHill("C2H5Cl", null, null), Formula.formulaFromSMILES("CCCl"));
+        assertThrows(IncorrectFormula.class, () -> SmilesFormulaConverter.fromSmiles("C1CC("));
+        assertThrows(IncorrectFormula.class, () -> SmilesFormulaConverter.fromSmiles("C*"));
+    }
+
+    @Test
+    public void testBatch() throws Exception {
+        List<String> smiles = new ArrayList<>();
+        for (int i = 1; i <= 500; i++) {
+            smiles.add(i % 10 == 0 ? "C1CC(" : "C".repeat(i % 30 + 1) + "O");
+        }
+        List<Formula> formulas = SmilesFormulaConverter.fromSmiles(smiles, new ForkJoinPool(3));
+        List<Formula> streamed = SmilesFormulaConverter.fromSmiles(smiles.parallelStream()).collect(Collectors.toList());
+        assertEquals(smiles.size(), formulas.size());
+        for (int i = 0; i < smiles.size(); i++) {
+            if ((i + 1) % 10 == 0) {
+                assertNull(formulas.get(i));
+                assertNull(streamed.get(i));
+            } else {
+                Formula expected = SmilesFormulaConverter.fromSmiles(smiles.get(i));
+                assertEquals(expected, formulas.get(i));
+                assertEquals(expected, streamed.get(i));
+            }
+        }
+    }
+}